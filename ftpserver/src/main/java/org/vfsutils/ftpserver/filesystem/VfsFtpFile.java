@@ -13,11 +13,17 @@ import org.apache.ftpserver.ftplet.User;
 import org.apache.ftpserver.usermanager.impl.WriteRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.vfsutils.content.RandomAccessContentInputStream;
+import org.vfsutils.content.RandomAccessContentOutputStream;
+import org.vfsutils.copy.PipelinedCopier;
 
 public class VfsFtpFile implements FtpFile {
 	
 	private final Logger log = LoggerFactory.getLogger(VfsFtpFile.class);
 	
+	// overlaps receiving an upload with writing it
+	private static final PipelinedCopier copier = new PipelinedCopier();
+	
 	private org.apache.commons.vfs2.FileObject vfsFile;
 	
 	private User user;
@@ -32,17 +38,12 @@ public class VfsFtpFile implements FtpFile {
 	}
 	
 	public InputStream createInputStream(long offset) throws IOException {
-		if (offset>0) {
-			throw new IOException("offset not supported");
-		}
-		return this.vfsFile.getContent().getInputStream();
+		return RandomAccessContentInputStream.open(this.vfsFile, offset);
 	}
 
 	public OutputStream createOutputStream(long offset) throws IOException {
-		if (offset>0) {
-			throw new IOException("offset not supported");
-		}
-		return this.vfsFile.getContent().getOutputStream();
+		// a restarted upload keeps the content before the offset
+		return copier.pipe(RandomAccessContentOutputStream.open(this.vfsFile, offset), null);
 	}
 
 	public boolean delete() {
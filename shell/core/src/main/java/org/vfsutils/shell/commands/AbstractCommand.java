@@ -1,8 +1,15 @@
 package org.vfsutils.shell.commands;
 
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.vfs2.FileSystemException;
+import org.vfsutils.VfsUtils;
+import org.vfsutils.digest.ChecksumCache;
 import org.vfsutils.shell.CommandInfo;
 import org.vfsutils.shell.CommandProvider;
 import org.vfsutils.shell.CommandRegistry;
+import org.vfsutils.shell.Engine;
 
 public abstract class AbstractCommand implements CommandProvider {
 
@@ -50,4 +57,43 @@ public abstract class AbstractCommand implements CommandProvider {
 		reg.unregisterCommand(this.cmd, this);
 	}
 
+	/**
+	 * Opens the checksum cache given by the cache option of a command
+	 * @param path the path of a local file
+	 * @param engine
+	 * @return the cache
+	 * @throws FileSystemException also when the file is not a checksum cache
+	 */
+	protected ChecksumCache openChecksumCache(String path, Engine engine) throws FileSystemException {
+		File localFile = VfsUtils.toLocalFile(engine.pathToFile(path));
+		if (localFile == null) {
+			throw new IllegalArgumentException("The checksum cache must be a local file");
+		}
+		try {
+			return new ChecksumCache(localFile);
+		}
+		catch (IOException e) {
+			throw new FileSystemException(e);
+		}
+	}
+
+	/**
+	 * Closes a checksum cache opened by {@link #openChecksumCache(String, Engine)};
+	 * an error is reported but not thrown.
+	 * @param cache
+	 * @param verbose whether the statistics of the cache are printed
+	 * @param engine
+	 */
+	protected void closeChecksumCache(ChecksumCache cache, boolean verbose, Engine engine) {
+		try {
+			cache.close();
+		}
+		catch (IOException e) {
+			engine.error("Error closing checksum cache: " + e.getMessage());
+		}
+		if (verbose) {
+			engine.println(cache.toString());
+		}
+	}
+
 }
@@ -1,13 +1,17 @@
 package org.vfsutils.shell.commands;
 
 import java.math.BigInteger;
-import java.util.LinkedList;
 
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileType;
-import org.apache.commons.vfs2.NameScope;
 import org.apache.commons.vfs2.Selectors;
+import org.vfsutils.diff.DiffEvent;
+import org.vfsutils.diff.DirectoryDiff;
+import org.vfsutils.digest.ChecksumCache;
+import org.vfsutils.digest.ChecksumResolver;
+import org.vfsutils.digest.DigestEngine;
+import org.vfsutils.digest.NativeChecksums;
 import org.vfsutils.shell.Arguments;
 import org.vfsutils.shell.CommandException;
 import org.vfsutils.shell.Engine;
@@ -18,7 +22,9 @@ public class Compare extends AbstractCommand {
 		public boolean compareDate = true;
 		public boolean compareDateNewer = true;
 		public boolean compareSize = false;
-		public boolean compareMd5 = false;
+		public boolean compareDigest = false;
+		public String digestAlgorithm = DigestEngine.MD5;
+		public boolean nativeChecksums = true;
 		public boolean purge = true;
 		public boolean verbose = false;		
 		
@@ -35,11 +41,13 @@ public class Compare extends AbstractCommand {
 		
 	}
 
-	protected org.vfsutils.Md5 md5Helper;
+	protected DigestEngine digestEngine;
+	protected ChecksumResolver checksumResolver;
 	
 	public Compare() {
-		super("compare", "Compares two locations", "<fromPath> <toPath> [-sdmNv]");
-		this.md5Helper = new org.vfsutils.Md5();
+		super("compare", "Compares two locations", "<fromPath> <toPath> [--digest=<algorithm>] [--no-native] [--cache=<path>] [-sdmNv]");
+		this.digestEngine = new DigestEngine();
+		this.checksumResolver = new NativeChecksums();
 	}
 
 	public void execute(Arguments args, Engine engine)
@@ -54,8 +62,14 @@ public class Compare extends AbstractCommand {
 		CompareOptions options = new CompareOptions();
 		
 		options.compareSize = args.hasFlag('s');
-		options.compareMd5 = args.hasFlag('m');
-		options.compareDate = args.hasFlag('d') || !(options.compareSize || options.compareMd5);
+		options.compareDigest = args.hasFlag('m') || args.hasOption("digest");
+		if (args.hasOption("digest")) {
+			options.digestAlgorithm = this.digestEngine.normalize(args.getOption("digest"));
+			// fail early on unsupported algorithms
+			this.digestEngine.createDigest(options.digestAlgorithm);
+		}
+		options.nativeChecksums = !args.hasFlag("no-native");
+		options.compareDate = args.hasFlag('d') || !(options.compareSize || options.compareDigest);
 		options.compareDateNewer = !args.hasFlag("N");
 		options.verbose = args.hasFlag('v');
 		
@@ -63,10 +77,25 @@ public class Compare extends AbstractCommand {
 		options.destBase = destFileObject;
 		
 		if (options.verbose) {
-			engine.println("Comparing using " + (options.compareSize?"size ":"") + (options.compareDate?(options.compareDateNewer?"newer":"strict") + " date ":"") + (options.compareMd5?"md5 ":""));
+			engine.println("Comparing using " + (options.compareSize?"size ":"") + (options.compareDate?(options.compareDateNewer?"newer":"strict") + " date ":"") + (options.compareDigest?options.digestAlgorithm + " ":""));
 		}
 		
-		sync(srcFileObject, destFileObject, options, engine);
+		ChecksumCache cache = null;
+		if (args.hasOption("cache")) {
+			cache = openChecksumCache(args.getOption("cache"), engine);
+		}
+		this.digestEngine.setChecksumCache(cache);
+		this.digestEngine.setChecksumResolver(options.nativeChecksums ? this.checksumResolver : null);
+		try {
+			sync(srcFileObject, destFileObject, options, engine);
+		}
+		finally {
+			this.digestEngine.setChecksumCache(null);
+			this.digestEngine.setChecksumResolver(null);
+			if (cache != null) {
+				closeChecksumCache(cache, options.verbose, engine);
+			}
+		}
 		
 		StringBuffer result = new StringBuffer(100);
 		result.append("Difference: ");
@@ -143,33 +172,32 @@ public class Compare extends AbstractCommand {
 
 	protected void syncDirs(FileObject srcDir, FileObject destDir, CompareOptions options, Engine engine) throws CommandException, FileSystemException {
 		
-		java.util.List destChildren = new LinkedList();
 		options.cntDirs++;
 		if (!destDir.exists()) {
 			options.cntMissingDirItems += syncDirAction(srcDir, destDir, options, engine);			
 			options.cntMissingDirs++;
 		}
 		else {
-			FileObject[] tmpDestChildren = destDir.getChildren();
-			//create list of destChildren			
-			for (int i=0; i<tmpDestChildren.length; i++) {
-				destChildren.add(tmpDestChildren[i]);
-			}
-		
-			//spider through the children
-			FileObject[] srcChildren = srcDir.getChildren();
+			//merge the sorted listings of both sides
+			DirectoryDiff diff = new DirectoryDiff(srcDir, destDir, true);
+			DiffEvent event;
 			
-			for (int i=0; i<srcChildren.length; i++){
-				FileObject srcChild = srcChildren[i];
-				FileObject destChild = destDir.resolveFile(srcChild.getName().getBaseName(), NameScope.CHILD);
-				destChildren.remove(destChild);
+			while ((event = diff.next()) != null) {
+				
+				if (event.getType() == DiffEvent.REMOVED) {
+					if (options.purge) {
+						options.cntRemoved += remainingChildAction(event.getDest(), options, engine);
+					}
+					continue;
+				}
+				
+				FileObject srcChild = event.getSrc();
+				FileObject destChild = event.getDest();
 			
 				//if purge is allowed, remove destChild in case of type conflict
-				if (options.purge) {
-					if (destChild.exists() && !srcChild.getType().equals(destChild.getType())) {
-						options.cntRemoved += typeConflictAction(srcChild, destChild, options, engine);						
-					}
-				}				
+				if (options.purge && event.getType() == DiffEvent.TYPE_CONFLICT) {
+					options.cntRemoved += typeConflictAction(srcChild, destChild, options, engine);						
+				}
 				
 				//both are files (dest can be imaginary)
 				if (!srcChild.getType().equals(FileType.FOLDER) && !destChild.getType().equals(FileType.FOLDER)) {				
@@ -180,23 +208,10 @@ public class Compare extends AbstractCommand {
 				if (!srcChild.getType().equals(FileType.FILE) && !destChild.getType().equals(FileType.FILE)){
 					syncDirs(srcChild, destChild, options, engine);
 				}
-				
-				//when done processing, release reference to child
-				srcChildren[i]=null;				
-				
-			}
-			
-			if (options.purge) {
-				for (int i=0; i<destChildren.size(); i++) {
-					FileObject remainingChild = (FileObject) destChildren.get(i);
-					options.cntRemoved += remainingChildAction(remainingChild, options, engine);
-				}
 			}
-			
 		}
 	}
 
-	
 	protected int remainingChildAction(FileObject remainingChild,
 			CompareOptions options, Engine engine) throws FileSystemException {
 		
@@ -267,18 +282,26 @@ public class Compare extends AbstractCommand {
 			sameSize = fileA.getContent().getSize() == fileB.getContent().getSize();
 		}
 		
-		boolean sameMd5 = true;
-		if (options.compareMd5) {
+		boolean sameDigest = true;
+		if (options.compareDigest && sameSize && sameDate) {
 			
-			BigInteger md5A = md5Helper.calculateMd5(fileA);
-			BigInteger md5B = md5Helper.calculateMd5(fileB);
-			sameMd5 = md5A.equals(md5B);					
+			BigInteger digestA = digestEngine.calculate(fileA, options.digestAlgorithm);
+			BigInteger digestB = digestEngine.calculate(fileB, options.digestAlgorithm);
+			sameDigest = digestA.equals(digestB);					
 		}
 		
-		return sameSize && sameDate && sameMd5;		
+		return sameSize && sameDate && sameDigest;		
+	}
+
+	public void setDigestEngine(DigestEngine digestEngine) {
+		this.digestEngine = digestEngine;
 	}
 
-	public void setMd5Helper(org.vfsutils.Md5 md5Helper) {
-		this.md5Helper = md5Helper;
+	/**
+	 * Sets the resolver for checksums that the file systems already know
+	 * @param checksumResolver
+	 */
+	public void setChecksumResolver(ChecksumResolver checksumResolver) {
+		this.checksumResolver = checksumResolver;
 	}
 }
@@ -1,11 +1,20 @@
 package org.vfsutils.shell.commands;
 
+import java.security.MessageDigest;
+
 import org.apache.commons.vfs2.Capability;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileType;
 import org.apache.commons.vfs2.NameScope;
 import org.apache.commons.vfs2.Selectors;
+import org.vfsutils.copy.CopyVerifier;
+import org.vfsutils.copy.PipelinedCopier;
+import org.vfsutils.copy.RangedCopier;
+import org.vfsutils.copy.ResumableCopier;
+import org.vfsutils.digest.ChecksumCache;
+import org.vfsutils.digest.DigestEngine;
+import org.vfsutils.digest.NativeChecksums;
 import org.vfsutils.shell.Arguments;
 import org.vfsutils.shell.CommandException;
 import org.vfsutils.shell.CommandInfo;
@@ -17,13 +26,23 @@ public class Cp extends AbstractCommand implements CommandProvider {
 	public class CpOptions {
 		public boolean preserveLastModified = true;
 		public boolean verbose = false;
+		public int parallel = 1;
+		public boolean resume = false;
+		public long resumeCheck = 1024 * 1024;
+		public CopyVerifier verifier = null;
 
 		protected int cntFiles = 0;
 		protected int cntDirs = 0;
+		protected PipelinedCopier.Stats stats = new PipelinedCopier.Stats();
 	}
 
+	protected PipelinedCopier copier = new PipelinedCopier();
+	protected RangedCopier rangedCopier = new RangedCopier();
+	protected ResumableCopier resumableCopier = new ResumableCopier();
+	protected DigestEngine digestEngine = new DigestEngine();
+
 	public Cp() {
-		super("cp", new CommandInfo("Copies an item", "<src> <dest> [-Pv]"));
+		super("cp", new CommandInfo("Copies an item", "<src> <dest> [--parallel=<n>] [--resume [--resume-check=<KB>]] [--verify [--digest=<algorithm>] [--no-native] [--cache=<path>]] [-Pv]"));
 	}
 
 	public void execute(Arguments args, Engine engine)
@@ -41,19 +60,64 @@ public class Cp extends AbstractCommand implements CommandProvider {
 		CpOptions options = new CpOptions();
 		options.verbose = args.hasFlag('v');
 		options.preserveLastModified = !args.hasFlag('P');
+		if (args.hasOption("parallel")) {
+			try {
+				options.parallel = Integer.parseInt(args.getOption("parallel"));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Option parallel must be a number");
+			}
+			if (options.parallel < 1) {
+				throw new IllegalArgumentException("Option parallel must be at least 1");
+			}
+		}
+		options.resume = args.hasFlag("resume");
+		if (args.hasOption("resume-check")) {
+			try {
+				options.resumeCheck = Long.parseLong(args.getOption("resume-check")) * 1024;
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Option resume-check must be a number");
+			}
+		}
 
 		if (files.length == 0) {
 			throw new IllegalArgumentException("File does not exist: "
 					+ srcPattern);
-		} else if (engine.pathIsPattern(srcPattern)) {
-			cp(files, null, dest, options, engine);
-		} else {
-			FileObject src = files[0];
-			cp(src, null, dest, options, engine);
+		}
+
+		ChecksumCache cache = null;
+		if (args.hasFlag("verify")) {
+			options.verifier = new CopyVerifier(this.digestEngine,
+					args.hasOption("digest") ? args.getOption("digest")
+							: DigestEngine.MD5);
+			if (args.hasOption("cache")) {
+				cache = openChecksumCache(args.getOption("cache"), engine);
+			}
+		}
+		this.digestEngine.setChecksumCache(cache);
+		this.digestEngine.setChecksumResolver(args.hasFlag("no-native") ? null
+				: new NativeChecksums());
+		try {
+			if (engine.pathIsPattern(srcPattern)) {
+				cp(files, null, dest, options, engine);
+			} else {
+				FileObject src = files[0];
+				cp(src, null, dest, options, engine);
+			}
+		} finally {
+			this.digestEngine.setChecksumCache(null);
+			this.digestEngine.setChecksumResolver(null);
+			if (cache != null) {
+				closeChecksumCache(cache, false, engine);
+			}
 		}
 
 		engine.println("Copied " + options.cntDirs + " Folder(s), "
-				+ options.cntFiles + " File(s) ");
+				+ options.cntFiles + " File(s) "
+				+ (options.verifier != null ? "verified with "
+						+ options.verifier.getAlgorithm() : ""));
+		if (options.verbose && options.stats.getFiles() > 0) {
+			engine.println("Transferred " + options.stats);
+		}
 
 	}
 
@@ -138,7 +202,19 @@ public class Cp extends AbstractCommand implements CommandProvider {
 					+ engine.toString(srcFile));
 		}
 
-		destFile.copyFrom(srcFile, Selectors.SELECT_SELF);
+		int ranges = 0;
+		MessageDigest digest = null;
+		long resumedAt = (options.resume ? getResumeOffset(srcFile, destFile,
+				options, engine) : 0);
+		if (resumedAt > 0) {
+			this.resumableCopier.copy(srcFile, destFile, resumedAt, null);
+		} else if (options.parallel > 1 && this.rangedCopier.canCopy(srcFile)) {
+			ranges = this.rangedCopier.copy(srcFile, destFile, options.parallel);
+		} else {
+			digest = (options.verifier != null ? options.verifier.createDigest()
+					: null);
+			this.copier.copy(srcFile, destFile, options.stats, digest);
+		}
 		options.cntFiles++;
 		if (options.preserveLastModified
 				&& srcFile.getFileSystem().hasCapability(
@@ -148,12 +224,56 @@ public class Cp extends AbstractCommand implements CommandProvider {
 			destFile.getContent().setLastModifiedTime(
 					srcFile.getContent().getLastModifiedTime());
 		}
-		if (options.verbose) {
+		// ranges are verified while they are copied; resumed files are
+		// verified against a digest of the source
+		if (options.verifier != null && ranges == 0) {
+			options.verifier.verify(srcFile, destFile, digest);
+		}
+		if (options.verbose && resumedAt > 0) {
+			engine.println("Resumed file " + engine.toString(srcFile) + " to "
+					+ engine.toString(destFile) + " at byte " + resumedAt);
+		} else if (options.verbose) {
 			engine.println("Copied file " + engine.toString(srcFile) + " to "
-					+ engine.toString(destFile));
+					+ engine.toString(destFile)
+					+ (ranges > 0 ? " in " + ranges + " ranges" : ""));
 		}
 	}
 
+	/**
+	 * Determines where an interrupted copy can continue: at the end of the
+	 * existing target, if it is not longer than the source, if its last bytes
+	 * match the source and if the target file system can append or write at
+	 * that offset.
+	 * 
+	 * @param srcFile
+	 * @param destFile
+	 * @param options
+	 * @param engine
+	 * @return the offset or 0 if the file has to be copied completely
+	 * @throws FileSystemException
+	 */
+	protected long getResumeOffset(FileObject srcFile, FileObject destFile,
+			CpOptions options, Engine engine) throws FileSystemException {
+		if (!destFile.getType().equals(FileType.FILE)) {
+			return 0;
+		}
+		long offset = destFile.getContent().getSize();
+		if (offset == 0 || offset > srcFile.getContent().getSize()
+				|| !this.resumableCopier.canResume(destFile, offset)) {
+			return 0;
+		}
+		if (options.resumeCheck > 0
+				&& !this.resumableCopier.matchesBefore(srcFile, destFile,
+						offset, options.resumeCheck)) {
+			if (options.verbose) {
+				engine.println("The end of " + engine.toString(destFile)
+						+ " differs from the source, copying it completely");
+			}
+			return 0;
+		}
+		return offset;
+	}
+
 	/**
 	 * Recursively copies a folder to a target folder
 	 * 
@@ -230,6 +350,24 @@ public class Cp extends AbstractCommand implements CommandProvider {
 		}
 	}
 
+	/**
+	 * Sets the copier that copies the content of the files
+	 * 
+	 * @param copier
+	 */
+	public void setCopier(PipelinedCopier copier) {
+		this.copier = copier;
+	}
+
+	/**
+	 * Sets the copier for large files that are copied in parallel ranges
+	 * 
+	 * @param rangedCopier
+	 */
+	public void setRangedCopier(RangedCopier rangedCopier) {
+		this.rangedCopier = rangedCopier;
+	}
+
 	protected FileObject resolve(FileObject src, FileObject baseDir,
 			FileObject dest) throws FileSystemException {
 
@@ -1,11 +1,21 @@
 package org.vfsutils.shell.commands;
 
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileType;
-import org.vfsutils.Md5.Md5FileInfo;
+import org.vfsutils.digest.ChecksumCache;
+import org.vfsutils.digest.ManifestEntry;
+import org.vfsutils.digest.ManifestVerifier;
+import org.vfsutils.digest.ManifestVerifier.Summary;
+import org.vfsutils.digest.ManifestVerifier.VerifyListener;
+import org.vfsutils.Md5.Md5Listener;
 import org.vfsutils.shell.Arguments;
 import org.vfsutils.shell.CommandException;
 import org.vfsutils.shell.Engine;
@@ -15,7 +25,7 @@ public class Md5 extends AbstractCommand {
 	protected org.vfsutils.Md5 helper;
 	
 	public Md5() {
-		super("md5", "Calculate md5 checksum", "(<path> | -s <input>+) --checksum=<code> | -c <md5_path> ");
+		super("md5", "Calculate md5 checksum", "(<path> | -s <input>+) --checksum=<code> [--threads=<n> [--fs-limit=<n>]] [--cache=<path>] | -c <manifest_path> [--threads=<n> [--fs-limit=<n>]] [--failures=<path>] [-q]");
 		this.helper = new org.vfsutils.Md5();
 	}
 
@@ -35,19 +45,73 @@ public class Md5 extends AbstractCommand {
 			}
 		}
 		
-		if (args.hasFlag('s')) {
-			for (int i=0; i<args.size(); i++) {
-				md5(args.getArgument(i), checksum, engine);
-			}			
-		}
-		else if (args.hasFlag("c")) {
-			FileObject[] files = engine.pathToFiles(args.getArgument(0));
-			md5(files, true, engine);
-		}
-		else {
-			FileObject[] files = engine.pathToFiles(args.getArgument(0));
-			md5(files, checksum, engine);			
-		}		
+		this.helper.setMaxPerFileSystem(getFileSystemLimit(args));
+		
+		ChecksumCache cache = null;
+		if (args.hasOption("cache")) {
+			cache = openChecksumCache(args.getOption("cache"), engine);
+		}
+		this.helper.setChecksumCache(cache);
+		try {
+			if (args.hasFlag('s')) {
+				for (int i=0; i<args.size(); i++) {
+					md5(args.getArgument(i), checksum, engine);
+				}			
+			}
+			else if (args.hasFlag("c")) {
+				FileObject[] files = engine.pathToFiles(args.getArgument(0));
+				int threads = (args.hasOption("threads") ? getThreads(args) : 1);
+				FileObject failureList = (args.hasOption("failures") ? engine.pathToFile(args.getOption("failures")) : null);
+				verify(files, threads, args.hasFlag('q'), failureList, engine);
+			}
+			else if (args.hasOption("threads")) {
+				FileObject[] files = engine.pathToFiles(args.getArgument(0));
+				md5(files, checksum, getThreads(args), engine);
+			}
+			else {
+				FileObject[] files = engine.pathToFiles(args.getArgument(0));
+				md5(files, checksum, engine);			
+			}
+		}
+		finally {
+			this.helper.setChecksumCache(null);
+			if (cache != null) {
+				closeChecksumCache(cache, false, engine);
+			}
+		}
+	}
+	
+	protected int getThreads(Arguments args) throws IllegalArgumentException {
+		try {
+			int threads = Integer.parseInt(args.getOption("threads"));
+			if (threads < 1) {
+				throw new IllegalArgumentException("The number of threads must be at least 1");
+			}
+			return threads;
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid number of threads given");
+		}
+	}
+	
+	/**
+	 * @return the maximum number of files read at the same time from a single
+	 * file system, 4 by default
+	 */
+	protected int getFileSystemLimit(Arguments args) throws IllegalArgumentException {
+		if (!args.hasOption("fs-limit")) {
+			return 4;
+		}
+		try {
+			int limit = Integer.parseInt(args.getOption("fs-limit"));
+			if (limit < 1) {
+				throw new IllegalArgumentException("The file system limit must be at least 1");
+			}
+			return limit;
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid file system limit given");
+		}
 	}
 	
 	public void md5(FileObject[] files, BigInteger checksum, Engine engine) throws FileSystemException, CommandException {
@@ -63,15 +127,79 @@ public class Md5 extends AbstractCommand {
 		}
 	}
 	
-	public void md5(FileObject[] files, boolean readMd5FromFile, Engine engine) throws FileSystemException, CommandException {
+	/**
+	 * Calculates the md5 of the files in parallel; the results are printed
+	 * in order of completion.
+	 */
+	public void md5(FileObject[] files, final BigInteger checksum, int threads, final Engine engine) throws FileSystemException, CommandException {
+		List fileList = new ArrayList(files.length);
 		for (int i=0; i<files.length; i++) {
 			FileObject file = files[i];
-			engine.println(engine.toString(file));
 			if (file.getType().equals(FileType.FOLDER)) {
+				engine.println(engine.toString(file));
 				engine.error("You cannot calculate md5 on a directory");
 			}
 			else {
-				md5FromFile(file, engine);
+				fileList.add(file);
+			}
+		}
+		
+		FileObject[] selected = (FileObject[]) fileList.toArray(new FileObject[fileList.size()]);
+		this.helper.calculateMd5(selected, threads, new Md5Listener() {
+			public void md5Calculated(FileObject file, BigInteger md5) {
+				engine.println(engine.toString(file));
+				engine.println("MD5: " + helper.toString(md5));
+				if (checksum!=null) {
+					engine.println("Checksum is " + (md5.equals(checksum)?"identical":"different"));
+				}
+			}
+			public void md5Failed(FileObject file, FileSystemException e) {
+				engine.println(engine.toString(file));
+				engine.error("Error calculating md5: " + e.getMessage());
+			}
+		});
+	}
+	
+	public void md5(FileObject[] files, boolean readMd5FromFile, Engine engine) throws FileSystemException, CommandException {
+		verify(files, 1, false, null, engine);
+	}
+	
+	/**
+	 * Verifies the files listed in the given manifests
+	 * @param manifests
+	 * @param threads the number of files verified in parallel
+	 * @param quiet if true only the entries that are not OK are printed
+	 * @param failureList optional file to which the entries that are not OK are written
+	 * @param engine
+	 */
+	public void verify(FileObject[] manifests, int threads, boolean quiet, FileObject failureList, Engine engine) throws FileSystemException, CommandException {
+		Writer failures = null;
+		try {
+			if (failureList != null) {
+				failures = new OutputStreamWriter(failureList.getContent().getOutputStream(), "UTF-8");
+			}
+			for (int i=0; i<manifests.length; i++) {
+				FileObject manifest = manifests[i];
+				engine.println(engine.toString(manifest));
+				if (manifest.getType().equals(FileType.FOLDER)) {
+					engine.error("You cannot calculate md5 on a directory");
+				}
+				else {
+					md5FromFile(manifest, threads, quiet, failures, engine);
+				}
+			}
+		}
+		catch (IOException e) {
+			throw new FileSystemException(e);
+		}
+		finally {
+			if (failures != null) {
+				try {
+					failures.close();
+				}
+				catch (IOException e) {
+					//ignore
+				}
 			}
 		}
 	}
@@ -94,37 +222,62 @@ public class Md5 extends AbstractCommand {
 	}
 	
 	public void md5FromFile(FileObject checksumFile, Engine engine) throws CommandException, FileSystemException {
+		md5FromFile(checksumFile, 1, false, null, engine);
+	}
+	
+	/**
+	 * Verifies the files listed in a manifest in md5sum/sha*sum (GNU or BSD) format
+	 * or a file containing a single checksum.
+	 * @param manifest
+	 * @param threads the number of files verified in parallel
+	 * @param quiet if true only the entries that are not OK are printed
+	 * @param failures optional writer to which the entries that are not OK are written, 
+	 * tab separated as status, checksum, name and detail
+	 * @param engine
+	 */
+	public void md5FromFile(FileObject manifest, int threads, final boolean quiet, final Writer failures, final Engine engine) throws CommandException, FileSystemException {
 		
+		ManifestVerifier verifier = new ManifestVerifier();
+		verifier.setThreads(threads);
+		verifier.setMaxPerFileSystem(this.helper.getMaxPerFileSystem());
+		verifier.setDigestEngine(this.helper.getDigestEngine());
 		
-		Md5FileInfo info = this.helper.parseMd5File(checksumFile);
+		final IOException[] writeError = new IOException[1];
 		
-		BigInteger checksum = this.helper.fromString(info.checksum);
+		Summary summary = verifier.verify(manifest, new VerifyListener() {
+			public void entryVerified(ManifestEntry entry, FileObject file, int status, String detail) {
+				String name = (file == null ? entry.toString() : engine.toString(file));
+				if (status == ManifestVerifier.OK) {
+					if (!quiet) {
+						engine.println(name + ": OK");
+					}
+				}
+				else {
+					if (status == ManifestVerifier.ERROR) {
+						engine.error(name + ": ERROR " + detail);
+					}
+					else {
+						engine.println(name + ": " + ManifestVerifier.toString(status));
+					}
+					
+					if (failures != null && writeError[0] == null) {
+						try {
+							failures.write(ManifestVerifier.toString(status) + "\t" + entry.checksum + "\t" 
+									+ name + "\t" + (detail == null ? "" : detail) + "\n");
+						}
+						catch (IOException e) {
+							writeError[0] = e;
+						}
+					}
+				}
+			}
+		});
 		
-		String fileName;
-		if (info.fileName != null) {
-			fileName = info.fileName;
-		}
-		else if (info.fileName==null && checksumFile.getName().getExtension().equals("md5")) {
-			//remove the .md5 from the checksum file
-			String baseName = checksumFile.getName().getBaseName();
-			fileName = baseName.substring(0, baseName.length()-4);
-		}
-		else {
-			throw new FileSystemException(new IllegalArgumentException("Target file name can not be deduced"));
-		}
-				
-		FileObject file = checksumFile.getParent().resolveFile(fileName);
+		engine.println(summary.toString());
 		
-		if (!file.exists()) {
-			throw new CommandException("File " + engine.toString(file) + " does not exist ");
+		if (writeError[0] != null) {
+			throw new FileSystemException(writeError[0]);
 		}
-		
-		BigInteger bigInt = this.helper.calculateMd5(file);
-		engine.println("Checksum: " + this.helper.toString(checksum));
-		engine.println("Target file: " + engine.toString(file));
-		engine.println("MD5: " + this.helper.toString(bigInt));
-		engine.println("Checksum is " + (bigInt.equals(checksum)?"identical":"different"));
-		
 	}
 	
 	public void setMd5Helper(org.vfsutils.Md5 helper) {
@@ -0,0 +1,515 @@
+package org.vfsutils.shell.commands;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileType;
+import org.vfsutils.concurrent.FileSystemLimiter;
+import org.vfsutils.concurrent.TaskGroup;
+import org.vfsutils.copy.FanOutCopier;
+import org.vfsutils.diff.DiffEvent;
+import org.vfsutils.diff.DirectoryDiff;
+import org.vfsutils.digest.ChecksumCache;
+import org.vfsutils.shell.Arguments;
+import org.vfsutils.shell.CommandException;
+import org.vfsutils.shell.Engine;
+
+/**
+ * Synchronizes one source with several targets. The source is listed once and
+ * every file that has to be updated in more than one target is read once and
+ * written to those targets at the same time. Every target is compared on its
+ * own and has its own counters; a target that fails is reported and skipped
+ * for the rest of the run while the other targets continue.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class Replicate extends Sync {
+
+	/**
+	 * The state of a single run, shared by all tasks
+	 */
+	protected class Replication {
+		protected FileObject srcBase;
+		protected SyncOptions[] targets;
+		protected Throwable[] failures;
+		protected FanOutCopier copier = new FanOutCopier();
+		protected TaskGroup tasks = null;
+		protected FileSystemLimiter limiter = null;
+		protected Engine engine;
+
+		protected synchronized boolean isFailed(int target) {
+			return this.failures[target] != null;
+		}
+
+		protected void fail(int target, Throwable t) {
+			synchronized (this) {
+				if (this.failures[target] != null) {
+					return;
+				}
+				this.failures[target] = t;
+			}
+			engine.error("Target " + engine.toString(targets[target].destBase) + " failed: " + t.getMessage());
+		}
+
+		protected int countFailed() {
+			int failed = 0;
+			for (int i=0; i<targets.length; i++) {
+				if (isFailed(i)) {
+					failed++;
+				}
+			}
+			return failed;
+		}
+	}
+
+	private static final Comparator BY_NAME = new Comparator() {
+		public int compare(Object o1, Object o2) {
+			return ((FileObject) o1).getName().getBaseName().compareTo(((FileObject) o2).getName().getBaseName());
+		}
+	};
+
+	public Replicate() {
+		super("replicate", "Synchronize one location with several others", "<fromPath> <toPath>+ [--delete] [--dry-run] [--digest=<algorithm>] [--no-native] [--include=<patterns>] [--exclude=<patterns>] [--exclude-from=<path>] [--cache=<path>] [--threads=<n> [--src-limit=<n>] [--dest-limit=<n>]] [-sdmNPv]");
+	}
+
+	public void execute(Arguments args, Engine engine)
+			throws IllegalArgumentException, CommandException,
+			FileSystemException {
+
+		args.assertSize(2);
+		if (args.hasFlag("detect-moves") || args.hasFlag("inplace") || args.hasOption("state") || args.hasOption("journal")
+				|| args.hasFlag("watch") || args.hasFlag("verify")) {
+			throw new IllegalArgumentException("The options --detect-moves, --inplace, --state, --journal, --watch and --verify are not supported by replicate");
+		}
+
+		Replication replication = new Replication();
+		replication.engine = engine;
+		replication.srcBase = engine.pathToExistingFile(args.getArgument(0));
+		replication.targets = new SyncOptions[args.size() - 1];
+		replication.failures = new Throwable[replication.targets.length];
+
+		FileObject[] dests = new FileObject[replication.targets.length];
+		for (int i=0; i<replication.targets.length; i++) {
+			SyncOptions options = parseOptions(args, engine);
+			options.srcBase = replication.srcBase;
+			options.destBase = engine.pathToFile(args.getArgument(i+1));
+			// the verbose output of all targets is collected together
+			if (i > 0) {
+				options.output = replication.targets[0].output;
+			}
+			replication.targets[i] = options;
+			dests[i] = options.destBase;
+		}
+		SyncOptions first = replication.targets[0];
+
+		if (first.verbose) {
+			printOptions(first, engine);
+		}
+
+		ChecksumCache cache = null;
+		if (args.hasOption("cache")) {
+			cache = openChecksumCache(args.getOption("cache"), engine);
+		}
+		this.digestEngine.setChecksumCache(cache);
+		this.digestEngine.setChecksumResolver(first.nativeChecksums ? this.checksumResolver : null);
+		try {
+			replicate(replication.srcBase, dests, first, replication);
+		}
+		finally {
+			replication.copier.close();
+			this.digestEngine.setChecksumCache(null);
+			this.digestEngine.setChecksumResolver(null);
+			if (cache != null) {
+				closeChecksumCache(cache, first.verbose, engine);
+			}
+		}
+
+		for (int i=0; i<replication.targets.length; i++) {
+			SyncOptions options = replication.targets[i];
+			engine.println(engine.toString(options.destBase) + ": "
+					+ (replication.isFailed(i) ? "Failed" : getSummary(options)));
+		}
+
+		int failed = replication.countFailed();
+		if (failed > 0) {
+			throw new CommandException(failed + " of " + replication.targets.length + " target(s) failed");
+		}
+	}
+
+	/**
+	 * Replicates the source to the destinations, which can be files or folders
+	 * as for {@link Sync#sync(FileObject, FileObject, SyncOptions, Engine)}
+	 */
+	protected void replicate(FileObject src, FileObject[] dests, SyncOptions first, Replication replication) throws CommandException, FileSystemException {
+
+		if (src.getType().equals(FileType.FILE)) {
+			FileObject[] destFiles = new FileObject[dests.length];
+			for (int i=0; i<dests.length; i++) {
+				if (dests[i].getType().equals(FileType.FOLDER)) {
+					destFiles[i] = dests[i].resolveFile(src.getName().getBaseName());
+				}
+				else {
+					destFiles[i] = dests[i];
+				}
+			}
+			replicateFile(src, destFiles, replication);
+			return;
+		}
+
+		for (int i=0; i<dests.length; i++) {
+			if (dests[i].getType().equals(FileType.FILE)) {
+				throw new IllegalArgumentException("You cannot synchronize a folder with a file");
+			}
+			// do not count the starting dir
+			replication.targets[i].cntDirs--;
+		}
+
+		if (first.threads <= 1) {
+			replicateDirs(src, dests, replication);
+			return;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(first.threads);
+		replication.tasks = new TaskGroup(executor);
+		replication.limiter = new FileSystemLimiter(first.threads);
+		boolean shared = false;
+		for (int i=0; i<dests.length; i++) {
+			replication.limiter.setLimit(dests[i].getFileSystem(), first.destLimit);
+			shared |= (dests[i].getFileSystem() == src.getFileSystem());
+		}
+		replication.limiter.setLimit(src.getFileSystem(), shared ? Math.min(first.srcLimit, first.destLimit) : first.srcLimit);
+
+		try {
+			submitDirs(src, dests, replication);
+			replication.tasks.await();
+		}
+		catch (FileSystemException e) {
+			throw e;
+		}
+		catch (CommandException e) {
+			throw e;
+		}
+		catch (RuntimeException e) {
+			throw e;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FileSystemException(e);
+		}
+		catch (Exception e) {
+			throw new FileSystemException(e);
+		}
+		finally {
+			executor.shutdownNow();
+			replication.tasks = null;
+			replication.limiter = null;
+		}
+	}
+
+	protected void submitDirs(final FileObject srcDir, final FileObject[] destDirs, final Replication replication) {
+		replication.tasks.submit(new TaskGroup.Task() {
+			public void run() throws Exception {
+				replicateDirs(srcDir, destDirs, replication);
+			}
+		});
+	}
+
+	protected void submitFile(final FileObject srcFile, final FileObject[] destFiles, final DirectoryOutput output, final Replication replication) {
+		final List slot = output.slot();
+		output.begin();
+		replication.tasks.submit(new TaskGroup.Task() {
+			public void run() throws Exception {
+				replication.targets[0].output.set(slot);
+				try {
+					replicateFile(srcFile, destFiles, replication);
+				}
+				finally {
+					replication.targets[0].output.set(null);
+					output.end();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Handles a single folder for all targets that still take part. The
+	 * destinations are compared with the source one by one, after which the
+	 * children of the source are handed out in listing order.
+	 * @param srcDir
+	 * @param destDirs the folder per target, null for targets that do not take part
+	 * @param replication
+	 */
+	protected void replicateDirs(FileObject srcDir, FileObject[] destDirs, Replication replication) throws CommandException, FileSystemException {
+
+		Engine engine = replication.engine;
+		ThreadLocal output = replication.targets[0].output;
+		DirectoryOutput dirOutput = new DirectoryOutput(engine);
+		try {
+			output.set(replication.tasks != null ? dirOutput.slot() : null);
+
+			// base name -> the destination child and its type per target
+			Map children = new HashMap();
+			for (int i=0; i<destDirs.length; i++) {
+				if (destDirs[i] == null || replication.isFailed(i)) {
+					continue;
+				}
+				try {
+					acquire(new FileObject[] {srcDir, destDirs[i]}, replication);
+					try {
+						diffTarget(srcDir, destDirs[i], i, children, replication);
+					}
+					finally {
+						release(new FileObject[] {srcDir, destDirs[i]}, replication);
+					}
+				}
+				catch (FileSystemException e) {
+					replication.fail(i, e);
+				}
+			}
+
+			FileObject[] srcChildren = srcDir.getChildren();
+			Arrays.sort(srcChildren, BY_NAME);
+			for (int j=0; j<srcChildren.length; j++) {
+				FileObject srcChild = srcChildren[j];
+				Object[] entry = (Object[]) children.get(srcChild.getName().getBaseName());
+				if (entry == null) {
+					continue;
+				}
+				FileObject[] destChildren = (FileObject[]) entry[0];
+				FileType[] destTypes = (FileType[]) entry[1];
+
+				FileObject[] files = new FileObject[destChildren.length];
+				FileObject[] folders = new FileObject[destChildren.length];
+				boolean hasFiles = false;
+				boolean hasFolders = false;
+				for (int i=0; i<destChildren.length; i++) {
+					if (destChildren[i] == null) {
+						continue;
+					}
+					if (!srcChild.getType().equals(FileType.FOLDER) && !destTypes[i].equals(FileType.FOLDER)) {
+						files[i] = destChildren[i];
+						hasFiles = true;
+					}
+					if (!srcChild.getType().equals(FileType.FILE) && !destTypes[i].equals(FileType.FILE)) {
+						folders[i] = destChildren[i];
+						hasFolders = true;
+					}
+				}
+
+				if (hasFiles) {
+					if (replication.tasks != null) {
+						submitFile(srcChild, files, dirOutput, replication);
+					}
+					else {
+						replicateFile(srcChild, files, replication);
+					}
+				}
+				if (hasFolders) {
+					if (replication.tasks != null) {
+						submitDirs(srcChild, folders, replication);
+					}
+					else {
+						replicateDirs(srcChild, folders, replication);
+					}
+				}
+			}
+		}
+		finally {
+			output.set(null);
+			dirOutput.end();
+		}
+	}
+
+	/**
+	 * Creates the folder of a single target if needed, handles the children
+	 * that have to be removed and registers the other children
+	 */
+	protected void diffTarget(FileObject srcDir, FileObject destDir, int target, Map children, Replication replication) throws FileSystemException {
+		SyncOptions options = replication.targets[target];
+		Engine engine = replication.engine;
+
+		boolean destExists = destDir.exists();
+		if (!destExists) {
+			syncDirAction(srcDir, destDir, options, engine);
+		}
+		options.countDir(!destExists);
+
+		DirectoryDiff diff = new DirectoryDiff(srcDir, destDir, destExists);
+		DiffEvent event;
+		while ((event = diff.next()) != null) {
+			if (isExcluded(event, options, engine)) {
+				continue;
+			}
+			if (event.getType() == DiffEvent.REMOVED) {
+				if (options.purge) {
+					options.countRemoved(remainingChildAction(event.getDest(), options, engine));
+				}
+				continue;
+			}
+
+			FileType destType = event.getDestType();
+			if (event.getType() == DiffEvent.TYPE_CONFLICT && options.purge) {
+				options.countRemoved(typeConflictAction(event.getSrc(), event.getDest(), options, engine));
+				if (!options.dryRun) {
+					destType = FileType.IMAGINARY;
+				}
+			}
+
+			String name = event.getSrc().getName().getBaseName();
+			Object[] entry = (Object[]) children.get(name);
+			if (entry == null) {
+				entry = new Object[] {new FileObject[replication.targets.length], new FileType[replication.targets.length]};
+				children.put(name, entry);
+			}
+			((FileObject[]) entry[0])[target] = event.getDest();
+			((FileType[]) entry[1])[target] = destType;
+		}
+	}
+
+	/**
+	 * Copies a file to all targets that are not up to date. When several
+	 * targets need the file the source is read once for all of them; a target
+	 * that can not keep up is detached and gets a copy of its own afterwards.
+	 * Only the permit of the source is waited for: a target whose file system
+	 * is busy does not take part in the shared copy but gets a copy of its own
+	 * as well, so a single saturated target does not hold up the others.
+	 * @param srcFile
+	 * @param destFiles the file per target, null for targets that do not take part
+	 * @param replication
+	 */
+	protected void replicateFile(FileObject srcFile, FileObject[] destFiles, Replication replication) throws FileSystemException {
+
+		Engine engine = replication.engine;
+		List needed = new ArrayList();
+		for (int i=0; i<destFiles.length; i++) {
+			if (destFiles[i] == null || replication.isFailed(i)) {
+				continue;
+			}
+			try {
+				acquire(new FileObject[] {srcFile, destFiles[i]}, replication);
+				try {
+					if (areSame(srcFile, destFiles[i], replication.targets[i])) {
+						replication.targets[i].countFile(false);
+					}
+					else {
+						needed.add(new Integer(i));
+					}
+				}
+				finally {
+					release(new FileObject[] {srcFile, destFiles[i]}, replication);
+				}
+			}
+			catch (FileSystemException e) {
+				replication.fail(i, e);
+			}
+		}
+
+		if (needed.size() > 1 && !replication.targets[0].dryRun) {
+			List shared = new ArrayList();
+			List separate = new ArrayList();
+			FanOutCopier.Result[] results = null;
+			FileObject[] dests = null;
+
+			// the file systems that are held, the one of the source included
+			List fileSystems = new ArrayList();
+			List locked = new ArrayList();
+			acquire(new FileObject[] {srcFile}, replication);
+			try {
+				fileSystems.add(srcFile.getFileSystem());
+				for (int j=0; j<needed.size(); j++) {
+					FileObject destFile = destFiles[((Integer) needed.get(j)).intValue()];
+					if (replication.limiter == null || fileSystems.contains(destFile.getFileSystem())) {
+						shared.add(needed.get(j));
+					}
+					else if (replication.limiter.tryAcquire(destFile)) {
+						fileSystems.add(destFile.getFileSystem());
+						locked.add(destFile);
+						shared.add(needed.get(j));
+					}
+					else {
+						separate.add(needed.get(j));
+					}
+				}
+
+				if (shared.size() > 1) {
+					dests = new FileObject[shared.size()];
+					for (int j=0; j<dests.length; j++) {
+						dests[j] = destFiles[((Integer) shared.get(j)).intValue()];
+					}
+					results = replication.copier.copy(srcFile, dests);
+				}
+				else {
+					separate.addAll(shared);
+				}
+			}
+			finally {
+				for (int j=locked.size()-1; j>=0; j--) {
+					replication.limiter.release((FileObject) locked.get(j));
+				}
+				release(new FileObject[] {srcFile}, replication);
+			}
+
+			for (int j=0; results!=null && j<results.length; j++) {
+				int target = ((Integer) shared.get(j)).intValue();
+				SyncOptions options = replication.targets[target];
+				if (results[j].status == FanOutCopier.OK) {
+					try {
+						preserveLastModified(srcFile, dests[j], options);
+						if (options.verbose) {
+							println("Copied file " + engine.toString(srcFile) + " to " + engine.toString(dests[j]), options, engine);
+						}
+						options.countFile(true);
+					}
+					catch (FileSystemException e) {
+						replication.fail(target, e);
+					}
+				}
+				else if (results[j].status == FanOutCopier.DETACHED) {
+					separate.add(shared.get(j));
+				}
+				else {
+					replication.fail(target, results[j].failure);
+				}
+			}
+			needed = separate;
+		}
+
+		for (int j=0; j<needed.size(); j++) {
+			int target = ((Integer) needed.get(j)).intValue();
+			try {
+				acquire(new FileObject[] {srcFile, destFiles[target]}, replication);
+				try {
+					syncFileAction(srcFile, destFiles[target], replication.targets[target], engine);
+				}
+				finally {
+					release(new FileObject[] {srcFile, destFiles[target]}, replication);
+				}
+				replication.targets[target].countFile(true);
+			}
+			catch (FileSystemException e) {
+				replication.fail(target, e);
+			}
+		}
+	}
+
+	private void acquire(FileObject[] files, Replication replication) throws FileSystemException {
+		if (replication.limiter != null) {
+			replication.limiter.acquireAll(files);
+		}
+	}
+
+	private void release(FileObject[] files, Replication replication) {
+		if (replication.limiter != null) {
+			replication.limiter.releaseAll(files);
+		}
+	}
+
+}
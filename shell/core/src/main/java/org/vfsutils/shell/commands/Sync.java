@@ -1,14 +1,45 @@
 package org.vfsutils.shell.commands;
 
+import java.io.File;
+import java.io.IOException;
 import java.math.BigInteger;
-import java.util.LinkedList;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.commons.vfs2.Capability;
+import org.apache.commons.vfs2.FileListener;
+import org.apache.commons.vfs2.FileName;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileType;
-import org.apache.commons.vfs2.NameScope;
 import org.apache.commons.vfs2.Selectors;
+import org.apache.commons.vfs2.impl.DefaultFileMonitor;
+import org.vfsutils.VfsUtils;
+import org.vfsutils.concurrent.FileSystemLimiter;
+import org.vfsutils.concurrent.TaskGroup;
+import org.vfsutils.copy.CopyVerifier;
+import org.vfsutils.copy.PipelinedCopier;
+import org.vfsutils.copy.ResumableCopier;
+import org.vfsutils.delta.DeltaCopier;
+import org.vfsutils.diff.ChangeCollector;
+import org.vfsutils.diff.DiffEvent;
+import org.vfsutils.diff.DirectoryDiff;
+import org.vfsutils.diff.MoveDetector;
+import org.vfsutils.diff.Snapshot;
+import org.vfsutils.diff.SyncJournal;
+import org.vfsutils.digest.ChecksumCache;
+import org.vfsutils.digest.ChecksumResolver;
+import org.vfsutils.digest.DigestEngine;
+import org.vfsutils.digest.NativeChecksums;
+import org.vfsutils.selector.PathFilter;
 import org.vfsutils.shell.Arguments;
 import org.vfsutils.shell.CommandException;
 import org.vfsutils.shell.Engine;
@@ -19,27 +50,185 @@ public class Sync extends AbstractCommand {
 		public boolean compareDate = true;
 		public boolean compareDateNewer = true;
 		public boolean compareSize = false;
-		public boolean compareMd5 = false;
+		public boolean compareDigest = false;
+		public String digestAlgorithm = DigestEngine.MD5;
+		public boolean nativeChecksums = true;
 		public boolean purge = false;
+		public boolean detectMoves = false;
 		public boolean preserveLastModified = true;
+		public boolean inPlace = false;
+		public boolean verify = false;
 		public boolean verbose = false;
 		public boolean dryRun = false;
+		public int threads = 1;
+		public int srcLimit = 1;
+		public int destLimit = 1;
+		public PathFilter filter = null;
 		
 		public FileObject srcBase = null;
 		public FileObject destBase = null;
 		
+		protected PipelinedCopier.Stats copyStats = new PipelinedCopier.Stats();
+		protected CopyVerifier verifier = null;
+		
 		protected int cntFiles = 0;
 		protected int cntSyncFiles = 0;
 		protected int cntDirs = 0;
 		protected int cntSyncDirs = 0;
 		protected int cntRemoved = 0;
+		protected int cntMoved = 0;
+		protected int cntResumed = 0;
+		protected int cntExcluded = 0;
+		
+		protected List pendingRemovals = Collections.synchronizedList(new ArrayList());
+		protected List pendingAdditions = Collections.synchronizedList(new ArrayList());
+		
+		protected Snapshot snapshot = null;
+		protected Snapshot newSnapshot = null;
+		protected SyncJournal journal = null;
+		
+		protected TaskGroup tasks = null;
+		protected FileSystemLimiter limiter = null;
+		protected ThreadLocal output = new ThreadLocal();
+		
+		protected synchronized void countFile(boolean synced) {
+			cntFiles++;
+			if (synced) {
+				cntSyncFiles++;
+			}
+		}
+		
+		protected synchronized void countDir(boolean synced) {
+			cntDirs++;
+			if (synced) {
+				cntSyncDirs++;
+			}
+		}
+		
+		protected synchronized void countRemoved(int removed) {
+			cntRemoved += removed;
+		}
+		
+		protected synchronized void countMoved() {
+			cntMoved++;
+		}
+		
+		protected synchronized void countResumed() {
+			cntResumed++;
+		}
+		
+		protected synchronized void countExcluded() {
+			cntExcluded++;
+		}
+	}
+	
+	/**
+	 * Collects the verbose output of the tasks of a single folder and prints
+	 * it in listing order once the last task of the folder has finished
+	 */
+	protected static class DirectoryOutput {
+		private Engine engine;
+		private List slots = new ArrayList();
+		private int pending = 1;
+		
+		public DirectoryOutput(Engine engine) {
+			this.engine = engine;
+		}
+		
+		protected synchronized List slot() {
+			List slot = new ArrayList();
+			slots.add(slot);
+			return slot;
+		}
+		
+		protected synchronized void begin() {
+			pending++;
+		}
+		
+		protected void end() {
+			synchronized (this) {
+				if (--pending > 0) {
+					return;
+				}
+			}
+			synchronized (engine) {
+				for (int i=0; i<slots.size(); i++) {
+					List slot = (List) slots.get(i);
+					for (int j=0; j<slot.size(); j++) {
+						engine.println(slot.get(j));
+					}
+				}
+			}
+		}
 	}
 
-	protected org.vfsutils.Md5 md5Helper;
+	/**
+	 * File monitor that does not watch the content of the folders the filter
+	 * excludes, so an excluded subtree is not examined on every sweep. The
+	 * monitor adds a folder together with its children, so the folders are
+	 * walked here and only the folders that are not excluded are descended.
+	 */
+	protected static class FilteredFileMonitor extends DefaultFileMonitor {
+		private FileObject base;
+		private PathFilter filter;
+		
+		public FilteredFileMonitor(FileListener listener, FileObject base, PathFilter filter) {
+			super(listener);
+			this.base = base;
+			this.filter = filter;
+		}
+		
+		public void addFile(FileObject file) {
+			if (this.filter == null) {
+				super.addFile(file);
+				return;
+			}
+			try {
+				String path = Snapshot.getPath(this.base, file);
+				boolean folder = file.getType().hasChildren();
+				if (!path.equals(".") && !this.filter.acceptWithParents(path, folder)) {
+					return;
+				}
+				boolean recursive = isRecursive();
+				setRecursive(false);
+				try {
+					super.addFile(file);
+				}
+				finally {
+					setRecursive(recursive);
+				}
+				if (recursive && folder) {
+					FileObject[] children = file.getChildren();
+					for (int i=0; i<children.length; i++) {
+						if (children[i].getType().hasChildren()) {
+							addFile(children[i]);
+						}
+					}
+				}
+			}
+			catch (FileSystemException e) {
+				//the changes below the file are caught by a full synchronization
+			}
+		}
+	}
+	
+	protected DigestEngine digestEngine;
+	protected DeltaCopier deltaCopier;
+	protected ChecksumResolver checksumResolver;
+	protected ResumableCopier resumableCopier;
+	protected PipelinedCopier copier;
 	
 	public Sync() {
-		super("sync", "Synchronize two locations", "<fromPath> <toPath> [--delete] [--dry-run] [-sdmNPv]");
-		this.md5Helper = new org.vfsutils.Md5();
+		this("sync", "Synchronize two locations", "<fromPath> <toPath> [--delete [--detect-moves]] [--dry-run] [--inplace] [--verify] [--digest=<algorithm>] [--no-native] [--include=<patterns>] [--exclude=<patterns>] [--exclude-from=<path>] [--cache=<path>] [--state=<path>] [--journal=<path> [--resume]] [--watch [--debounce=<ms>] [--max-latency=<ms>] [--poll=<ms>] [--reconcile=<minutes>]] [--threads=<n> [--src-limit=<n>] [--dest-limit=<n>]] [-sdmNPv]");
+	}
+	
+	protected Sync(String cmd, String description, String usage) {
+		super(cmd, description, usage);
+		this.digestEngine = new DigestEngine();
+		this.deltaCopier = new DeltaCopier();
+		this.checksumResolver = new NativeChecksums();
+		this.resumableCopier = new ResumableCopier();
+		this.copier = new PipelinedCopier();
 	}
 
 	public void execute(Arguments args, Engine engine)
@@ -51,30 +240,184 @@ public class Sync extends AbstractCommand {
 		FileObject srcFileObject = engine.pathToExistingFile(args.getArgument(0));
 		FileObject destFileObject = engine.pathToFile(args.getArgument(1));
 		
+		SyncOptions options = parseOptions(args, engine);
+		
+		options.srcBase = srcFileObject;
+		options.destBase = destFileObject;
+		
+		if (options.verbose) {
+			printOptions(options, engine);
+		}
+		
+		File stateFile = null;
+		if (args.hasOption("state")) {
+			if (!srcFileObject.getType().equals(FileType.FOLDER)) {
+				throw new IllegalArgumentException("The state can only be kept when synchronizing folders");
+			}
+			stateFile = VfsUtils.toLocalFile(engine.pathToFile(args.getOption("state")));
+			if (stateFile == null) {
+				throw new IllegalArgumentException("The state must be a local file");
+			}
+			options.snapshot = loadSnapshot(stateFile, destFileObject, options, engine);
+			if (!options.dryRun) {
+				options.newSnapshot = new Snapshot(destFileObject);
+			}
+		}
+		
+		File journalFile = null;
+		if (args.hasOption("journal")) {
+			if (!srcFileObject.getType().equals(FileType.FOLDER)) {
+				throw new IllegalArgumentException("A journal can only be kept when synchronizing folders");
+			}
+			if (options.dryRun || options.detectMoves || stateFile != null) {
+				throw new IllegalArgumentException("A journal can not be combined with --dry-run, --detect-moves or --state");
+			}
+			journalFile = VfsUtils.toLocalFile(engine.pathToFile(args.getOption("journal")));
+			if (journalFile == null) {
+				throw new IllegalArgumentException("The journal must be a local file");
+			}
+		}
+		else if (args.hasFlag("resume")) {
+			throw new IllegalArgumentException("Option --resume requires a journal");
+		}
+		
+		boolean watch = args.hasFlag("watch");
+		if (watch) {
+			if (!srcFileObject.getType().equals(FileType.FOLDER)) {
+				throw new IllegalArgumentException("Only folders can be watched");
+			}
+			if (options.detectMoves || stateFile != null || journalFile != null) {
+				throw new IllegalArgumentException("Watching can not be combined with --detect-moves, --state or --journal");
+			}
+		}
+		
+		ChecksumCache cache = null;
+		if (args.hasOption("cache")) {
+			cache = openChecksumCache(args.getOption("cache"), engine);
+		}
+		this.digestEngine.setChecksumCache(cache);
+		this.digestEngine.setChecksumResolver(options.nativeChecksums ? this.checksumResolver : null);
+		boolean completed = false;
+		try {
+			//opened in the try, so it is closed when anything fails
+			if (journalFile != null) {
+				options.journal = openJournal(journalFile, args.hasFlag("resume"), options, engine);
+			}
+			if (watch) {
+				watch(srcFileObject, destFileObject, args, engine);
+			}
+			else {
+				if (options.newSnapshot != null) {
+					//the destination is about to change, if this run fails the next one must scan
+					stateFile.delete();
+				}
+				sync(srcFileObject, destFileObject, options, engine);
+			}
+			completed = true;
+		}
+		finally {
+			this.digestEngine.setChecksumCache(null);
+			this.digestEngine.setChecksumResolver(null);
+			if (cache != null) {
+				closeChecksumCache(cache, options.verbose, engine);
+			}
+			if (options.journal != null) {
+				closeJournal(options.journal, completed, engine);
+			}
+		}
+		
+		if (watch) {
+			return;
+		}
+		
+		if (options.newSnapshot != null) {
+			saveSnapshot(options.newSnapshot, stateFile, destFileObject, options, engine);
+		}
+		
+		engine.println(getSummary(options));
+		
+	}
+	
+	protected String getSummary(SyncOptions options) {
+		return (options.dryRun?"[Dry run] ":"") + "Synchronized " + options.cntSyncDirs + " of " + options.cntDirs + " Folder(s), " 
+				+ options.cntSyncFiles + " of " + options.cntFiles + " File(s), Removed " + options.cntRemoved + " items"
+				+ (options.detectMoves ? ", Moved " + options.cntMoved + " File(s)" : "")
+				+ (options.cntResumed > 0 ? ", Skipped " + options.cntResumed + " item(s) completed before" : "")
+				+ (options.filter != null ? ", Excluded " + options.cntExcluded + " item(s)" : "")
+				+ (options.verbose && options.copyStats.getFiles() > 0 ? ", Transferred " + options.copyStats : "");
+	}
+	
+	protected SyncOptions parseOptions(Arguments args, Engine engine) throws FileSystemException {
 		SyncOptions options = new SyncOptions();
 		
 		options.purge = args.hasFlag("delete");
+		options.detectMoves = args.hasFlag("detect-moves");
+		if (options.detectMoves && !options.purge) {
+			throw new IllegalArgumentException("Move detection requires --delete");
+		}
 		options.compareSize = args.hasFlag('s');
-		options.compareMd5 = args.hasFlag('m');
-		options.compareDate = args.hasFlag('d') || !(options.compareSize || options.compareMd5);
+		options.compareDigest = args.hasFlag('m') || args.hasOption("digest");
+		if (args.hasOption("digest")) {
+			options.digestAlgorithm = this.digestEngine.normalize(args.getOption("digest"));
+			// fail early on unsupported algorithms
+			this.digestEngine.createDigest(options.digestAlgorithm);
+		}
+		options.nativeChecksums = !args.hasFlag("no-native");
+		options.compareDate = args.hasFlag('d') || !(options.compareSize || options.compareDigest);
 		options.compareDateNewer = !args.hasFlag("N");
 		options.preserveLastModified = !args.hasFlag('P');
 		options.verbose = args.hasFlag('v');
 		options.dryRun = args.hasFlag("dry-run");
-		
-		options.srcBase = srcFileObject;
-		options.destBase = destFileObject;
-		
-		if (options.verbose) {
-			engine.println("Comparing using " + (options.compareSize?"size ":"") + (options.compareDate?(options.compareDateNewer?"newer":"strict") + " date ":"") + (options.compareMd5?"md5 ":""));
-			engine.println((options.dryRun?"Doing a dry-run ":"") + (options.purge?"Allowing delete ":"") + (options.preserveLastModified?"Preserving last modified date ":""));
+		options.inPlace = args.hasFlag("inplace");
+		options.verify = args.hasFlag("verify");
+		if (options.verify) {
+			options.verifier = new CopyVerifier(this.digestEngine, options.digestAlgorithm);
 		}
+		options.threads = getPositiveOption(args, "threads", 1);
+		options.srcLimit = getPositiveOption(args, "src-limit", options.threads);
+		options.destLimit = getPositiveOption(args, "dest-limit", options.threads);
 		
-		sync(srcFileObject, destFileObject, options, engine);
-		
-		engine.println((options.dryRun?"[Dry run] ":"") + "Synchronized " + options.cntSyncDirs + " of " + options.cntDirs + " Folder(s), " 
-				+ options.cntSyncFiles + " of " + options.cntFiles + " File(s), Removed " + options.cntRemoved + " items");
-		
+		if (args.hasOption("include") || args.hasOption("exclude") || args.hasOption("exclude-from")) {
+			options.filter = new PathFilter();
+			if (args.hasOption("include")) {
+				options.filter.addIncludes(args.getOption("include"));
+			}
+			if (args.hasOption("exclude")) {
+				options.filter.addExcludes(args.getOption("exclude"));
+			}
+			if (args.hasOption("exclude-from")) {
+				options.filter.addExcludes(engine.pathToExistingFile(args.getOption("exclude-from")));
+			}
+		}
+		return options;
+	}
+	
+	protected void printOptions(SyncOptions options, Engine engine) {
+		engine.println("Comparing using " + (options.compareSize?"size ":"") + (options.compareDate?(options.compareDateNewer?"newer":"strict") + " date ":"") + (options.compareDigest?options.digestAlgorithm + " ":""));
+		engine.println((options.dryRun?"Doing a dry-run ":"") + (options.purge?"Allowing delete ":"") + (options.preserveLastModified?"Preserving last modified date ":"") + (options.inPlace?"Updating changed blocks in place ":"") + (options.verify?"Verifying copies with " + options.digestAlgorithm + " ":""));
+		if (options.threads > 1) {
+			engine.println("Using " + options.threads + " threads, at most " + options.srcLimit + " on the source and " + options.destLimit + " on the destination");
+		}
+	}
+	
+	protected int getPositiveOption(Arguments args, String name, int defaultValue) {
+		return getIntOption(args, name, defaultValue, 1);
+	}
+	
+	protected int getIntOption(Arguments args, String name, int defaultValue, int minimum) {
+		if (!args.hasOption(name)) {
+			return defaultValue;
+		}
+		try {
+			int value = Integer.parseInt(args.getOption(name));
+			if (value < minimum) {
+				throw new IllegalArgumentException("Option " + name + " must be at least " + minimum);
+			}
+			return value;
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid number given for option " + name);
+		}
 	}
 	
 	/**
@@ -103,78 +446,770 @@ public class Sync extends AbstractCommand {
 			else {
 				// do not count the starting dir
 				options.cntDirs--;
-				syncDirs(src, dest, options, engine);
+				if (isCompleted(dest, options, engine)) {
+					return;
+				}
+				journalBegin(dest, true, options);
+				if (options.threads > 1) {
+					syncDirsParallel(src, dest, options, engine);
+				}
+				else {
+					syncDirs(src, dest, options, engine);
+					if (options.detectMoves) {
+						syncMoves(options, engine);
+					}
+				}
 			}
 		}
 	}
 	
 	protected void syncFiles(FileObject srcFile, FileObject destFile, SyncOptions options, Engine engine) throws CommandException, FileSystemException {
 		
-		options.cntFiles++;
-		if (!areSame(srcFile, destFile, options)) {
+		boolean synced = false;
+		if (isInterrupted(srcFile, destFile, options) || !areSame(srcFile, destFile, options)) {
 			syncFileAction(srcFile, destFile, options, engine);
-			options.cntSyncFiles++;
+			synced = true;
 		}
+		options.countFile(synced);
+		recordFile(destFile, synced, options);
 	}
 	
 	protected void syncDirs(FileObject srcDir, FileObject destDir, SyncOptions options, Engine engine) throws CommandException, FileSystemException {
 		
-		java.util.List destChildren = new LinkedList();
-		options.cntDirs++;
-		if (!destDir.exists()) {
+		boolean destExists = destExists(destDir, options);
+		if (!destExists) {
 			syncDirAction(srcDir, destDir, options, engine);
-			options.cntSyncDirs++;
-		}
-		else {
-			FileObject[] tmpDestChildren = destDir.getChildren();
-			//create list of destChildren			
-			for (int i=0; i<tmpDestChildren.length; i++) {
-				destChildren.add(tmpDestChildren[i]);
-			}
 		}
+		options.countDir(!destExists);
+		recordDir(destDir, options);
+		
+		//merge the sorted listings of both sides
+		DirectoryDiff diff = diff(srcDir, destDir, destExists, options);
+		DiffEvent event;
 		
-		{
-			//spider through the children
-			FileObject[] srcChildren = srcDir.getChildren();
+		while ((event = diff.next()) != null) {
+			
+			if (isExcluded(event, options, engine)) {
+				continue;
+			}
 			
-			for (int i=0; i<srcChildren.length; i++){
-				FileObject srcChild = srcChildren[i];
-				FileObject destChild = destDir.resolveFile(srcChild.getName().getBaseName(), NameScope.CHILD);
-				destChildren.remove(destChild);
+			if (event.getType() == DiffEvent.REMOVED) {
+				if (options.detectMoves) {
+					//removed after the moves have been detected
+					options.pendingRemovals.add(event.getDest());
+				}
+				else if (options.purge) {
+					options.countRemoved(remainingChildAction(event.getDest(), options, engine));
+				}
+				else {
+					recordRemaining(event.getDest(), event.getDestType(), options);
+				}
+				continue;
+			}
+			
+			FileObject srcChild = event.getSrc();
+			FileObject destChild = event.getDest();
+			FileType destType = event.getDestType();
 			
-				//if delete, remove destChild in case of type conflict
+			//if delete, remove destChild in case of type conflict
+			if (event.getType() == DiffEvent.TYPE_CONFLICT) {
 				if (options.purge) {
-					if (destChild.exists() && !srcChild.getType().equals(destChild.getType())) {
-						options.cntRemoved += typeConflictAction(srcChild, destChild, options, engine);
+					options.countRemoved(typeConflictAction(srcChild, destChild, options, engine));
+					if (!options.dryRun) {
+						destType = FileType.IMAGINARY;
 					}
-				}				
-				
-				//both are files (dest can be imaginary)
-				if (!srcChild.getType().equals(FileType.FOLDER) && !destChild.getType().equals(FileType.FOLDER)) {				
+				}
+				else {
+					recordRemaining(destChild, destType, options);
+				}
+			}
+			
+			//both are files (dest can be imaginary)
+			if (!srcChild.getType().equals(FileType.FOLDER) && !destType.equals(FileType.FOLDER)) {				
+				if (options.detectMoves && destType.equals(FileType.IMAGINARY)) {
+					//copied or moved after all removals are known
+					options.pendingAdditions.add(new FileObject[] {srcChild, destChild});
+				}
+				else if (!isCompleted(destChild, options, engine)) {
+					journalBegin(destChild, false, options);
 					syncFiles(srcChild, destChild, options, engine);
+					journalEnd(destChild, options);
 				}
-				
-				//both are folders (dest can be imaginary)
-				if (!srcChild.getType().equals(FileType.FILE) && !destChild.getType().equals(FileType.FILE)){
-					syncDirs(srcChild, destChild, options, engine);
+			}
+			
+			//both are folders (dest can be imaginary)
+			if (!srcChild.getType().equals(FileType.FILE) && !destType.equals(FileType.FILE)
+					&& !isCompleted(destChild, options, engine)){
+				journalBegin(destChild, true, options);
+				syncDirs(srcChild, destChild, options, engine);
+			}
+		}
+		journalEnd(destDir, options);
+	}
+	
+	/**
+	 * Keeps the destination synchronized with the source until the thread is interrupted.
+	 * After a full synchronization only the files that the monitor reports as changed are
+	 * synchronized, in batches once no new changes arrived for the debounce period or the
+	 * first change waited for the maximum latency. A full synchronization is repeated every
+	 * reconcile interval to catch changes the monitor missed. A synchronization that fails
+	 * is reported and followed by a full synchronization after at most a minute, so a target
+	 * that is briefly unavailable does not end the watch.
+	 * <p>
+	 * Note that the monitor examines the type, size and modification time of every watched
+	 * file in a sweep and waits for the poll delay between sweeps, so a change is noticed up
+	 * to a sweep plus the poll delay after it was made. A sweep of a tree of hundreds of
+	 * thousands of files takes minutes on a remote file system; the content of excluded
+	 * folders is not watched.
+	 */
+	protected void watch(FileObject src, FileObject dest, Arguments args, Engine engine) throws CommandException, FileSystemException {
+		long debounce = getIntOption(args, "debounce", 2000, 0);
+		long maxLatency = getIntOption(args, "max-latency", 30000, 0);
+		long reconcile = getIntOption(args, "reconcile", 60, 0) * 60000L;
+		long retry = (reconcile > 0 ? Math.min(reconcile, 60000) : 60000);
+		
+		ChangeCollector changes = new ChangeCollector();
+		DefaultFileMonitor monitor = new FilteredFileMonitor(changes, src, parseOptions(args, engine).filter);
+		monitor.setRecursive(true);
+		monitor.setDelay(getPositiveOption(args, "poll", 1000));
+		//by default the monitor waits for the delay after every 1000 files, not after a sweep
+		monitor.setChecksPerRun(0);
+		monitor.addFile(src);
+		monitor.start();
+		try {
+			//start with a full synchronization, changes made during it are handled afterwards
+			long nextReconcile = 0;
+			
+			while (!Thread.currentThread().isInterrupted()) {
+				if (System.currentTimeMillis() >= nextReconcile) {
+					try {
+						watchAll(src, dest, args, engine);
+						nextReconcile = (reconcile > 0 ? System.currentTimeMillis() + reconcile : Long.MAX_VALUE);
+					}
+					catch (FileSystemException e) {
+						engine.error(getTimestamp() + "Synchronization failed: " + e.getMessage());
+						nextReconcile = System.currentTimeMillis() + retry;
+					}
 				}
 				
-				//when done processing, release reference to child
-				srcChildren[i]=null;				
+				long timeout = (nextReconcile < Long.MAX_VALUE ? Math.max(nextReconcile - System.currentTimeMillis(), 1) : 0);
+				List batch = changes.take(debounce, maxLatency, timeout);
+				if (!batch.isEmpty()) {
+					try {
+						watchChanges(batch, src, dest, args, engine);
+					}
+					catch (FileSystemException e) {
+						//the changes that were not handled are caught by a full synchronization
+						engine.error(getTimestamp() + "Synchronizing the changes failed: " + e.getMessage());
+						nextReconcile = Math.min(nextReconcile, System.currentTimeMillis() + retry);
+					}
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			//stop watching
+		}
+		finally {
+			monitor.stop();
+		}
+	}
+	
+	protected void watchAll(FileObject src, FileObject dest, Arguments args, Engine engine) throws CommandException, FileSystemException {
+		SyncOptions options = parseOptions(args, engine);
+		options.srcBase = src;
+		options.destBase = dest;
+		sync(src, dest, options, engine);
+		engine.println(getTimestamp() + getSummary(options));
+	}
+	
+	/**
+	 * Synchronizes a batch of changed files. The changes are ordered by name, so a folder is
+	 * created before its children and a removed folder is removed once with all its content.
+	 */
+	protected void watchChanges(List batch, FileObject src, FileObject dest, Arguments args, Engine engine) throws CommandException, FileSystemException {
+		SyncOptions options = parseOptions(args, engine);
+		options.srcBase = src;
+		options.destBase = dest;
+		
+		Set removed = new HashSet();
+		for (int i=0; i<batch.size(); i++) {
+			FileObject srcFile = ((ChangeCollector.Change) batch.get(i)).getFile();
+			String path = Snapshot.getPath(src, srcFile);
+			if (path.equals(".")) {
+				continue;
+			}
+			FileObject destFile = dest.resolveFile(path);
+			if (isRemoved(destFile, dest, removed)) {
+				continue;
+			}
+			
+			srcFile.refresh();
+			destFile.refresh();
+			FileType srcType = srcFile.getType();
+			FileType destType = destFile.getType();
+			
+			if (options.filter != null) {
+				boolean folder = (srcType.equals(FileType.IMAGINARY) ? destType : srcType).equals(FileType.FOLDER);
+				if (!options.filter.acceptWithParents(path, folder)) {
+					options.countExcluded();
+					continue;
+				}
+			}
+			
+			if (srcType.equals(FileType.IMAGINARY)) {
+				if (options.purge && !destType.equals(FileType.IMAGINARY)) {
+					options.countRemoved(remainingChildAction(destFile, options, engine));
+					removed.add(destFile.getName());
+				}
+				continue;
+			}
+			
+			if (!destType.equals(FileType.IMAGINARY) && !destType.equals(srcType)) {
+				if (!options.purge) {
+					continue;
+				}
+				options.countRemoved(typeConflictAction(srcFile, destFile, options, engine));
+				if (!options.dryRun) {
+					destType = FileType.IMAGINARY;
+				}
+			}
+			
+			if (srcType.equals(FileType.FOLDER)) {
+				//the children are reported separately
+				boolean destExists = !destType.equals(FileType.IMAGINARY);
+				if (!destExists) {
+					syncDirAction(srcFile, destFile, options, engine);
+				}
+				options.countDir(!destExists);
+			}
+			else {
+				syncFiles(srcFile, destFile, options, engine);
+			}
+		}
+		engine.println(getTimestamp() + getSummary(options));
+	}
+	
+	private boolean isRemoved(FileObject destFile, FileObject dest, Set removed) throws FileSystemException {
+		FileName name = destFile.getName().getParent();
+		while (name != null && !name.equals(dest.getName())) {
+			if (removed.contains(name)) {
+				return true;
+			}
+			name = name.getParent();
+		}
+		return false;
+	}
+	
+	private String getTimestamp() {
+		return "[" + new SimpleDateFormat("HH:mm:ss").format(new Date()) + "] ";
+	}
+	
+	/**
+	 * Handles the additions and removals that were postponed to detect moved files. 
+	 * An added file is moved from a removed file with the same size and fingerprint,
+	 * if there is one that can be renamed; otherwise it is copied. The removals that
+	 * remain are executed afterwards.
+	 */
+	protected void syncMoves(SyncOptions options, Engine engine) throws CommandException, FileSystemException {
+		
+		MoveDetector detector = new MoveDetector(this.digestEngine);
+		if (options.compareDigest) {
+			detector.setAlgorithm(options.digestAlgorithm);
+		}
+		for (int i=0; i<options.pendingRemovals.size(); i++) {
+			detector.addRemoved((FileObject) options.pendingRemovals.get(i));
+		}
+		
+		Set moved = new HashSet();
+		DirectoryOutput output = new DirectoryOutput(engine);
+		try {
+			for (int i=0; i<options.pendingAdditions.size(); i++) {
+				FileObject[] pair = (FileObject[]) options.pendingAdditions.get(i);
+				options.pendingAdditions.set(i, null);
 				
+				FileObject oldDestFile = (detector.size() > 0 ? detector.findMoved(pair[0], pair[1]) : null);
+				if (oldDestFile != null) {
+					options.output.set(output.slot());
+					moveAction(oldDestFile, pair[0], pair[1], options, engine);
+					moved.add(oldDestFile);
+					options.countMoved();
+					options.countFile(true);
+					recordFile(pair[1], true, options);
+				}
+				else if (options.tasks != null) {
+					submitFile(pair[0], pair[1], output, options, engine);
+				}
+				else {
+					options.output.set(output.slot());
+					syncFiles(pair[0], pair[1], options, engine);
+				}
+			}
+			
+			for (int i=0; i<options.pendingRemovals.size(); i++) {
+				FileObject removed = (FileObject) options.pendingRemovals.get(i);
+				removed.refresh();
+				if (!moved.contains(removed) && (options.dryRun || removed.exists())) {
+					options.output.set(output.slot());
+					options.countRemoved(remainingChildAction(removed, options, engine));
+				}
+			}
+		}
+		finally {
+			options.output.set(null);
+			options.pendingAdditions.clear();
+			options.pendingRemovals.clear();
+			output.end();
+		}
+	}
+	
+	protected void moveAction(FileObject oldDestFile, FileObject srcFile, FileObject destFile,
+			SyncOptions options, Engine engine) throws FileSystemException {
+		if (!options.dryRun) {
+			oldDestFile.moveTo(destFile);
+			preserveLastModified(srcFile, destFile, options);
+		}
+		if (options.verbose) {
+			println("Moved file " + engine.toString(oldDestFile) + " to " + engine.toString(destFile), options, engine);
+		}
+	}
+	
+	/**
+	 * Checks whether the destination folder exists; when a snapshot is trusted
+	 * and lists the parent folder the destination is not accessed
+	 */
+	protected boolean destExists(FileObject destDir, SyncOptions options) throws FileSystemException {
+		if (options.snapshot != null && isListed(Snapshot.getPath(options.destBase, destDir), true, options)) {
+			return options.snapshot.get(Snapshot.getPath(options.destBase, destDir)) != null;
+		}
+		return destDir.exists();
+	}
+	
+	/**
+	 * Checks whether a trusted snapshot lists a folder or the parent of a path
+	 */
+	protected boolean isListed(String path, boolean parent, SyncOptions options) {
+		if (options.snapshot == null) {
+			return false;
+		}
+		if (parent && !path.equals(".")) {
+			path = Snapshot.getParentPath(path);
+		}
+		return options.snapshot.isListed(path);
+	}
+	
+	/**
+	 * Creates the diff of the folders; when a snapshot is trusted the destination
+	 * children are taken from the snapshot instead of listing the destination,
+	 * unless the snapshot did not list the folder
+	 */
+	protected DirectoryDiff diff(FileObject srcDir, FileObject destDir, boolean destExists, SyncOptions options) throws FileSystemException {
+		if (options.snapshot != null && destExists && isListed(Snapshot.getPath(options.destBase, destDir), false, options)) {
+			String path = Snapshot.getPath(options.destBase, destDir);
+			String[] names = options.snapshot.getChildren(path);
+			FileType[] types = new FileType[names.length];
+			for (int i=0; i<names.length; i++) {
+				types[i] = options.snapshot.get(Snapshot.getChildPath(path, names[i])).type;
+			}
+			return new DirectoryDiff(srcDir, destDir, names, types);
+		}
+		return new DirectoryDiff(srcDir, destDir, destExists);
+	}
+	
+	protected void recordDir(FileObject destDir, SyncOptions options) throws FileSystemException {
+		if (options.newSnapshot != null) {
+			options.newSnapshot.put(Snapshot.getPath(options.destBase, destDir), FileType.FOLDER, -1, -1);
+		}
+	}
+	
+	/**
+	 * Records the state of a destination file; the state of a file that was
+	 * not copied is taken from the trusted snapshot if there is one
+	 */
+	protected void recordFile(FileObject destFile, boolean synced, SyncOptions options) throws FileSystemException {
+		if (options.newSnapshot == null) {
+			return;
+		}
+		String path = Snapshot.getPath(options.destBase, destFile);
+		Snapshot.Entry state = null;
+		if (!synced && options.snapshot != null) {
+			state = options.snapshot.get(path);
+		}
+		if (state == null) {
+			if (synced) {
+				destFile.refresh();
+			}
+			state = new Snapshot.Entry(FileType.FILE, destFile.getContent().getSize(), destFile.getContent().getLastModifiedTime());
+		}
+		options.newSnapshot.put(path, state);
+	}
+	
+	/**
+	 * Applies the include and exclude patterns to a child of a folder. An excluded
+	 * child is neither synchronized nor removed and an excluded folder is not listed.
+	 */
+	protected boolean isExcluded(DiffEvent event, SyncOptions options, Engine engine) throws FileSystemException {
+		if (options.filter == null) {
+			return false;
+		}
+		
+		boolean accepted;
+		FileObject file;
+		if (event.getType() == DiffEvent.REMOVED) {
+			file = event.getDest();
+			String path = Snapshot.getPath(options.destBase, file);
+			accepted = (event.getDestType().equals(FileType.FOLDER) ? options.filter.traverse(path) : options.filter.accept(path, false));
+		}
+		else {
+			file = event.getSrc();
+			String path = Snapshot.getPath(options.srcBase, file);
+			accepted = (file.getType().equals(FileType.FOLDER) ? options.filter.traverse(path) : options.filter.accept(path, false));
+		}
+		if (accepted) {
+			return false;
+		}
+		
+		options.countExcluded();
+		if (!event.getDestType().equals(FileType.IMAGINARY)) {
+			recordRemaining(event.getDest(), event.getDestType(), options);
+		}
+		if (options.verbose) {
+			println("Excluded " + engine.toString(event.getDest()), options, engine);
+		}
+		return true;
+	}
+	
+	/**
+	 * Records a destination child that is left alone. Its state is only known
+	 * when a snapshot is trusted; a folder is copied with everything below it
+	 * from the trusted snapshot, otherwise it is recorded as unlisted so that
+	 * the next run examines it.
+	 */
+	protected void recordRemaining(FileObject destChild, FileType destType, SyncOptions options) throws FileSystemException {
+		if (options.newSnapshot == null) {
+			return;
+		}
+		String path = Snapshot.getPath(options.destBase, destChild);
+		if (destType.equals(FileType.FOLDER)) {
+			if (options.snapshot != null && options.snapshot.get(path) != null) {
+				options.newSnapshot.copy(options.snapshot, path);
+			}
+			else {
+				options.newSnapshot.putUnlisted(path);
+			}
+			return;
+		}
+		Snapshot.Entry state = null;
+		if (options.snapshot != null) {
+			state = options.snapshot.get(path);
+		}
+		if (state == null) {
+			state = new Snapshot.Entry(destType, -1, -1);
+		}
+		options.newSnapshot.put(path, state);
+	}
+	
+	protected Snapshot loadSnapshot(File stateFile, FileObject destBase, SyncOptions options, Engine engine) throws FileSystemException {
+		if (!stateFile.exists()) {
+			if (options.verbose) {
+				engine.println("No state found, scanning the destination");
+			}
+			return null;
+		}
+		try {
+			Snapshot snapshot = Snapshot.load(stateFile);
+			if (snapshot.matches(destBase)) {
+				if (options.verbose) {
+					engine.println("Using the state of " + snapshot.size() + " destination entries");
+				}
+				return snapshot;
+			}
+			engine.println("The state is stale, scanning the destination");
+		}
+		catch (IOException e) {
+			engine.error("Ignoring the state: " + e.getMessage() + ", scanning the destination");
+		}
+		return null;
+	}
+	
+	protected void saveSnapshot(Snapshot snapshot, File stateFile, FileObject destBase, SyncOptions options, Engine engine) throws FileSystemException {
+		try {
+			snapshot.setBase(destBase);
+			snapshot.save(stateFile);
+		}
+		catch (IOException e) {
+			throw new FileSystemException(e);
+		}
+		if (options.verbose) {
+			engine.println("Saved the state of " + snapshot.size() + " destination entries");
+		}
+	}
+
+	/**
+	 * Synchronizes two folders using a pool of worker threads. Every folder is
+	 * handled by a task that lists both sides and that submits a task for every
+	 * pair of files and for every sub folder, so listing, comparing and copying
+	 * overlap. The number of concurrent operations on the source and on the
+	 * destination file system is limited separately.
+	 */
+	protected void syncDirsParallel(FileObject srcDir, FileObject destDir, SyncOptions options, Engine engine) throws CommandException, FileSystemException {
+		
+		ExecutorService executor = Executors.newFixedThreadPool(options.threads);
+		options.tasks = new TaskGroup(executor);
+		options.limiter = new FileSystemLimiter(options.threads);
+		if (srcDir.getFileSystem() == destDir.getFileSystem()) {
+			options.limiter.setLimit(srcDir.getFileSystem(), Math.min(options.srcLimit, options.destLimit));
+		}
+		else {
+			options.limiter.setLimit(srcDir.getFileSystem(), options.srcLimit);
+			options.limiter.setLimit(destDir.getFileSystem(), options.destLimit);
+		}
+		
+		try {
+			submitDir(srcDir, destDir, options, engine);
+			options.tasks.await();
+			if (options.detectMoves) {
+				syncMoves(options, engine);
+				options.tasks.await();
+			}
+		}
+		catch (FileSystemException e) {
+			throw e;
+		}
+		catch (CommandException e) {
+			throw e;
+		}
+		catch (RuntimeException e) {
+			throw e;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FileSystemException(e);
+		}
+		catch (Exception e) {
+			throw new FileSystemException(e);
+		}
+		finally {
+			executor.shutdownNow();
+			options.tasks = null;
+			options.limiter = null;
+		}
+	}
+	
+	protected void submitDir(final FileObject srcDir, final FileObject destDir, final SyncOptions options, final Engine engine) {
+		options.tasks.submit(new TaskGroup.Task() {
+			public void run() throws Exception {
+				syncDirTask(srcDir, destDir, options, engine);
+			}
+		});
+	}
+	
+	protected void submitFile(final FileObject srcFile, final FileObject destFile, final DirectoryOutput output, final SyncOptions options, final Engine engine) {
+		final List slot = output.slot();
+		output.begin();
+		options.tasks.submit(new TaskGroup.Task() {
+			public void run() throws Exception {
+				options.output.set(slot);
+				try {
+					options.limiter.acquire(srcFile, destFile);
+					try {
+						syncFiles(srcFile, destFile, options, engine);
+					}
+					finally {
+						options.limiter.release(srcFile, destFile);
+					}
+					journalEnd(destFile, options);
+				}
+				finally {
+					options.output.set(null);
+					output.end();
+				}
 			}
+		});
+	}
+	
+	/**
+	 * Handles a single folder on a worker thread; the parallel counterpart of syncDirs
+	 */
+	protected void syncDirTask(FileObject srcDir, FileObject destDir, final SyncOptions options, final Engine engine) throws CommandException, FileSystemException {
+		
+		final DirectoryOutput output = new DirectoryOutput(engine);
+		try {
+			options.output.set(output.slot());
 			
-			if (options.purge) {
-				for (int i=0; i<destChildren.size(); i++) {
-					FileObject remainingChild = (FileObject) destChildren.get(i);
-					options.cntRemoved += remainingChildAction(remainingChild, options, engine);
+			boolean destExists;
+			DirectoryDiff diff;
+			options.limiter.acquire(srcDir, destDir);
+			try {
+				destExists = destExists(destDir, options);
+				if (!destExists) {
+					syncDirAction(srcDir, destDir, options, engine);
 				}
+				diff = diff(srcDir, destDir, destExists, options);
 			}
+			finally {
+				options.limiter.release(srcDir, destDir);
+			}
+			options.countDir(!destExists);
+			recordDir(destDir, options);
 			
+			DiffEvent event;
+			while ((event = diff.next()) != null) {
+				
+				if (isExcluded(event, options, engine)) {
+					continue;
+				}
+				
+				if (event.getType() == DiffEvent.REMOVED) {
+					if (options.detectMoves) {
+						options.pendingRemovals.add(event.getDest());
+					}
+					else if (options.purge) {
+						options.output.set(output.slot());
+						options.limiter.acquire(event.getDest());
+						try {
+							options.countRemoved(remainingChildAction(event.getDest(), options, engine));
+						}
+						finally {
+							options.limiter.release(event.getDest());
+						}
+					}
+					else {
+						recordRemaining(event.getDest(), event.getDestType(), options);
+					}
+					continue;
+				}
+				
+				final FileObject srcChild = event.getSrc();
+				final FileObject destChild = event.getDest();
+				FileType destType = event.getDestType();
+				
+				if (event.getType() == DiffEvent.TYPE_CONFLICT) {
+					if (options.purge) {
+						options.output.set(output.slot());
+						options.limiter.acquire(destChild);
+						try {
+							options.countRemoved(typeConflictAction(srcChild, destChild, options, engine));
+						}
+						finally {
+							options.limiter.release(destChild);
+						}
+						if (!options.dryRun) {
+							destType = FileType.IMAGINARY;
+						}
+					}
+					else {
+						recordRemaining(destChild, destType, options);
+					}
+				}
+				
+				if (!srcChild.getType().equals(FileType.FOLDER) && !destType.equals(FileType.FOLDER)) {
+					if (options.detectMoves && destType.equals(FileType.IMAGINARY)) {
+						options.pendingAdditions.add(new FileObject[] {srcChild, destChild});
+					}
+					else if (!isCompleted(destChild, options, engine)) {
+						journalBegin(destChild, false, options);
+						submitFile(srcChild, destChild, output, options, engine);
+					}
+				}
+				
+				if (!srcChild.getType().equals(FileType.FILE) && !destType.equals(FileType.FILE)
+						&& !isCompleted(destChild, options, engine)){
+					journalBegin(destChild, true, options);
+					submitDir(srcChild, destChild, options, engine);
+				}
+			}
+			journalEnd(destDir, options);
+		}
+		finally {
+			options.output.set(null);
+			output.end();
 		}
 	}
 
+	protected SyncJournal openJournal(File journalFile, boolean resume, SyncOptions options, Engine engine) throws FileSystemException {
+		try {
+			return new SyncJournal(journalFile, options.srcBase.getName().getURI() + "\t" + options.destBase.getName().getURI(), resume);
+		}
+		catch (IOException e) {
+			throw new FileSystemException(e);
+		}
+	}
+	
+	/**
+	 * Closes the journal; the journal of a completed synchronization is removed
+	 */
+	protected void closeJournal(SyncJournal journal, boolean completed, Engine engine) {
+		try {
+			journal.close();
+		}
+		catch (IOException e) {
+			engine.error("Error closing journal: " + e.getMessage());
+		}
+		if (completed) {
+			journal.getFile().delete();
+		}
+	}
 	
+	/**
+	 * Checks whether a folder or file was completed in the run that is resumed
+	 */
+	protected boolean isCompleted(FileObject dest, SyncOptions options, Engine engine) throws FileSystemException {
+		if (options.journal == null || !options.journal.isDone(Snapshot.getPath(options.destBase, dest))) {
+			return false;
+		}
+		options.countResumed();
+		if (options.verbose) {
+			println("Skipped " + engine.toString(dest) + ", completed before", options, engine);
+		}
+		return true;
+	}
+	
+	/**
+	 * Checks whether the file may have been left incomplete by the run that is
+	 * resumed: an interrupted copy has a recent modification date, so it could
+	 * otherwise be taken for an up to date file
+	 */
+	protected boolean isInterrupted(FileObject srcFile, FileObject destFile, SyncOptions options) throws FileSystemException {
+		if (options.journal == null || !options.journal.isResumed()) {
+			return false;
+		}
+		if (options.journal.isPartial(Snapshot.getPath(options.destBase, destFile))) {
+			return true;
+		}
+		return destFile.exists() && destFile.getContent().getSize() != srcFile.getContent().getSize();
+	}
+	
+	protected void journalBegin(FileObject dest, boolean folder, SyncOptions options) throws FileSystemException {
+		if (options.journal != null) {
+			options.journal.begin(Snapshot.getPath(options.destBase, dest), folder);
+		}
+	}
+	
+	protected void journalEnd(FileObject dest, SyncOptions options) throws FileSystemException {
+		if (options.journal != null) {
+			try {
+				options.journal.end(Snapshot.getPath(options.destBase, dest));
+			}
+			catch (IOException e) {
+				throw new FileSystemException(e);
+			}
+		}
+	}
+	
+	/**
+	 * Prints a verbose message; on a worker thread the message is collected so that
+	 * the output of a folder is printed in order
+	 */
+	protected void println(String message, SyncOptions options, Engine engine) {
+		List slot = (List) options.output.get();
+		if (slot != null) {
+			slot.add(message);
+		}
+		else {
+			engine.println(message);
+		}
+	}
+
 	protected int remainingChildAction(FileObject remainingChild,
 			SyncOptions options, Engine engine) throws FileSystemException {
 		
@@ -186,7 +1221,7 @@ public class Sync extends AbstractCommand {
 			remaining = remainingChild.findFiles(Selectors.SELECT_ALL).length;
 		}
 		if (options.verbose){
-			engine.println("Removed " + engine.toString(remainingChild));
+			println("Removed " + engine.toString(remainingChild), options, engine);
 		}
 		
 		return remaining;
@@ -205,7 +1240,7 @@ public class Sync extends AbstractCommand {
 				removed = destChild.findFiles(Selectors.SELECT_ALL).length;
 			}
 			if (options.verbose) {
-				engine.println("Removed folder " + engine.toString(destChild) + " because of a type conflict");
+				println("Removed folder " + engine.toString(destChild) + " because of a type conflict", options, engine);
 			}
 		}
 		else if (srcChild.getType().equals(FileType.FOLDER) && destChild.getType().equals(FileType.FILE)) {
@@ -215,7 +1250,7 @@ public class Sync extends AbstractCommand {
 			removed = 1;
 
 			if (options.verbose) {
-				engine.println("Removed file " + engine.toString(destChild) + " because of a type conflict");
+				println("Removed file " + engine.toString(destChild) + " because of a type conflict", options, engine);
 			}
 		}
 		return removed;
@@ -234,60 +1269,136 @@ public class Sync extends AbstractCommand {
 			}
 		}
 		if (options.verbose) {
-			engine.println("Copied directory " + engine.toString(srcDir) + " to " + engine.toString(destDir));
+			println("Copied directory " + engine.toString(srcDir) + " to " + engine.toString(destDir), options, engine);
 		}
 	}
 	
 	protected void syncFileAction(FileObject srcFile, FileObject destFile,
 			SyncOptions options, Engine engine) throws FileSystemException {
+		DeltaCopier.Stats stats = null;
+		long resumedAt = 0;
+		MessageDigest digest = null;
 		if (!options.dryRun) {
-			destFile.copyFrom(srcFile, Selectors.SELECT_SELF);
-			
-			if (options.preserveLastModified  && 
-		                srcFile.getFileSystem().hasCapability(Capability.GET_LAST_MODIFIED) &&
-		                destFile.getFileSystem().hasCapability(Capability.SET_LAST_MODIFIED_FILE)) {
-				 destFile.getContent().setLastModifiedTime(srcFile.getContent().getLastModifiedTime());
-		    }
+			if (options.inPlace && this.deltaCopier.canUpdate(srcFile, destFile)) {
+				stats = this.deltaCopier.update(srcFile, destFile);
+			}
+			else if (options.journal != null && srcFile.getContent().getSize() >= this.resumableCopier.getCheckpointSize()) {
+				resumedAt = copyResumable(srcFile, destFile, options);
+			}
+			else {
+				digest = (options.verifier != null ? options.verifier.createDigest() : null);
+				this.copier.copy(srcFile, destFile, options.copyStats, digest);
+			}
+			preserveLastModified(srcFile, destFile, options);
+			if (options.verifier != null) {
+				//updated and resumed files are verified against a digest of the source
+				options.verifier.verify(srcFile, destFile, digest);
+			}
 		}
 		if (options.verbose) {
-			 engine.println("Copied file " + engine.toString(srcFile) + " to " + engine.toString(destFile));
+			if (stats != null) {
+				println("Updated file " + engine.toString(destFile) + " from " + engine.toString(srcFile) + ", " + stats, options, engine);
+			}
+			else if (resumedAt > 0) {
+				println("Resumed file " + engine.toString(srcFile) + " to " + engine.toString(destFile) + " at byte " + resumedAt, options, engine);
+			}
+			else {
+				println("Copied file " + engine.toString(srcFile) + " to " + engine.toString(destFile), options, engine);
+			}
+		}
+	}
+	
+	/**
+	 * Copies a large file while recording its progress in the journal, continuing
+	 * at the last confirmed offset of a previous run if the source did not change
+	 * @return the offset the copy started at
+	 */
+	protected long copyResumable(FileObject srcFile, FileObject destFile, SyncOptions options) throws FileSystemException {
+		final SyncJournal journal = options.journal;
+		final String path = Snapshot.getPath(options.destBase, destFile);
+		final long size = srcFile.getContent().getSize();
+		final long lastModified = srcFile.getContent().getLastModifiedTime();
+		
+		long offset = journal.getOffset(path, size, lastModified);
+		return this.resumableCopier.copy(srcFile, destFile, offset, new ResumableCopier.Listener() {
+			public void confirmed(long offset) throws IOException {
+				journal.progress(path, size, lastModified, offset);
+			}
+		});
+	}
+	
+	protected void preserveLastModified(FileObject srcFile, FileObject destFile, SyncOptions options) throws FileSystemException {
+		if (options.preserveLastModified  && 
+				srcFile.getFileSystem().hasCapability(Capability.GET_LAST_MODIFIED) &&
+				destFile.getFileSystem().hasCapability(Capability.SET_LAST_MODIFIED_FILE)) {
+			destFile.getContent().setLastModifiedTime(srcFile.getContent().getLastModifiedTime());
 		}
 	}
 	
 	protected boolean areSame(FileObject fileA, FileObject fileB, SyncOptions options) throws FileSystemException {
 		
-		if (!fileB.exists()) {
+		//a trusted snapshot replaces the stat of the destination
+		Snapshot.Entry known = null;
+		if (options.snapshot != null && isListed(Snapshot.getPath(options.destBase, fileB), true, options)) {
+			known = options.snapshot.get(Snapshot.getPath(options.destBase, fileB));
+			if (known == null || !known.type.hasContent()) {
+				return false;
+			}
+		}
+		else if (!fileB.exists()) {
 			return false;
 		}
 		
 		boolean sameDate = true;
 		if (options.compareDate) {
+			long lastModifiedB = (known != null ? known.lastModified : fileB.getContent().getLastModifiedTime());
 			if (options.compareDateNewer) {
-			sameDate = (fileA.getContent().getLastModifiedTime() <= fileB.getContent().getLastModifiedTime());
+			sameDate = (fileA.getContent().getLastModifiedTime() <= lastModifiedB);
 			}
 			else {
-				sameDate = (fileA.getContent().getLastModifiedTime() == fileB.getContent().getLastModifiedTime());
+				sameDate = (fileA.getContent().getLastModifiedTime() == lastModifiedB);
 			}
 			
 		}
 		
 		boolean sameSize = true;
 		if (options.compareSize) {
-			sameSize = fileA.getContent().getSize() == fileB.getContent().getSize();
+			long sizeB = (known != null ? known.size : fileB.getContent().getSize());
+			sameSize = fileA.getContent().getSize() == sizeB;
 		}
 		
-		boolean sameMd5 = true;
-		if (options.compareMd5) {
+		boolean sameDigest = true;
+		if (options.compareDigest && sameSize && sameDate) {
 			
-			BigInteger md5A = md5Helper.calculateMd5(fileA);
-			BigInteger md5B = md5Helper.calculateMd5(fileB);
-			sameMd5 = md5A.equals(md5B);					
+			BigInteger digestA = digestEngine.calculate(fileA, options.digestAlgorithm);
+			BigInteger digestB = digestEngine.calculate(fileB, options.digestAlgorithm);
+			sameDigest = digestA.equals(digestB);					
 		}
 		
-		return sameSize && sameDate && sameMd5;		
+		return sameSize && sameDate && sameDigest;		
+	}
+
+	public void setDigestEngine(DigestEngine digestEngine) {
+		this.digestEngine = digestEngine;
+	}
+
+	public void setDeltaCopier(DeltaCopier deltaCopier) {
+		this.deltaCopier = deltaCopier;
 	}
 
-	public void setMd5Helper(org.vfsutils.Md5 md5Helper) {
-		this.md5Helper = md5Helper;
+	/**
+	 * Sets the copier for files that are copied completely
+	 * @param copier
+	 */
+	public void setCopier(PipelinedCopier copier) {
+		this.copier = copier;
+	}
+
+	/**
+	 * Sets the resolver for checksums that the file systems already know
+	 * @param checksumResolver
+	 */
+	public void setChecksumResolver(ChecksumResolver checksumResolver) {
+		this.checksumResolver = checksumResolver;
 	}
 }
@@ -0,0 +1,84 @@
+package org.vfsutils.shell.commands;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.Selectors;
+import org.apache.commons.vfs2.VFS;
+import org.vfsutils.shell.Engine;
+
+import bsh.ConsoleInterface;
+
+/**
+ * Runs commands on an engine whose output is collected, with a ram folder
+ * that is removed after each test
+ */
+public abstract class CommandTestCase extends TestCase {
+
+	private ByteArrayOutputStream outBuffer;
+	protected Engine engine;
+	protected FileObject base;
+
+	protected void setUp() throws Exception {
+		outBuffer = new ByteArrayOutputStream();
+		final PrintStream out = new PrintStream(outBuffer);
+		engine = new Engine(new ConsoleInterface() {
+			public Reader getIn() {
+				return null;
+			}
+			public PrintStream getOut() {
+				return out;
+			}
+			public PrintStream getErr() {
+				return out;
+			}
+			public void println(Object o) {
+				out.println(o);
+			}
+			public void print(Object o) {
+				out.print(o);
+			}
+			public void error(Object o) {
+				out.println(o);
+			}
+		});
+		base = VFS.getManager().resolveFile("ram:///" + getClass().getName());
+	}
+
+	protected void tearDown() throws Exception {
+		base.delete(Selectors.SELECT_ALL);
+	}
+
+	protected String getBase() {
+		return base.getName().getURI();
+	}
+
+	protected void write(String path, String content) throws Exception {
+		OutputStream out = base.resolveFile(path).getContent().getOutputStream();
+		out.write(content.getBytes("UTF-8"));
+		out.close();
+	}
+
+	/**
+	 * @return the output of the command, also when it failed
+	 */
+	protected String run(String command) {
+		outBuffer.reset();
+		engine.clearLastError();
+		engine.handleCommand(command);
+		return outBuffer.toString();
+	}
+
+	protected static int count(String text, String part) {
+		int count = 0;
+		for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) {
+			count++;
+		}
+		return count;
+	}
+}
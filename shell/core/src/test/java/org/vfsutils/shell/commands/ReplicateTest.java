@@ -0,0 +1,63 @@
+package org.vfsutils.shell.commands;
+
+import org.vfsutils.shell.CommandException;
+
+public class ReplicateTest extends CommandTestCase {
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		write("src/a.txt", "first");
+		write("src/b.txt", "second");
+		write("src/sub/c.txt", "third");
+		write("blocker", "a file that is in the way");
+	}
+
+	private void assertReplicated(String target) throws Exception {
+		assertEquals(5, base.resolveFile(target + "/a.txt").getContent().getSize());
+		assertEquals(6, base.resolveFile(target + "/b.txt").getContent().getSize());
+		assertEquals(5, base.resolveFile(target + "/sub/c.txt").getContent().getSize());
+	}
+
+	private void assertCounters(int threads) throws Exception {
+		String command = "replicate " + getBase() + "/src " + getBase() + "/t1 " + getBase() + "/t2"
+			+ (threads > 1 ? " --threads=" + threads + " --dest-limit=1" : "");
+		String output = run(command);
+		assertNull(output, engine.getLastError());
+		assertEquals(output, 2, count(output, "Synchronized 2 of 1 Folder(s), 3 of 3 File(s)"));
+		assertReplicated("t1");
+		assertReplicated("t2");
+
+		write("src/b.txt", "changed content");
+		output = run(command);
+		assertNull(output, engine.getLastError());
+		assertEquals(output, 2, count(output, "Synchronized 0 of 1 Folder(s), 1 of 3 File(s)"));
+		assertEquals(15, base.resolveFile("t2/b.txt").getContent().getSize());
+	}
+
+	public void testCounters() throws Exception {
+		assertCounters(1);
+	}
+
+	public void testParallelCounters() throws Exception {
+		assertCounters(4);
+	}
+
+	private void assertFailureIsolated(int threads) throws Exception {
+		String output = run("replicate " + getBase() + "/src " + getBase() + "/t1 " + getBase() + "/blocker/t2 " + getBase() + "/t3"
+			+ (threads > 1 ? " --threads=" + threads : ""));
+		assertTrue(output, engine.getLastError() instanceof CommandException);
+		assertTrue(output, output.indexOf("1 of 3 target(s) failed") >= 0);
+		assertEquals(output, 1, count(output, ": Failed"));
+		assertEquals(output, 2, count(output, "Synchronized 2 of 1 Folder(s), 3 of 3 File(s)"));
+		assertReplicated("t1");
+		assertReplicated("t3");
+	}
+
+	public void testFailureIsolated() throws Exception {
+		assertFailureIsolated(1);
+	}
+
+	public void testParallelFailureIsolated() throws Exception {
+		assertFailureIsolated(4);
+	}
+}
@@ -0,0 +1,97 @@
+package org.vfsutils.shell.commands;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.apache.commons.vfs2.Selectors;
+
+public class SyncTest extends CommandTestCase {
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		for (int i=0; i<4; i++) {
+			for (int j=0; j<5; j++) {
+				write("src/dir" + i + "/sub/file" + j, "content " + i + " " + j);
+			}
+			write("src/file" + i, "top " + i);
+		}
+	}
+
+	private void assertCounters(String options) throws Exception {
+		String command = "sync " + getBase() + "/src " + getBase() + "/dest" + options;
+		String output = run(command);
+		assertNull(output, engine.getLastError());
+		assertTrue(output, output.indexOf("Synchronized 9 of 8 Folder(s), 24 of 24 File(s), Removed 0 items") >= 0);
+
+		output = run(command);
+		assertTrue(output, output.indexOf("Synchronized 0 of 8 Folder(s), 0 of 24 File(s), Removed 0 items") >= 0);
+
+		write("src/dir2/sub/file3", "changed content");
+		base.resolveFile("src/dir1").delete(Selectors.SELECT_ALL);
+		write("dest/extra", "not in the source");
+		output = run(command + " --delete");
+		assertNull(output, engine.getLastError());
+		assertTrue(output, output.indexOf("Synchronized 0 of 6 Folder(s), 1 of 19 File(s), Removed 8 items") >= 0);
+		assertFalse(base.resolveFile("dest/dir1").exists());
+		assertEquals(15, base.resolveFile("dest/dir2/sub/file3").getContent().getSize());
+	}
+
+	public void testCounters() throws Exception {
+		assertCounters("");
+	}
+
+	public void testJournalNotOpenedOnFailure() throws Exception {
+		File journal = File.createTempFile("sync", ".journal");
+		File notACache = File.createTempFile("sync", ".txt");
+		try {
+			journal.delete();
+			FileOutputStream out = new FileOutputStream(notACache);
+			out.write("not a checksum cache".getBytes("UTF-8"));
+			out.close();
+
+			String output = run("sync " + getBase() + "/src " + getBase() + "/dest --journal=" + journal.toURI()
+				+ " --cache=" + notACache.toURI());
+			assertNotNull(output, engine.getLastError());
+			assertFalse(journal.exists());
+			assertEquals(20, notACache.length());
+		}
+		finally {
+			journal.delete();
+			notACache.delete();
+		}
+	}
+
+	public void testStateKeptOnInvalidOptions() throws Exception {
+		File state = File.createTempFile("sync", ".state");
+		File notACache = File.createTempFile("sync", ".txt");
+		try {
+			state.delete();
+			FileOutputStream out = new FileOutputStream(notACache);
+			out.write("not a checksum cache".getBytes("UTF-8"));
+			out.close();
+
+			String command = "sync " + getBase() + "/src " + getBase() + "/dest --state=" + state.toURI();
+			String output = run(command);
+			assertNull(output, engine.getLastError());
+			assertTrue(state.exists());
+			long length = state.length();
+
+			output = run(command + " --watch");
+			assertNotNull(output, engine.getLastError());
+			output = run(command + " --journal=" + notACache.toURI());
+			assertNotNull(output, engine.getLastError());
+			output = run(command + " --cache=" + notACache.toURI());
+			assertNotNull(output, engine.getLastError());
+			assertEquals(length, state.length());
+		}
+		finally {
+			state.delete();
+			notACache.delete();
+		}
+	}
+
+	public void testParallelCounters() throws Exception {
+		// the counters are shared by all threads
+		assertCounters(" --threads=4 --dest-limit=2");
+	}
+}
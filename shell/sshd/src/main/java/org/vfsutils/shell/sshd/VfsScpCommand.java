@@ -20,6 +20,7 @@ import org.apache.sshd.server.SessionAware;
 import org.apache.sshd.server.session.ServerSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.vfsutils.copy.PipelinedCopier;
 import org.vfsutils.factory.FileSystemManagerFactory;
 import org.vfsutils.selector.FilenameSelector;
 
@@ -35,6 +36,9 @@ public class VfsScpCommand implements Command, Runnable, SessionAware {
 	protected static final int OK = 0;
     protected static final int WARNING = 1;
 	protected static final int ERROR = 2;
+	
+	// overlaps receiving an upload with writing it
+	protected static final PipelinedCopier copier = new PipelinedCopier();
 
     protected String name;
 	protected boolean optR;
@@ -342,16 +346,7 @@ public class VfsScpCommand implements Command, Runnable, SessionAware {
 		try {
 			ack();
 
-			byte[] buffer = new byte[8192];
-			while (length > 0) {
-				int len = (int) Math.min(length, buffer.length);
-				len = in.read(buffer, 0, len);
-				if (len <= 0) {
-					throw new IOException("End of stream reached");
-				}
-				os.write(buffer, 0, len);
-				length -= len;
-			}
+			copier.copy(in, os, length, null);
 		} finally {
 			os.close();
 		}
@@ -6,18 +6,15 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.apache.commons.vfs2.Capability;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileType;
 import org.apache.commons.vfs2.RandomAccessContent;
-import org.apache.commons.vfs2.util.RandomAccessMode;
 import org.apache.sshd.server.SshFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.vfsutils.content.PseudoRandomAccessContent;
-import org.vfsutils.content.PseudoWriteableRandomAccessContent;
-//import org.vfsutils.content.RandomAccessContentOutputStream;
+import org.vfsutils.content.RandomAccessContentInputStream;
+import org.vfsutils.content.RandomAccessContentOutputStream;
 
 public class VfsSshFile implements SshFile {
 	
@@ -25,6 +22,9 @@ public class VfsSshFile implements SshFile {
 	
 	private FileObject vfsFile;
 	private VfsFileSystemView view;
+	// shared by the writes of an open handle, written back on close
+	private RandomAccessContent readContent;
+	private RandomAccessContent writeContent;
 	
 	public VfsSshFile(FileObject vfsFile, VfsFileSystemView view) {
 		this.vfsFile = vfsFile;
@@ -51,34 +51,34 @@ public class VfsSshFile implements SshFile {
 
 
 
+	/**
+	 * Reads from the offset on. All reads until the handle is closed share one
+	 * readable content, so a client that reads out of order does not download
+	 * the file again from a file system without random access reads.
+	 */
 	public InputStream createInputStream(long offset) throws IOException {
-	
-		RandomAccessMode ram = RandomAccessMode.READWRITE;
-		RandomAccessContent rac;
-		if (vfsFile.getFileSystem().hasCapability(Capability.RANDOM_ACCESS_WRITE)) {
-			rac = vfsFile.getContent().getRandomAccessContent(ram);
-		}
-		else {
-			rac = new PseudoWriteableRandomAccessContent(vfsFile, ram);
+		if (this.readContent == null) {
+			this.readContent = RandomAccessContentInputStream.openContent(this.vfsFile);
 		}
-		rac.seek(offset);
-		return rac.getInputStream();
-	    
+		this.readContent.seek(offset);
+		return new RandomAccessContentInputStream(this.readContent, false);
 	}
 
+	/**
+	 * Writes at the offset without truncating the file, so resumed and out of
+	 * order writes work; the file is only truncated when it is opened for
+	 * truncation. All writes until the handle is closed share one writeable
+	 * content, so a file system without random access writes spools the file
+	 * once and uploads it once, when the handle is closed.
+	 */
 	public OutputStream createOutputStream(long offset) throws IOException {
-      return vfsFile.getOutputStream();
-		RandomAccessMode ram = RandomAccessMode.READ;
-		RandomAccessContent rac;
-		if (this.vfsFile.getFileSystem().hasCapability(Capability.RANDOM_ACCESS_READ)) {
-			rac = vfsFile.getContent().getRandomAccessContent(ram);
+		//what was read may change
+		closeReadContent();
+		if (this.writeContent == null) {
+			this.writeContent = RandomAccessContentOutputStream.openContent(this.vfsFile);
 		}
-		else {
-			rac = new PseudoRandomAccessContent(this.vfsFile, ram);
-		}
-		rac.seek(offset);
-      // missing class
-		//return new RandomAccessContentOutputStream(rac);
+		this.writeContent.seek(offset);
+		return new RandomAccessContentOutputStream(this.writeContent, 64 * 1024, false);
 	}
 
 	public boolean delete() {
@@ -144,7 +144,29 @@ public class VfsSshFile implements SshFile {
 	}
 
 	public void handleClose() throws IOException {
-		this.vfsFile.close();
+		try {
+			closeReadContent();
+			closeWriteContent();
+		}
+		finally {
+			this.vfsFile.close();
+		}
+	}
+
+	private void closeReadContent() throws IOException {
+		if (this.readContent != null) {
+			RandomAccessContent closing = this.readContent;
+			this.readContent = null;
+			closing.close();
+		}
+	}
+
+	private void closeWriteContent() throws IOException {
+		if (this.writeContent != null) {
+			RandomAccessContent closing = this.writeContent;
+			this.writeContent = null;
+			closing.close();
+		}
 	}
 
 	public boolean isDirectory() {
@@ -251,7 +273,9 @@ public class VfsSshFile implements SshFile {
 	}
 
 	public void truncate() throws IOException {
-		this.vfsFile.getContent().getInputStream().close();
+		closeReadContent();
+		closeWriteContent();
+		this.vfsFile.getContent().getOutputStream().close();
 	}
 	
 	public String toString() {
@@ -1,16 +1,26 @@
 package org.vfsutils;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
+import org.vfsutils.concurrent.FileSystemLimiter;
+import org.vfsutils.digest.ChecksumCache;
+import org.vfsutils.digest.DigestEngine;
 
 /**
  * MD5 calculation utilities.
@@ -22,11 +32,38 @@ public class Md5 {
 	/**
 	 * Class to contain information from a .md5 file containing
 	 * a checksum and optionally a fileName	 
+	 * @deprecated use {@link org.vfsutils.digest.ManifestReader} and its entries
 	 */
 	public class Md5FileInfo {
 		public String fileName = null;
 		public String checksum = null;
 	}
+	
+	/**
+	 * Receives the results of a batch calculation. The methods are called
+	 * on the thread that started the calculation, in order of completion.
+	 */
+	public interface Md5Listener {
+		public void md5Calculated(FileObject file, BigInteger md5);
+		public void md5Failed(FileObject file, FileSystemException e);
+	}
+	
+	protected int maxPerFileSystem = 4;
+	
+	protected DigestEngine digestEngine = new DigestEngine();
+	
+	/**
+	 * Sets the maximum number of files that are read at the same time from
+	 * a single file system during a batch calculation.
+	 * @param maxPerFileSystem a value smaller than 1 means no limit
+	 */
+	public void setMaxPerFileSystem(int maxPerFileSystem) {
+		this.maxPerFileSystem = maxPerFileSystem;
+	}
+	
+	public int getMaxPerFileSystem() {
+		return this.maxPerFileSystem;
+	}
 
 	/**
 	 * Creates a 32 character hex string of the BigInteger representing the md5 code
@@ -86,41 +123,33 @@ public class Md5 {
 	 * @see #toString(BigInteger)
 	 */
 	public BigInteger calculateMd5(FileObject file) throws FileSystemException {
-		InputStream is = null;
-		try {
-			MessageDigest digest = MessageDigest.getInstance("MD5");
-			
-			byte[] buffer = new byte[8192*1];
-			int read = -1;
-			
-			is = file.getContent().getInputStream();
-			
-			while( (read = is.read(buffer)) >= 0) {
-				digest.update(buffer, 0, read);
-			}		
-			
-			//close the stream and free it
-			is.close();
-			is = null;
-			
-			byte[] messageDigest  = digest.digest();
-			BigInteger bigInt = new BigInteger(1, messageDigest);
-			
-			return bigInt;
-		} catch (Exception e) {
-			throw new FileSystemException(e);
-		}
-		finally {
-			if (is !=null) {
-				try {
-					is.close();
-				} catch (IOException e) {
-					//ignore
-				}
-			}
-		}
+		return this.digestEngine.calculate(file, DigestEngine.MD5);
+	}
+	
+	public void setDigestEngine(DigestEngine digestEngine) {
+		this.digestEngine = digestEngine;
+	}
+	
+	public DigestEngine getDigestEngine() {
+		return this.digestEngine;
+	}
+	
+	/**
+	 * Sets the cache that is consulted before the content of a file is read
+	 * @param checksumCache the cache or null to disable caching
+	 */
+	public void setChecksumCache(ChecksumCache checksumCache) {
+		this.digestEngine.setChecksumCache(checksumCache);
 	}
 	
+	/**
+	 * Parses a .md5 file that contains a single checksum and optionally a file name
+	 * @param md5File
+	 * @return the checksum and file name
+	 * @throws FileSystemException also when the file does not contain a checksum
+	 * @deprecated use {@link org.vfsutils.digest.ManifestReader}, which also reads
+	 * manifests with several entries and other formats
+	 */
 	public Md5FileInfo parseMd5File(FileObject md5File) throws FileSystemException {
 		Md5FileInfo result = new Md5FileInfo();
 		
@@ -180,4 +209,110 @@ public class Md5 {
 		
 		return result;
 	}
+	
+	/**
+	 * Calculates the md5 codes for the content of the given files using a pool
+	 * of worker threads. The results are passed to the listener as soon as
+	 * they are available, so not necessarily in the order of the input.
+	 * @param files
+	 * @param threads the size of the worker pool
+	 * @param listener receives the results on the calling thread
+	 * @throws FileSystemException when interrupted while waiting for the results
+	 */
+	public void calculateMd5(FileObject[] files, int threads, Md5Listener listener) throws FileSystemException {
+		if (threads < 1) {
+			throw new IllegalArgumentException("The number of threads must be at least 1");
+		}
+		
+		final FileSystemLimiter limiter = new FileSystemLimiter(this.maxPerFileSystem);
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(files.length, 1)));
+		try {
+			CompletionService completion = new ExecutorCompletionService(executor);
+			for (int i=0; i<files.length; i++) {
+				final FileObject file = files[i];
+				completion.submit(new Callable() {
+					public Object call() throws Exception {
+						Md5Result result = new Md5Result(file);
+						try {
+							limiter.acquire(file);
+							try {
+								result.md5 = calculateMd5(file);
+							}
+							finally {
+								limiter.release(file);
+							}
+						}
+						catch (FileSystemException e) {
+							result.error = e;
+						}
+						return result;
+					}
+				});
+			}
+			
+			for (int i=0; i<files.length; i++) {
+				Md5Result result = (Md5Result) completion.take().get();
+				if (result.error == null) {
+					listener.md5Calculated(result.file, result.md5);
+				}
+				else {
+					listener.md5Failed(result.file, result.error);
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FileSystemException(e);
+		}
+		catch (ExecutionException e) {
+			throw new FileSystemException(e.getCause());
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Calculates the md5 codes for the content of the given files using a pool
+	 * of worker threads.
+	 * @param files
+	 * @param threads the size of the worker pool
+	 * @return the md5 codes in the same order as the files
+	 * @throws FileSystemException the first exception that occurred
+	 */
+	public BigInteger[] calculateMd5(FileObject[] files, int threads) throws FileSystemException {
+		final Map calculated = new IdentityHashMap(files.length);
+		final FileSystemException[] errors = new FileSystemException[1];
+		
+		calculateMd5(files, threads, new Md5Listener() {
+			public void md5Calculated(FileObject file, BigInteger md5) {
+				calculated.put(file, md5);
+			}
+			public void md5Failed(FileObject file, FileSystemException e) {
+				if (errors[0] == null) {
+					errors[0] = e;
+				}
+			}
+		});
+		
+		if (errors[0] != null) {
+			throw errors[0];
+		}
+		
+		BigInteger[] result = new BigInteger[files.length];
+		for (int i=0; i<files.length; i++) {
+			result[i] = (BigInteger) calculated.get(files[i]);
+		}
+		return result;
+	}
+	
+	private static class Md5Result {
+		private FileObject file;
+		private BigInteger md5 = null;
+		private FileSystemException error = null;
+		
+		private Md5Result(FileObject file) {
+			this.file = file;
+		}
+	}
 }
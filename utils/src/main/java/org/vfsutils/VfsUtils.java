@@ -1,7 +1,12 @@
 package org.vfsutils;
 
+import java.io.File;
+
 import org.apache.commons.vfs2.FileName;
 import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.provider.local.LocalFileName;
+import org.apache.commons.vfs2.provider.local.LocalFileSystem;
 
 public class VfsUtils {
 
@@ -57,4 +62,21 @@ public class VfsUtils {
 		}
 		return name.getURI();
 	}
+	
+	/**
+	 * Returns the local file that backs the given file object. Only
+	 * files of the local file system (file://) are backed by a local file.
+	 * @param file
+	 * @return the local file or null if the file object is not a local file
+	 * @throws FileSystemException
+	 */
+	public static File toLocalFile(FileObject file) throws FileSystemException {
+		// the ram file system uses local file names as well
+		if (file==null || !(file.getFileSystem() instanceof LocalFileSystem)
+				|| !(file.getName() instanceof LocalFileName)) {
+			return null;
+		}
+		LocalFileName name = (LocalFileName) file.getName();
+		return new File(name.getRootFile() + name.getPathDecoded());
+	}
 }
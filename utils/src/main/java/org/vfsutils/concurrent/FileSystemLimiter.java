@@ -0,0 +1,198 @@
+package org.vfsutils.concurrent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystem;
+import org.apache.commons.vfs2.FileSystemException;
+
+/**
+ * Limits the number of concurrent operations that are executed on a single
+ * file system. Each file system gets its own permits so that a worker pool can
+ * be shared between several file systems without overloading one of them.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class FileSystemLimiter {
+
+	private int defaultLimit;
+	private Map limits = new HashMap();
+	private Map semaphores = new HashMap();
+	private Map order = new HashMap();
+
+	/**
+	 * Creates a limiter
+	 * @param defaultLimit the maximum number of concurrent operations per
+	 * file system; a value smaller than 1 means no limit
+	 */
+	public FileSystemLimiter(int defaultLimit) {
+		this.defaultLimit = defaultLimit;
+	}
+
+	/**
+	 * Overrides the default limit for the given file system. Must be called
+	 * before the first operation on the file system is started.
+	 * @param fs
+	 * @param limit the maximum number of concurrent operations; a value smaller
+	 * than 1 means no limit
+	 */
+	public synchronized void setLimit(FileSystem fs, int limit) {
+		this.limits.put(fs, new Integer(limit));
+		this.semaphores.remove(fs);
+	}
+
+	public int getDefaultLimit() {
+		return this.defaultLimit;
+	}
+
+	/**
+	 * Blocks until an operation can be started on the file system of the given file.
+	 * Every successful call must be followed by a call to {@link #release(FileObject)}.
+	 * @param file
+	 * @throws FileSystemException when interrupted while waiting
+	 */
+	public void acquire(FileObject file) throws FileSystemException {
+		Semaphore semaphore = getSemaphore(file.getFileSystem());
+		if (semaphore != null) {
+			try {
+				semaphore.acquire();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new FileSystemException(e);
+			}
+		}
+	}
+
+	/**
+	 * Starts an operation on the file system of the given file only when that
+	 * is possible without waiting. Only a successful call must be followed by a
+	 * call to {@link #release(FileObject)}. As it never blocks it can be called
+	 * while holding other permits, in any order.
+	 * @param file
+	 * @return whether the operation can be started
+	 */
+	public boolean tryAcquire(FileObject file) {
+		Semaphore semaphore = getSemaphore(file.getFileSystem());
+		return (semaphore == null || semaphore.tryAcquire());
+	}
+
+	/**
+	 * Signals that an operation on the file system of the given file has finished
+	 * @param file
+	 */
+	public void release(FileObject file) {
+		Semaphore semaphore = getSemaphore(file.getFileSystem());
+		if (semaphore != null) {
+			semaphore.release();
+		}
+	}
+
+	/**
+	 * Blocks until an operation that reads from the file system of the first file
+	 * and writes to the file system of the second file can be started. When both
+	 * files share the file system only one permit is taken. Callers that hold
+	 * permits of two file systems must always acquire them in the same order,
+	 * e.g. source before destination.
+	 * Every successful call must be followed by a call to {@link #release(FileObject, FileObject)}.
+	 * @param first
+	 * @param second
+	 * @throws FileSystemException when interrupted while waiting
+	 */
+	public void acquire(FileObject first, FileObject second) throws FileSystemException {
+		acquireAll(new FileObject[] {first, second});
+	}
+
+	/**
+	 * Signals that an operation started with {@link #acquire(FileObject, FileObject)} has finished
+	 * @param first
+	 * @param second
+	 */
+	public void release(FileObject first, FileObject second) {
+		releaseAll(new FileObject[] {first, second});
+	}
+
+	/**
+	 * Blocks until an operation that involves the file systems of all given files
+	 * can be started. One permit is taken per distinct file system; the permits
+	 * are always taken in the same order so concurrent callers can not deadlock.
+	 * Every successful call must be followed by a call to {@link #releaseAll(FileObject[])}.
+	 * @param files
+	 * @throws FileSystemException when interrupted while waiting
+	 */
+	public void acquireAll(FileObject[] files) throws FileSystemException {
+		Semaphore[] semaphores = getSemaphores(files);
+		for (int i=0; i<semaphores.length; i++) {
+			try {
+				semaphores[i].acquire();
+			}
+			catch (InterruptedException e) {
+				for (int j=0; j<i; j++) {
+					semaphores[j].release();
+				}
+				Thread.currentThread().interrupt();
+				throw new FileSystemException(e);
+			}
+		}
+	}
+
+	/**
+	 * Signals that an operation started with {@link #acquireAll(FileObject[])} has finished
+	 * @param files
+	 */
+	public void releaseAll(FileObject[] files) {
+		Semaphore[] semaphores = getSemaphores(files);
+		for (int i=semaphores.length-1; i>=0; i--) {
+			semaphores[i].release();
+		}
+	}
+
+	/**
+	 * @return the distinct semaphores of the files, in the order in which they were created
+	 */
+	private Semaphore[] getSemaphores(FileObject[] files) {
+		List list = new ArrayList();
+		for (int i=0; i<files.length; i++) {
+			Semaphore semaphore = getSemaphore(files[i].getFileSystem());
+			if (semaphore != null && !list.contains(semaphore)) {
+				list.add(semaphore);
+			}
+		}
+		Semaphore[] semaphores = (Semaphore[]) list.toArray(new Semaphore[list.size()]);
+		Arrays.sort(semaphores, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				return getOrder((Semaphore) o1) - getOrder((Semaphore) o2);
+			}
+		});
+		return semaphores;
+	}
+
+	private synchronized int getOrder(Semaphore semaphore) {
+		return ((Integer) this.order.get(semaphore)).intValue();
+	}
+
+	protected synchronized Semaphore getSemaphore(FileSystem fs) {
+		Semaphore semaphore = (Semaphore) this.semaphores.get(fs);
+		if (semaphore == null) {
+			int limit = this.defaultLimit;
+			Integer override = (Integer) this.limits.get(fs);
+			if (override != null) {
+				limit = override.intValue();
+			}
+			if (limit < 1) {
+				return null;
+			}
+			semaphore = new Semaphore(limit, true);
+			this.semaphores.put(fs, semaphore);
+			this.order.put(semaphore, new Integer(this.order.size()));
+		}
+		return semaphore;
+	}
+
+}
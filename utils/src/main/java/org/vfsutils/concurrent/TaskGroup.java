@@ -0,0 +1,99 @@
+package org.vfsutils.concurrent;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Tracks a group of tasks that are executed by an executor and that can
+ * submit further tasks to the same group, e.g. one task per folder of a
+ * tree. The caller waits for the whole group with {@link #await()}.
+ * When a task fails no new tasks are started and the first failure is
+ * rethrown by {@link #await()}.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class TaskGroup {
+
+	/**
+	 * A unit of work that may throw checked exceptions
+	 */
+	public interface Task {
+		public void run() throws Exception;
+	}
+
+	private Executor executor;
+	private int pending = 0;
+	private Throwable failure = null;
+
+	public TaskGroup(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Schedules the task; ignored when an earlier task failed
+	 * @param task
+	 */
+	public void submit(final Task task) {
+		synchronized (this) {
+			if (this.failure != null) {
+				return;
+			}
+			this.pending++;
+		}
+		try {
+			this.executor.execute(new Runnable() {
+				public void run() {
+					try {
+						if (!isFailed()) {
+							task.run();
+						}
+					}
+					catch (Throwable t) {
+						fail(t);
+					}
+					finally {
+						done();
+					}
+				}
+			});
+		}
+		catch (RuntimeException e) {
+			fail(e);
+			done();
+		}
+	}
+
+	public synchronized boolean isFailed() {
+		return this.failure != null;
+	}
+
+	/**
+	 * Waits until all submitted tasks, including the tasks they submitted, have finished
+	 * @throws Exception the first failure of a task
+	 * @throws InterruptedException
+	 */
+	public synchronized void await() throws Exception {
+		while (this.pending > 0) {
+			wait();
+		}
+		if (this.failure instanceof Exception) {
+			throw (Exception) this.failure;
+		}
+		else if (this.failure instanceof Error) {
+			throw (Error) this.failure;
+		}
+	}
+
+	private synchronized void fail(Throwable t) {
+		if (this.failure == null) {
+			this.failure = t;
+		}
+	}
+
+	private synchronized void done() {
+		this.pending--;
+		if (this.pending == 0) {
+			notifyAll();
+		}
+	}
+
+}
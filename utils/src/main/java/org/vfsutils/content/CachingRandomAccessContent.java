@@ -0,0 +1,316 @@
+package org.vfsutils.content;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.vfs2.Capability;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.provider.AbstractRandomAccessStreamContent;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+import org.vfsutils.VfsUtils;
+
+/**
+ * Class that offers a read-only RandomAccessContent that keeps the content it
+ * read in fixed-size pages, so seeking back does not fetch the content again.
+ * The most recently used pages are kept in memory up to the memory budget; the
+ * pages that no longer fit are dropped or, when spilling is enabled, written to
+ * a local temporary file.
+ * <p>
+ * Missing pages are read through the random access content of the file system
+ * when it supports it. Otherwise they are read from a single input stream that
+ * is only reopened when a page before its position is needed; the pages that
+ * are skipped on the way are cached as well, as they had to be read anyway.
+ * The content is assumed not to change while it is open.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class CachingRandomAccessContent extends
+		AbstractRandomAccessStreamContent {
+
+	private FileObject file;
+	private int pageSize;
+	private int maxPages;
+	private boolean spill;
+	private long length;
+	private long filePointer = 0;
+
+	private LinkedHashMap pages = new LinkedHashMap(16, 0.75f, true);
+	private Set spilled = new HashSet();
+	private File spillFile;
+	private RandomAccessFile spillContent;
+
+	private RandomAccessContent source;
+	private InputStream in;
+	private long streamPosition = 0;
+	private DataInputStream dis;
+
+	private long hits = 0;
+	private long spillHits = 0;
+	private long misses = 0;
+	private long bytesFetched = 0;
+
+	/**
+	 * Creates a cache of 16MB of 64KB pages without spilling
+	 * @param file
+	 * @throws FileSystemException
+	 */
+	public CachingRandomAccessContent(FileObject file) throws FileSystemException {
+		this(file, 64 * 1024, 16L * 1024 * 1024, false);
+	}
+
+	/**
+	 * @param file
+	 * @param pageSize the number of bytes per page
+	 * @param memoryBudget the number of bytes of pages kept in memory, at least one page
+	 * @param spill whether pages that do not fit in memory are kept in a temporary file
+	 * @throws FileSystemException
+	 */
+	public CachingRandomAccessContent(FileObject file, int pageSize, long memoryBudget, boolean spill) throws FileSystemException {
+		super(RandomAccessMode.READ);
+		if (pageSize < 1) {
+			throw new IllegalArgumentException("The page size must be at least 1");
+		}
+		this.file = file;
+		this.pageSize = pageSize;
+		this.maxPages = (int) Math.max(1, Math.min(memoryBudget / pageSize, Integer.MAX_VALUE));
+		this.spill = spill;
+		this.length = file.getContent().getSize();
+	}
+
+	protected DataInputStream getDataInputStream() throws IOException {
+		if (this.dis == null) {
+			this.dis = new DataInputStream(new InputStream() {
+				public int read() throws IOException {
+					byte[] b = new byte[1];
+					return (read(b, 0, 1) < 0 ? -1 : b[0] & 0xff);
+				}
+
+				public int read(byte[] b, int off, int len) throws IOException {
+					if (len == 0) {
+						return 0;
+					}
+					if (filePointer >= length) {
+						return -1;
+					}
+					long index = filePointer / pageSize;
+					byte[] page = getPage(index);
+					int pos = (int) (filePointer - index * pageSize);
+					int n = Math.min(len, page.length - pos);
+					System.arraycopy(page, pos, b, off, n);
+					filePointer += n;
+					return n;
+				}
+
+				public long skip(long n) throws IOException {
+					long skipped = Math.max(0, Math.min(n, length - filePointer));
+					filePointer += skipped;
+					return skipped;
+				}
+
+				public int available() throws IOException {
+					return (int) Math.max(0, Math.min(length - filePointer, Integer.MAX_VALUE));
+				}
+			});
+		}
+		return this.dis;
+	}
+
+	private byte[] getPage(long index) throws IOException {
+		Long key = new Long(index);
+		byte[] page = (byte[]) this.pages.get(key);
+		if (page != null) {
+			this.hits++;
+			return page;
+		}
+		if (this.spilled.contains(key)) {
+			page = readSpilled(index);
+			this.spillHits++;
+		}
+		else {
+			page = fetch(index);
+			this.misses++;
+		}
+		put(key, page);
+		return page;
+	}
+
+	private void put(Long key, byte[] page) throws IOException {
+		this.pages.put(key, page);
+		while (this.pages.size() > this.maxPages) {
+			Iterator iterator = this.pages.entrySet().iterator();
+			Map.Entry eldest = (Map.Entry) iterator.next();
+			if (this.spill && !this.spilled.contains(eldest.getKey())) {
+				writeSpilled(((Long) eldest.getKey()).longValue(), (byte[]) eldest.getValue());
+			}
+			iterator.remove();
+		}
+	}
+
+	private byte[] fetch(long index) throws IOException {
+		long offset = index * this.pageSize;
+		byte[] page = new byte[(int) Math.min(this.pageSize, this.length - offset)];
+
+		if (this.source == null && this.in == null
+				&& this.file.getFileSystem().hasCapability(Capability.RANDOM_ACCESS_READ)) {
+			this.source = this.file.getContent().getRandomAccessContent(RandomAccessMode.READ);
+		}
+		if (this.source != null) {
+			this.source.seek(offset);
+			this.source.readFully(page);
+			this.bytesFetched += page.length;
+			return page;
+		}
+
+		if (this.in == null || this.streamPosition > offset) {
+			closeStream();
+			this.in = this.file.getContent().getInputStream();
+			this.streamPosition = 0;
+		}
+		//the stream is always at the start of a page
+		while (this.streamPosition < offset) {
+			long skippedIndex = this.streamPosition / this.pageSize;
+			byte[] skipped = new byte[this.pageSize];
+			readPage(skipped);
+			Long key = new Long(skippedIndex);
+			if (!this.pages.containsKey(key) && !this.spilled.contains(key)) {
+				put(key, skipped);
+			}
+		}
+		readPage(page);
+		return page;
+	}
+
+	private void readPage(byte[] page) throws IOException {
+		int off = 0;
+		while (off < page.length) {
+			int read = this.in.read(page, off, page.length - off);
+			if (read < 0) {
+				throw new EOFException("The content of " + VfsUtils.toString(this.file) + " is shorter than " + this.length + " bytes");
+			}
+			off += read;
+		}
+		this.streamPosition += page.length;
+		this.bytesFetched += page.length;
+	}
+
+	private void writeSpilled(long index, byte[] page) throws IOException {
+		if (this.spillContent == null) {
+			this.spillFile = File.createTempFile("vfsutils", ".pages");
+			try {
+				this.spillContent = new RandomAccessFile(this.spillFile, "rw");
+			}
+			catch (IOException e) {
+				this.spillFile.delete();
+				throw e;
+			}
+		}
+		this.spillContent.seek(index * this.pageSize);
+		this.spillContent.write(page);
+		this.spilled.add(new Long(index));
+	}
+
+	private byte[] readSpilled(long index) throws IOException {
+		long offset = index * this.pageSize;
+		byte[] page = new byte[(int) Math.min(this.pageSize, this.length - offset)];
+		this.spillContent.seek(offset);
+		this.spillContent.readFully(page);
+		return page;
+	}
+
+	private void closeStream() {
+		if (this.in != null) {
+			try {
+				this.in.close();
+			}
+			catch (IOException e) {
+				// ignore
+			}
+			this.in = null;
+		}
+	}
+
+	public void close() throws IOException {
+		closeStream();
+		if (this.source != null) {
+			try {
+				this.source.close();
+			}
+			catch (IOException e) {
+				// ignore
+			}
+			this.source = null;
+		}
+		if (this.spillContent != null) {
+			try {
+				this.spillContent.close();
+			}
+			finally {
+				this.spillContent = null;
+				this.spillFile.delete();
+			}
+		}
+		this.pages.clear();
+		this.spilled.clear();
+	}
+
+	public long getFilePointer() throws IOException {
+		return this.filePointer;
+	}
+
+	public long length() throws IOException {
+		return this.length;
+	}
+
+	public void seek(long pos) throws IOException {
+		if (pos < 0) {
+			throw new FileSystemException("vfs.provider/random-access-invalid-position.error",
+				new Object[] {new Long(pos)});
+		}
+		this.filePointer = pos;
+	}
+
+	/**
+	 * @return the number of reads served by a page in memory
+	 */
+	public long getHits() {
+		return this.hits;
+	}
+
+	/**
+	 * @return the number of pages read back from the temporary file
+	 */
+	public long getSpillHits() {
+		return this.spillHits;
+	}
+
+	/**
+	 * @return the number of pages that had to be fetched
+	 */
+	public long getMisses() {
+		return this.misses;
+	}
+
+	/**
+	 * @return the number of bytes read from the file, including skipped pages
+	 */
+	public long getBytesFetched() {
+		return this.bytesFetched;
+	}
+
+	public String toString() {
+		return "Page cache of " + VfsUtils.toString(this.file) + ": " + this.hits + " hits, " + this.spillHits + " spill hits, "
+			+ this.misses + " misses, " + this.bytesFetched + " bytes fetched";
+	}
+
+}
@@ -0,0 +1,253 @@
+package org.vfsutils.content;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.provider.AbstractRandomAccessContent;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+import org.vfsutils.VfsUtils;
+
+/**
+ * Class that offers a read-only RandomAccessContent for local files through a
+ * memory mapping, so reads are served from the page cache without a system
+ * call or a copy per read. Only a window of the file is mapped at a time; a
+ * read outside the window maps the window around it, so files of any size can
+ * be read. The DataInput methods read straight from the mapping.
+ * <p>
+ * The mapping is released by the garbage collector, not by close, so the file
+ * may remain locked on some platforms for a while after it is closed.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class MappedRandomAccessContent extends AbstractRandomAccessContent {
+
+	private static final long PAGE_SIZE = 4096;
+
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private long length;
+	private long windowSize;
+	private MappedByteBuffer window;
+	private long windowStart = 0;
+	private long windowEnd = 0;
+	private long filePointer = 0;
+
+	/**
+	 * Maps windows of 64MB of the local file that backs the file object
+	 * @param file
+	 * @throws FileSystemException when the file is not a local file
+	 */
+	public MappedRandomAccessContent(FileObject file) throws FileSystemException {
+		this(toLocalFile(file), 64L * 1024 * 1024);
+	}
+
+	/**
+	 * @param file
+	 * @param windowSize the number of bytes mapped at a time, at least 4KB
+	 * @throws FileSystemException
+	 */
+	public MappedRandomAccessContent(File file, long windowSize) throws FileSystemException {
+		super(RandomAccessMode.READ);
+		if (windowSize < PAGE_SIZE || windowSize > Integer.MAX_VALUE - 2 * PAGE_SIZE) {
+			throw new IllegalArgumentException("The window size must be between " + PAGE_SIZE + " and " + (Integer.MAX_VALUE - 2 * PAGE_SIZE));
+		}
+		this.windowSize = windowSize;
+		try {
+			this.raf = new RandomAccessFile(file, "r");
+			this.channel = this.raf.getChannel();
+			this.length = this.channel.size();
+		}
+		catch (IOException e) {
+			throw new FileSystemException(e);
+		}
+	}
+
+	private static File toLocalFile(FileObject file) throws FileSystemException {
+		File localFile = VfsUtils.toLocalFile(file);
+		if (localFile == null) {
+			throw new FileSystemException(new IOException(VfsUtils.toString(file) + " is not a local file"));
+		}
+		return localFile;
+	}
+
+	/**
+	 * Makes sure the next count bytes are mapped and returns the index of the
+	 * file pointer in the window
+	 */
+	private int index(int count) throws IOException {
+		if (this.filePointer + count > this.length) {
+			throw new EOFException();
+		}
+		if (this.filePointer < this.windowStart || this.filePointer + count > this.windowEnd) {
+			map(this.filePointer, count);
+		}
+		return (int) (this.filePointer - this.windowStart);
+	}
+
+	private void map(long position, int count) throws IOException {
+		if (this.channel == null) {
+			throw new IOException("The content is closed");
+		}
+		this.windowStart = position - position % PAGE_SIZE;
+		this.windowEnd = Math.min(Math.max(this.windowStart + this.windowSize, position + count), this.length);
+		this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, this.windowStart, this.windowEnd - this.windowStart);
+	}
+
+	private int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (this.filePointer >= this.length) {
+			return -1;
+		}
+		int index = index(1);
+		int n = (int) Math.min(len, this.windowEnd - this.filePointer);
+		this.window.position(index);
+		this.window.get(b, off, n);
+		this.filePointer += n;
+		return n;
+	}
+
+	public void close() throws IOException {
+		this.window = null;
+		this.windowStart = 0;
+		this.windowEnd = 0;
+		if (this.channel != null) {
+			this.channel = null;
+			this.raf.close();
+		}
+	}
+
+	public long getFilePointer() throws IOException {
+		return this.filePointer;
+	}
+
+	public long length() throws IOException {
+		return this.length;
+	}
+
+	public void seek(long pos) throws IOException {
+		if (pos < 0) {
+			throw new FileSystemException("vfs.provider/random-access-invalid-position.error",
+				new Object[] {new Long(pos)});
+		}
+		this.filePointer = pos;
+	}
+
+	public InputStream getInputStream() throws IOException {
+		return new InputStream() {
+			public int read() throws IOException {
+				return (filePointer >= length ? -1 : readUnsignedByte());
+			}
+
+			public int read(byte[] b, int off, int len) throws IOException {
+				return MappedRandomAccessContent.this.read(b, off, len);
+			}
+
+			public long skip(long n) throws IOException {
+				long skipped = Math.max(0, Math.min(n, length - filePointer));
+				filePointer += skipped;
+				return skipped;
+			}
+
+			public int available() throws IOException {
+				return (int) Math.max(0, Math.min(length - filePointer, Integer.MAX_VALUE));
+			}
+		};
+	}
+
+	public boolean readBoolean() throws IOException {
+		return (readByte() != 0);
+	}
+
+	public byte readByte() throws IOException {
+		int index = index(1);
+		byte result = this.window.get(index);
+		this.filePointer++;
+		return result;
+	}
+
+	public char readChar() throws IOException {
+		int index = index(2);
+		char result = this.window.getChar(index);
+		this.filePointer += 2;
+		return result;
+	}
+
+	public double readDouble() throws IOException {
+		int index = index(8);
+		double result = this.window.getDouble(index);
+		this.filePointer += 8;
+		return result;
+	}
+
+	public float readFloat() throws IOException {
+		int index = index(4);
+		float result = this.window.getFloat(index);
+		this.filePointer += 4;
+		return result;
+	}
+
+	public void readFully(byte[] b) throws IOException {
+		readFully(b, 0, b.length);
+	}
+
+	public void readFully(byte[] b, int off, int len) throws IOException {
+		if (this.filePointer + len > this.length) {
+			throw new EOFException();
+		}
+		while (len > 0) {
+			int n = read(b, off, len);
+			off += n;
+			len -= n;
+		}
+	}
+
+	public int readInt() throws IOException {
+		int index = index(4);
+		int result = this.window.getInt(index);
+		this.filePointer += 4;
+		return result;
+	}
+
+	public long readLong() throws IOException {
+		int index = index(8);
+		long result = this.window.getLong(index);
+		this.filePointer += 8;
+		return result;
+	}
+
+	public short readShort() throws IOException {
+		int index = index(2);
+		short result = this.window.getShort(index);
+		this.filePointer += 2;
+		return result;
+	}
+
+	public int readUnsignedByte() throws IOException {
+		return readByte() & 0xff;
+	}
+
+	public int readUnsignedShort() throws IOException {
+		return readShort() & 0xffff;
+	}
+
+	public String readUTF() throws IOException {
+		return DataInputStream.readUTF(this);
+	}
+
+	public int skipBytes(int n) throws IOException {
+		int skipped = (int) Math.max(0, Math.min(n, this.length - this.filePointer));
+		this.filePointer += skipped;
+		return skipped;
+	}
+
+}
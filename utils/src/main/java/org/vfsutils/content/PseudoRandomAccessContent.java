@@ -112,19 +112,6 @@ public class PseudoRandomAccessContent extends
             // no change
             return;
         }
-		else if (pos > filePointer) 
-		{
-			long available = dis.available();
-			long readAhead = pos - filePointer;
-			// skip when possible
-			if (dis !=null && available >= readAhead) {
-				dis.skip(readAhead);
-			}
-			else if (dis!=null && available > 0) {
-				dis.skip(dis.available());
-			}
-			return;
-		}
 
         if (pos < 0)
         {
@@ -134,9 +121,27 @@ public class PseudoRandomAccessContent extends
                     new Long(pos)
                 });
         }
+
+		if (pos > filePointer && dis != null) 
+		{
+			// skip when possible, the stream does not count skipped bytes
+			while (filePointer < pos) {
+				long skipped = dis.skip(pos - filePointer);
+				if (skipped > 0) {
+					filePointer += skipped;
+				}
+				else if (dis.read() < 0) {
+					break;
+				}
+			}
+			return;
+		}
+
         if (dis != null)
         {
             close();
+            // the stream is reopened at the new position
+            dis = null;
         }
 
         filePointer = pos;
@@ -0,0 +1,154 @@
+package org.vfsutils.content;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.vfs2.Capability;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+import org.vfsutils.VfsUtils;
+
+/**
+ * Class that reads a stream from a RandomAccessContent from its current
+ * position on. The content is assumed not to change while it is read and is
+ * closed together with the stream, unless it is shared by several streams,
+ * e.g. the streams of a single download that is read at different offsets.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class RandomAccessContentInputStream extends InputStream {
+
+	private RandomAccessContent rac;
+	private long length;
+	private boolean closeContent;
+
+	/**
+	 * @param rac the content to read, from its current position
+	 * @throws IOException
+	 */
+	public RandomAccessContentInputStream(RandomAccessContent rac) throws IOException {
+		this(rac, true);
+	}
+
+	/**
+	 * @param rac the content to read, from its current position
+	 * @param closeContent whether closing the stream closes the content
+	 * @throws IOException
+	 */
+	public RandomAccessContentInputStream(RandomAccessContent rac, boolean closeContent) throws IOException {
+		this.rac = rac;
+		this.length = rac.length();
+		this.closeContent = closeContent;
+	}
+
+	/**
+	 * Opens a readable content of the file. The random access content of the
+	 * file system is used when it has one; otherwise the content is read from
+	 * a stream and the pages that were read are cached, so seeking back does
+	 * not download the file again. The content of a remote file is read ahead.
+	 * @param file
+	 * @return the content
+	 * @throws FileSystemException
+	 */
+	public static RandomAccessContent openContent(FileObject file) throws FileSystemException {
+		RandomAccessContent rac;
+		if (file.getFileSystem().hasCapability(Capability.RANDOM_ACCESS_READ)) {
+			rac = file.getContent().getRandomAccessContent(RandomAccessMode.READ);
+		}
+		else {
+			rac = new CachingRandomAccessContent(file);
+		}
+		if (VfsUtils.toLocalFile(file) != null) {
+			return rac;
+		}
+		try {
+			return new ReadAheadRandomAccessContent(rac);
+		}
+		catch (IOException e) {
+			close(rac);
+			throw new FileSystemException(e);
+		}
+	}
+
+	/**
+	 * Opens a stream that reads the content of the file from the offset on,
+	 * through {@link #openContent(FileObject)}. A local file is read from
+	 * offset 0 through its plain input stream.
+	 * @param file
+	 * @param offset
+	 * @return the input stream
+	 * @throws FileSystemException
+	 */
+	public static InputStream open(FileObject file, long offset) throws FileSystemException {
+		if (offset == 0 && VfsUtils.toLocalFile(file) != null) {
+			return file.getContent().getInputStream();
+		}
+
+		RandomAccessContent rac = openContent(file);
+
+		try {
+			rac.seek(offset);
+			return new RandomAccessContentInputStream(rac);
+		}
+		catch (IOException e) {
+			close(rac);
+			throw new FileSystemException(e);
+		}
+	}
+
+	private static void close(RandomAccessContent rac) {
+		try {
+			rac.close();
+		}
+		catch (IOException e) {
+			// ignore
+		}
+	}
+
+	private long remaining() throws IOException {
+		if (this.rac == null) {
+			throw new IOException("The stream is closed");
+		}
+		return Math.max(0, this.length - this.rac.getFilePointer());
+	}
+
+	public int read() throws IOException {
+		return (remaining() == 0 ? -1 : this.rac.readUnsignedByte());
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		long remaining = remaining();
+		if (remaining == 0) {
+			return -1;
+		}
+		int n = (int) Math.min(len, remaining);
+		this.rac.readFully(b, off, n);
+		return n;
+	}
+
+	public long skip(long n) throws IOException {
+		long skipped = Math.max(0, Math.min(n, remaining()));
+		this.rac.seek(this.rac.getFilePointer() + skipped);
+		return skipped;
+	}
+
+	public int available() throws IOException {
+		return (int) Math.min(remaining(), Integer.MAX_VALUE);
+	}
+
+	public void close() throws IOException {
+		if (this.rac != null) {
+			RandomAccessContent closing = this.rac;
+			this.rac = null;
+			if (this.closeContent) {
+				closing.close();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,182 @@
+package org.vfsutils.content;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import org.apache.commons.vfs2.Capability;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+import org.vfsutils.VfsUtils;
+
+/**
+ * Class that writes a stream to a RandomAccessContent from its current position
+ * on. The writes are buffered and the content is closed together with the
+ * stream, unless it is shared by several streams, e.g. the streams of a
+ * single upload that arrives in chunks at different offsets.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class RandomAccessContentOutputStream extends OutputStream {
+
+	private RandomAccessContent rac;
+	private byte[] buffer;
+	private int count = 0;
+	private boolean closeContent;
+
+	public RandomAccessContentOutputStream(RandomAccessContent rac) {
+		this(rac, 64 * 1024, true);
+	}
+
+	/**
+	 * @param rac the content to write to, at its current position
+	 * @param bufferSize the number of bytes that are written at once
+	 * @param closeContent whether closing the stream closes the content
+	 */
+	public RandomAccessContentOutputStream(RandomAccessContent rac, int bufferSize, boolean closeContent) {
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("The buffer size must be at least 1");
+		}
+		this.rac = rac;
+		this.buffer = new byte[bufferSize];
+		this.closeContent = closeContent;
+	}
+
+	/**
+	 * Opens a writeable content that keeps the current content of the file. A
+	 * file system with random access writes is written in place, the file is
+	 * created when it does not exist; otherwise the content is spooled to a
+	 * temporary file and uploaded when it is closed.
+	 * @param file
+	 * @return the content
+	 * @throws FileSystemException
+	 */
+	public static RandomAccessContent openContent(FileObject file) throws FileSystemException {
+		if (file.getFileSystem().hasCapability(Capability.RANDOM_ACCESS_WRITE)) {
+			if (!file.exists()) {
+				file.createFile();
+			}
+			return file.getContent().getRandomAccessContent(RandomAccessMode.READWRITE);
+		}
+		return new SpooledRandomAccessContent(file, RandomAccessMode.READWRITE);
+	}
+
+	/**
+	 * Opens a stream for a single upload that replaces the content of the file
+	 * from the offset on, as an FTP upload that is restarted at an offset. An
+	 * offset of 0 rewrites the file. Otherwise the content before the offset is
+	 * kept and the content after it is dropped: a local file is truncated at
+	 * the offset and appended to, a file that ends at the offset is appended
+	 * to or written in place when the file system can, and in all other cases
+	 * the content is spooled to a temporary file and cut off at the offset.
+	 * @param file
+	 * @param offset
+	 * @return the output stream
+	 * @throws FileSystemException
+	 */
+	public static OutputStream open(FileObject file, long offset) throws FileSystemException {
+		if (offset == 0) {
+			return file.getContent().getOutputStream();
+		}
+
+		File localFile = VfsUtils.toLocalFile(file);
+		if (localFile != null) {
+			try {
+				RandomAccessFile raf = new RandomAccessFile(localFile, "rw");
+				try {
+					raf.setLength(offset);
+				}
+				finally {
+					raf.close();
+				}
+			}
+			catch (IOException e) {
+				throw new FileSystemException(e);
+			}
+			file.refresh();
+			return file.getContent().getOutputStream(true);
+		}
+
+		long size = (file.exists() ? file.getContent().getSize() : 0);
+		RandomAccessContent rac;
+		if (offset >= size && file.getFileSystem().hasCapability(Capability.RANDOM_ACCESS_WRITE)) {
+			rac = openContent(file);
+		}
+		else if (offset == size && file.getFileSystem().hasCapability(Capability.APPEND_CONTENT)) {
+			return file.getContent().getOutputStream(true);
+		}
+		else {
+			//a native random access content can not be truncated
+			rac = new SpooledRandomAccessContent(file, RandomAccessMode.READWRITE);
+		}
+
+		try {
+			if (rac instanceof SpooledRandomAccessContent) {
+				((SpooledRandomAccessContent) rac).setLength(offset);
+			}
+			rac.seek(offset);
+		}
+		catch (IOException e) {
+			try {
+				rac.close();
+			}
+			catch (IOException e2) {
+				// ignore
+			}
+			throw new FileSystemException(e);
+		}
+		return new RandomAccessContentOutputStream(rac);
+	}
+
+	public void write(int b) throws IOException {
+		if (this.count == this.buffer.length) {
+			flushBuffer();
+		}
+		this.buffer[this.count++] = (byte) b;
+	}
+
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (len >= this.buffer.length) {
+			// no use in copying it
+			flushBuffer();
+			this.rac.write(b, off, len);
+			return;
+		}
+		if (len > this.buffer.length - this.count) {
+			flushBuffer();
+		}
+		System.arraycopy(b, off, this.buffer, this.count, len);
+		this.count += len;
+	}
+
+	private void flushBuffer() throws IOException {
+		if (this.count > 0) {
+			this.rac.write(this.buffer, 0, this.count);
+			this.count = 0;
+		}
+	}
+
+	public void flush() throws IOException {
+		flushBuffer();
+	}
+
+	public void close() throws IOException {
+		if (this.rac == null) {
+			return;
+		}
+		try {
+			flushBuffer();
+		}
+		finally {
+			RandomAccessContent closing = this.rac;
+			this.rac = null;
+			if (this.closeContent) {
+				closing.close();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,388 @@
+package org.vfsutils.content;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.provider.AbstractRandomAccessStreamContent;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+
+/**
+ * Class that decorates a read-only RandomAccessContent with read-ahead. Once
+ * a few reads followed each other without a seek in between, the next blocks
+ * are read from the source on a background thread while the reader consumes
+ * the previous ones, so a reader over a slow connection does not wait for a
+ * round trip on every read. At most block count blocks are read ahead.
+ * <p>
+ * A seek within the blocks that are read ahead skips to the right block; any
+ * other seek stops the read-ahead and the reads are passed on to the source
+ * until they are sequential again. The source is never used by two threads
+ * at the same time.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class ReadAheadRandomAccessContent extends
+		AbstractRandomAccessStreamContent {
+
+	private static final int SEQUENTIAL_READS = 2;
+
+	private static ExecutorService defaultExecutor;
+
+	private static class Block {
+		private long position;
+		private byte[] data;
+		private int length;
+		private IOException error;
+
+		private Block(long position, byte[] data, int length) {
+			this.position = position;
+			this.data = data;
+			this.length = length;
+		}
+
+		private Block(IOException error) {
+			this.error = error;
+		}
+
+		private long end() {
+			return this.position + this.length;
+		}
+	}
+
+	private RandomAccessContent source;
+	private ExecutorService executor;
+	private int blockSize;
+	private int blockCount;
+	private long length;
+	private long filePointer = 0;
+
+	private long lastEnd = -1;
+	private int sequentialReads = 0;
+	private ReadAhead readAhead;
+	private Block current;
+	private LinkedList pool = new LinkedList();
+	private DataInputStream dis;
+
+	private long blocksReadAhead = 0;
+	private long seeksCancelled = 0;
+
+	/**
+	 * Reads ahead up to 8 blocks of 64KB on a shared pool of daemon threads
+	 * @param source
+	 * @throws IOException
+	 */
+	public ReadAheadRandomAccessContent(RandomAccessContent source) throws IOException {
+		this(source, 64 * 1024, 8, null);
+	}
+
+	/**
+	 * @param source the content to read, it is closed together with this content
+	 * @param blockSize the number of bytes per block
+	 * @param blockCount the maximum number of blocks read ahead, at least 1
+	 * @param executor runs the read-ahead, a shared pool of daemon threads when null
+	 * @throws IOException
+	 */
+	public ReadAheadRandomAccessContent(RandomAccessContent source, int blockSize, int blockCount, ExecutorService executor) throws IOException {
+		super(RandomAccessMode.READ);
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("The block size must be at least 1");
+		}
+		if (blockCount < 1) {
+			throw new IllegalArgumentException("The block count must be at least 1");
+		}
+		this.source = source;
+		this.blockSize = blockSize;
+		this.blockCount = blockCount;
+		this.executor = (executor == null ? getDefaultExecutor() : executor);
+		this.length = source.length();
+		this.filePointer = source.getFilePointer();
+	}
+
+	private static synchronized ExecutorService getDefaultExecutor() {
+		if (defaultExecutor == null) {
+			defaultExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "read-ahead");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return defaultExecutor;
+	}
+
+	protected DataInputStream getDataInputStream() throws IOException {
+		if (this.dis == null) {
+			this.dis = new DataInputStream(new InputStream() {
+				public int read() throws IOException {
+					byte[] b = new byte[1];
+					return (read(b, 0, 1) < 0 ? -1 : b[0] & 0xff);
+				}
+
+				public int read(byte[] b, int off, int len) throws IOException {
+					return ReadAheadRandomAccessContent.this.read(b, off, len);
+				}
+
+				public long skip(long n) throws IOException {
+					long skipped = Math.max(0, Math.min(n, length - filePointer));
+					seek(filePointer + skipped);
+					return skipped;
+				}
+
+				public int available() throws IOException {
+					if (current != null && filePointer >= current.position && filePointer < current.end()) {
+						return (int) (current.end() - filePointer);
+					}
+					return 0;
+				}
+			});
+		}
+		return this.dis;
+	}
+
+	private int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (this.filePointer >= this.length) {
+			return -1;
+		}
+
+		if (this.readAhead == null) {
+			if (this.filePointer == this.lastEnd) {
+				this.sequentialReads++;
+			}
+			else {
+				this.sequentialReads = 0;
+			}
+			if (this.sequentialReads < SEQUENTIAL_READS) {
+				int n = (int) Math.min(len, this.length - this.filePointer);
+				this.source.seek(this.filePointer);
+				this.source.readFully(b, off, n);
+				this.filePointer += n;
+				this.lastEnd = this.filePointer;
+				return n;
+			}
+			startReadAhead();
+		}
+
+		while (this.current == null || this.filePointer >= this.current.end()) {
+			if (this.current != null) {
+				release(this.current.data);
+			}
+			this.current = this.readAhead.take();
+			if (this.current.error != null) {
+				IOException error = this.current.error;
+				this.current = null;
+				stopReadAhead();
+				throw error;
+			}
+		}
+		int pos = (int) (this.filePointer - this.current.position);
+		int n = Math.min(len, this.current.length - pos);
+		System.arraycopy(this.current.data, pos, b, off, n);
+		this.filePointer += n;
+		this.lastEnd = this.filePointer;
+		return n;
+	}
+
+	private void startReadAhead() {
+		this.readAhead = new ReadAhead(this.filePointer);
+		this.executor.execute(this.readAhead);
+	}
+
+	private void stopReadAhead() throws IOException {
+		if (this.readAhead != null) {
+			try {
+				this.readAhead.cancel();
+			}
+			finally {
+				this.readAhead = null;
+				if (this.current != null) {
+					release(this.current.data);
+					this.current = null;
+				}
+				this.sequentialReads = 0;
+			}
+		}
+	}
+
+	private byte[] borrow() {
+		synchronized (this.pool) {
+			if (!this.pool.isEmpty()) {
+				return (byte[]) this.pool.removeFirst();
+			}
+		}
+		return new byte[this.blockSize];
+	}
+
+	private void release(byte[] buffer) {
+		if (buffer == null) {
+			return;
+		}
+		synchronized (this.pool) {
+			if (this.pool.size() <= this.blockCount) {
+				this.pool.addLast(buffer);
+			}
+		}
+	}
+
+	public void close() throws IOException {
+		try {
+			stopReadAhead();
+		}
+		finally {
+			this.source.close();
+		}
+	}
+
+	public long getFilePointer() throws IOException {
+		return this.filePointer;
+	}
+
+	public long length() throws IOException {
+		return this.length;
+	}
+
+	public void seek(long pos) throws IOException {
+		if (pos < 0) {
+			throw new FileSystemException("vfs.provider/random-access-invalid-position.error",
+				new Object[] {new Long(pos)});
+		}
+		if (pos == this.filePointer) {
+			return;
+		}
+		if (this.readAhead != null) {
+			long windowStart = (this.current == null ? this.filePointer : this.current.position);
+			if (pos < windowStart || pos >= this.filePointer + (long) this.blockSize * this.blockCount) {
+				stopReadAhead();
+				this.seeksCancelled++;
+			}
+		}
+		this.filePointer = pos;
+	}
+
+	/**
+	 * @return true when blocks are being read ahead
+	 */
+	public boolean isReadingAhead() {
+		return (this.readAhead != null);
+	}
+
+	/**
+	 * @return the number of blocks that were read ahead
+	 */
+	public synchronized long getBlocksReadAhead() {
+		return this.blocksReadAhead;
+	}
+
+	/**
+	 * @return the number of times the read-ahead was stopped by a seek
+	 */
+	public long getCancelled() {
+		return this.seeksCancelled;
+	}
+
+	private synchronized void countBlock() {
+		this.blocksReadAhead++;
+	}
+
+	/**
+	 * Reads the blocks from a position on into a bounded queue until the end
+	 * of the content or until it is cancelled
+	 */
+	private class ReadAhead implements Runnable {
+		private long position;
+		private volatile boolean cancelled = false;
+		private BlockingQueue queue = new ArrayBlockingQueue(blockCount);
+		private CountDownLatch done = new CountDownLatch(1);
+
+		private ReadAhead(long position) {
+			this.position = position;
+		}
+
+		public void run() {
+			try {
+				boolean failed = false;
+				while (!this.cancelled && !failed && this.position < length) {
+					byte[] buffer = borrow();
+					int n = (int) Math.min(blockSize, length - this.position);
+					Block block;
+					try {
+						source.seek(this.position);
+						source.readFully(buffer, 0, n);
+						block = new Block(this.position, buffer, n);
+						this.position += n;
+						countBlock();
+					}
+					catch (IOException e) {
+						release(buffer);
+						block = new Block(e);
+						failed = true;
+					}
+					while (!offer(block)) {
+						if (this.cancelled) {
+							release(block.data);
+							break;
+						}
+					}
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			finally {
+				this.done.countDown();
+			}
+		}
+
+		private boolean offer(Block block) throws InterruptedException {
+			return this.queue.offer(block, 100, TimeUnit.MILLISECONDS);
+		}
+
+		private Block take() throws IOException {
+			try {
+				return (Block) this.queue.take();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the read-ahead");
+			}
+		}
+
+		/**
+		 * Stops reading ahead and waits until the source is no longer in use
+		 */
+		private void cancel() throws IOException {
+			this.cancelled = true;
+			drain();
+			try {
+				this.done.await();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while stopping the read-ahead");
+			}
+			drain();
+		}
+
+		private void drain() {
+			Block block;
+			while ((block = (Block) this.queue.poll()) != null) {
+				release(block.data);
+			}
+		}
+	}
+
+}
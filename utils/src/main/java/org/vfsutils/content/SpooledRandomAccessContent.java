@@ -0,0 +1,317 @@
+package org.vfsutils.content;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+
+/**
+ * Class that offers a Writeable RandomAccessContent for file systems that do
+ * not support it natively by working on a local temporary file. When the
+ * content is opened the original content is copied into the temporary file,
+ * unless the spool is sparse, in which case it starts empty. Reads, writes,
+ * seeks and length changes all work on the temporary file; on close the result
+ * is written back to the file in a single upload, but only when it was modified.
+ * <p>
+ * A sparse spool is meant for writers that provide the whole content, possibly
+ * out of order, as the content that is not written is lost on close.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class SpooledRandomAccessContent implements RandomAccessContent {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private FileObject file;
+	private RandomAccessMode mode;
+	private File spoolFile;
+	private RandomAccessFile spool;
+	private boolean modified = false;
+
+	/**
+	 * Creates a spool with a copy of the current content
+	 * @param file
+	 * @param mode
+	 * @throws FileSystemException
+	 */
+	public SpooledRandomAccessContent(FileObject file, RandomAccessMode mode) throws FileSystemException {
+		this(file, mode, false);
+	}
+
+	/**
+	 * @param file
+	 * @param mode
+	 * @param sparse when true the current content is not copied
+	 * @throws FileSystemException
+	 */
+	public SpooledRandomAccessContent(FileObject file, RandomAccessMode mode, boolean sparse) throws FileSystemException {
+		this.file = file;
+		this.mode = mode;
+		try {
+			this.spoolFile = File.createTempFile("vfsutils", ".spool");
+			if (!sparse && file.exists()) {
+				download();
+			}
+			this.spool = new RandomAccessFile(this.spoolFile, mode.getModeString());
+		}
+		catch (IOException e) {
+			if (this.spoolFile != null) {
+				this.spoolFile.delete();
+			}
+			throw new FileSystemException(e);
+		}
+	}
+
+	private void download() throws IOException {
+		InputStream in = this.file.getContent().getInputStream();
+		try {
+			OutputStream out = new FileOutputStream(this.spoolFile);
+			try {
+				transfer(in, out);
+			}
+			finally {
+				out.close();
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private void upload() throws IOException {
+		InputStream in = new FileInputStream(this.spoolFile);
+		try {
+			OutputStream out = this.file.getContent().getOutputStream();
+			try {
+				transfer(in, out);
+			}
+			finally {
+				out.close();
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private void transfer(InputStream in, OutputStream out) throws IOException {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int read;
+		while ((read = in.read(buffer)) > -1) {
+			out.write(buffer, 0, read);
+		}
+	}
+
+	/**
+	 * Writes the content back when it was modified and removes the spool
+	 */
+	public void close() throws IOException {
+		if (this.spool == null) {
+			return;
+		}
+		try {
+			this.spool.close();
+			if (this.modified && this.mode.requestWrite()) {
+				upload();
+			}
+		}
+		finally {
+			this.spool = null;
+			this.spoolFile.delete();
+		}
+	}
+
+	/**
+	 * @return true when the content was written to or its length changed
+	 */
+	public boolean isModified() {
+		return this.modified;
+	}
+
+	public long getFilePointer() throws IOException {
+		return this.spool.getFilePointer();
+	}
+
+	public long length() throws IOException {
+		return this.spool.length();
+	}
+
+	public void seek(long pos) throws IOException {
+		if (pos < 0) {
+			throw new FileSystemException("vfs.provider/random-access-invalid-position.error",
+				new Object[] {new Long(pos)});
+		}
+		this.spool.seek(pos);
+	}
+
+	/**
+	 * Truncates or extends the content
+	 * @param newLength
+	 * @throws IOException
+	 */
+	public void setLength(long newLength) throws IOException {
+		this.spool.setLength(newLength);
+		this.modified = true;
+	}
+
+	public InputStream getInputStream() throws IOException {
+		return new InputStream() {
+			public int read() throws IOException {
+				return spool.read();
+			}
+
+			public int read(byte[] b, int off, int len) throws IOException {
+				return spool.read(b, off, len);
+			}
+
+			public long skip(long n) throws IOException {
+				long skipped = Math.max(0, Math.min(n, spool.length() - spool.getFilePointer()));
+				spool.seek(spool.getFilePointer() + skipped);
+				return skipped;
+			}
+
+			public int available() throws IOException {
+				return (int) Math.max(0, Math.min(spool.length() - spool.getFilePointer(), Integer.MAX_VALUE));
+			}
+		};
+	}
+
+	public void write(byte[] b, int off, int len) throws IOException {
+		this.spool.write(b, off, len);
+		this.modified = true;
+	}
+
+	public void write(byte[] b) throws IOException {
+		this.spool.write(b);
+		this.modified = true;
+	}
+
+	public void write(int b) throws IOException {
+		this.spool.write(b);
+		this.modified = true;
+	}
+
+	public void writeBoolean(boolean v) throws IOException {
+		this.spool.writeBoolean(v);
+		this.modified = true;
+	}
+
+	public void writeByte(int v) throws IOException {
+		this.spool.writeByte(v);
+		this.modified = true;
+	}
+
+	public void writeBytes(String s) throws IOException {
+		this.spool.writeBytes(s);
+		this.modified = true;
+	}
+
+	public void writeChar(int v) throws IOException {
+		this.spool.writeChar(v);
+		this.modified = true;
+	}
+
+	public void writeChars(String s) throws IOException {
+		this.spool.writeChars(s);
+		this.modified = true;
+	}
+
+	public void writeDouble(double v) throws IOException {
+		this.spool.writeDouble(v);
+		this.modified = true;
+	}
+
+	public void writeFloat(float v) throws IOException {
+		this.spool.writeFloat(v);
+		this.modified = true;
+	}
+
+	public void writeInt(int v) throws IOException {
+		this.spool.writeInt(v);
+		this.modified = true;
+	}
+
+	public void writeLong(long v) throws IOException {
+		this.spool.writeLong(v);
+		this.modified = true;
+	}
+
+	public void writeShort(int v) throws IOException {
+		this.spool.writeShort(v);
+		this.modified = true;
+	}
+
+	public void writeUTF(String str) throws IOException {
+		this.spool.writeUTF(str);
+		this.modified = true;
+	}
+
+	public boolean readBoolean() throws IOException {
+		return this.spool.readBoolean();
+	}
+
+	public byte readByte() throws IOException {
+		return this.spool.readByte();
+	}
+
+	public char readChar() throws IOException {
+		return this.spool.readChar();
+	}
+
+	public double readDouble() throws IOException {
+		return this.spool.readDouble();
+	}
+
+	public float readFloat() throws IOException {
+		return this.spool.readFloat();
+	}
+
+	public void readFully(byte[] b) throws IOException {
+		this.spool.readFully(b);
+	}
+
+	public void readFully(byte[] b, int off, int len) throws IOException {
+		this.spool.readFully(b, off, len);
+	}
+
+	public int readInt() throws IOException {
+		return this.spool.readInt();
+	}
+
+	public String readLine() throws IOException {
+		return this.spool.readLine();
+	}
+
+	public long readLong() throws IOException {
+		return this.spool.readLong();
+	}
+
+	public short readShort() throws IOException {
+		return this.spool.readShort();
+	}
+
+	public int readUnsignedByte() throws IOException {
+		return this.spool.readUnsignedByte();
+	}
+
+	public int readUnsignedShort() throws IOException {
+		return this.spool.readUnsignedShort();
+	}
+
+	public String readUTF() throws IOException {
+		return this.spool.readUTF();
+	}
+
+	public int skipBytes(int n) throws IOException {
+		return this.spool.skipBytes(n);
+	}
+
+}
@@ -0,0 +1,89 @@
+package org.vfsutils.copy;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.vfsutils.VfsUtils;
+import org.vfsutils.digest.ChecksumCache;
+import org.vfsutils.digest.ChecksumResolver;
+import org.vfsutils.digest.DigestEngine;
+
+/**
+ * Verifies that a copy has the same content as its source. The digest of the
+ * source is preferably calculated while the bytes are copied, so the source is
+ * read only once; it is compared with a checksum the destination file system
+ * knows or else with the digest of the destination read back. A verified copy
+ * is recorded for both files in the checksum cache of the digest engine, if
+ * it has one.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class CopyVerifier {
+
+	private DigestEngine digestEngine;
+	private String algorithm;
+
+	/**
+	 * @param digestEngine calculates the digests, with its checksum cache and resolver
+	 * @param algorithm the digest algorithm
+	 * @throws FileSystemException if the algorithm is not supported
+	 */
+	public CopyVerifier(DigestEngine digestEngine, String algorithm) throws FileSystemException {
+		this.digestEngine = digestEngine;
+		this.algorithm = digestEngine.normalize(algorithm);
+		digestEngine.createDigest(this.algorithm);
+	}
+
+	public String getAlgorithm() {
+		return this.algorithm;
+	}
+
+	/**
+	 * @return a digest to feed the copied bytes into
+	 * @throws FileSystemException
+	 */
+	public MessageDigest createDigest() throws FileSystemException {
+		return this.digestEngine.createDigest(this.algorithm);
+	}
+
+	/**
+	 * Verifies the copy; the destination has to be complete, including a
+	 * modification time that is set afterwards
+	 * @param src
+	 * @param dest
+	 * @param copied the digest of the bytes that were copied or null to
+	 * calculate the digest of the source
+	 * @return the digest
+	 * @throws FileSystemException when the copy differs from the source
+	 */
+	public BigInteger verify(FileObject src, FileObject dest, MessageDigest copied) throws FileSystemException {
+		BigInteger expected = (copied == null ? this.digestEngine.calculate(src, this.algorithm) : new BigInteger(1, copied.digest()));
+
+		dest.refresh();
+		BigInteger actual = null;
+		ChecksumResolver resolver = this.digestEngine.getChecksumResolver();
+		if (resolver != null) {
+			actual = resolver.resolve(dest, this.algorithm);
+		}
+		if (actual == null) {
+			//the cache could hold the digest of an earlier file with the same size and date
+			actual = this.digestEngine.digest(dest, new String[] {this.algorithm})[0];
+		}
+
+		if (!expected.equals(actual)) {
+			throw new FileSystemException(new IOException("The " + this.algorithm + " digest of " + VfsUtils.toString(dest)
+				+ " differs from that of " + VfsUtils.toString(src)));
+		}
+
+		ChecksumCache cache = this.digestEngine.getChecksumCache();
+		if (cache != null) {
+			cache.put(src, this.algorithm, expected);
+			cache.put(dest, this.algorithm, expected);
+		}
+		return expected;
+	}
+
+}
@@ -0,0 +1,277 @@
+package org.vfsutils.copy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+
+/**
+ * Copies a single source file to several destinations while reading the
+ * source only once. The blocks that are read are handed to a writer thread
+ * per destination through a bounded queue, so the destinations are written
+ * concurrently and a failing destination does not affect the others.
+ * <p>
+ * A destination that does not accept a block within the stall timeout is
+ * detached: it no longer receives blocks, so it can not hold up the other
+ * destinations, and the caller has to copy the file to it separately.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class FanOutCopier {
+
+	public static final int OK = 0;
+	public static final int FAILED = 1;
+	public static final int DETACHED = 2;
+
+	private static final byte[] END = new byte[0];
+
+	/**
+	 * The outcome of the copy to a single destination
+	 */
+	public static class Result {
+		public int status = OK;
+		public Throwable failure = null;
+	}
+
+	private int blockSize = 64 * 1024;
+	private int queueSize = 32;
+	private long stallTimeout = 10000;
+	private ExecutorService writers;
+
+	public FanOutCopier() {
+		this.writers = Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "fan-out-writer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public void setBlockSize(int blockSize) {
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * @param queueSize the number of blocks that can be buffered per destination
+	 */
+	public void setQueueSize(int queueSize) {
+		this.queueSize = queueSize;
+	}
+
+	/**
+	 * @param stallTimeout the number of milliseconds to wait for a destination
+	 * that has a full queue before it is detached
+	 */
+	public void setStallTimeout(long stallTimeout) {
+		this.stallTimeout = stallTimeout;
+	}
+
+	/**
+	 * Copies the content of the source to all destinations
+	 * @param src
+	 * @param dests
+	 * @return the result per destination, in the order of the destinations
+	 * @throws FileSystemException when the source can not be read; none
+	 * of the destinations is then complete
+	 */
+	public Result[] copy(FileObject src, FileObject[] dests) throws FileSystemException {
+		Writer[] writers = new Writer[dests.length];
+		for (int i=0; i<dests.length; i++) {
+			writers[i] = new Writer(dests[i]);
+			this.writers.execute(writers[i]);
+		}
+
+		InputStream in = null;
+		try {
+			in = src.getContent().getInputStream();
+			byte[] block;
+			while ((block = read(in)) != null) {
+				if (!offer(writers, block)) {
+					break;
+				}
+			}
+			offer(writers, END);
+		}
+		catch (IOException e) {
+			abort(writers);
+			throw new FileSystemException(e);
+		}
+		catch (InterruptedException e) {
+			abort(writers);
+			Thread.currentThread().interrupt();
+			throw new FileSystemException(e);
+		}
+		finally {
+			if (in != null) {
+				try {
+					in.close();
+				}
+				catch (IOException e) {
+					//ignore
+				}
+			}
+			await(writers);
+		}
+
+		Result[] results = new Result[dests.length];
+		for (int i=0; i<writers.length; i++) {
+			results[i] = writers[i].result;
+		}
+		return results;
+	}
+
+	/**
+	 * Stops the writer threads
+	 */
+	public void close() {
+		this.writers.shutdown();
+	}
+
+	/**
+	 * @return the next block or null at the end of the stream
+	 */
+	private byte[] read(InputStream in) throws IOException {
+		byte[] block = new byte[this.blockSize];
+		int len = 0;
+		while (len < block.length) {
+			int read = in.read(block, len, block.length - len);
+			if (read < 0) {
+				break;
+			}
+			len += read;
+		}
+		if (len == 0) {
+			return null;
+		}
+		if (len < block.length) {
+			byte[] last = new byte[len];
+			System.arraycopy(block, 0, last, 0, len);
+			block = last;
+		}
+		return block;
+	}
+
+	/**
+	 * Hands the block to all writers that are still active
+	 * @return false if none of the writers is active
+	 */
+	private boolean offer(Writer[] writers, byte[] block) throws InterruptedException {
+		boolean active = false;
+		for (int i=0; i<writers.length; i++) {
+			Writer writer = writers[i];
+			if (writer.isActive()) {
+				if (writer.queue.offer(block, this.stallTimeout, TimeUnit.MILLISECONDS)) {
+					active = true;
+				}
+				else {
+					writer.stop(DETACHED);
+				}
+			}
+		}
+		return active;
+	}
+
+	private void abort(Writer[] writers) {
+		for (int i=0; i<writers.length; i++) {
+			if (writers[i].isActive()) {
+				writers[i].stop(FAILED);
+			}
+		}
+	}
+
+	private void await(Writer[] writers) {
+		boolean interrupted = false;
+		for (int i=0; i<writers.length; i++) {
+			try {
+				writers[i].done.await();
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+				i--;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private class Writer implements Runnable {
+		private FileObject dest;
+		private BlockingQueue queue = new ArrayBlockingQueue(queueSize);
+		private CountDownLatch done = new CountDownLatch(1);
+		private Result result = new Result();
+		private volatile boolean stopped = false;
+
+		private Writer(FileObject dest) {
+			this.dest = dest;
+		}
+
+		private synchronized boolean isActive() {
+			return !this.stopped && this.result.status == OK;
+		}
+
+		private synchronized void stop(int status) {
+			this.stopped = true;
+			if (this.result.status == OK) {
+				this.result.status = status;
+			}
+		}
+
+		private synchronized void fail(Throwable t) {
+			this.stopped = true;
+			if (this.result.status == OK) {
+				this.result.status = FAILED;
+				this.result.failure = t;
+			}
+		}
+
+		public void run() {
+			OutputStream out = null;
+			try {
+				out = this.dest.getContent().getOutputStream();
+				while (true) {
+					byte[] block = (byte[]) this.queue.poll(100, TimeUnit.MILLISECONDS);
+					if (block == null) {
+						if (this.stopped) {
+							break;
+						}
+					}
+					else if (block == END) {
+						break;
+					}
+					else {
+						out.write(block);
+					}
+				}
+				out.close();
+				out = null;
+			}
+			catch (Throwable t) {
+				fail(t);
+			}
+			finally {
+				if (out != null) {
+					try {
+						out.close();
+					}
+					catch (IOException e) {
+						//ignore
+					}
+				}
+				this.queue.clear();
+				this.done.countDown();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,664 @@
+package org.vfsutils.copy;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.LinkedList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.vfsutils.VfsUtils;
+
+/**
+ * Copies content with the reading and the writing overlapped: the data is read
+ * into a ring of buffers on the calling thread and written from them by a writer
+ * thread, so a slow source and a slow destination do not wait for each other.
+ * At most buffer count buffers are in use per copy; they are taken from a pool
+ * that is shared by all copies. Content that fits in a single buffer is written
+ * on the calling thread without involving the writer thread.
+ * <p>
+ * A copy between two local files does not pass through the buffers at all:
+ * it is left to the operating system with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * which can copy within the kernel.
+ * <p>
+ * Besides copying files the copier can put the ring in front of any output
+ * stream, e.g. for an upload that is received from the network.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class PipelinedCopier {
+
+	/**
+	 * Counts the content that was copied; can be shared by several copies,
+	 * also concurrently
+	 */
+	public static class Stats {
+		private long bytes = 0;
+		private long files = 0;
+		private long time = 0;
+		private long readTime = 0;
+		private long writeTime = 0;
+
+		private synchronized void add(long bytes, long time, long readTime, long writeTime) {
+			this.bytes += bytes;
+			this.files++;
+			this.time += time;
+			this.readTime += readTime;
+			this.writeTime += writeTime;
+		}
+
+		public synchronized long getBytes() {
+			return this.bytes;
+		}
+
+		public synchronized long getFiles() {
+			return this.files;
+		}
+
+		/**
+		 * @return the number of milliseconds spent copying, summed over the copies
+		 */
+		public synchronized long getTime() {
+			return this.time / 1000000;
+		}
+
+		/**
+		 * @return the number of milliseconds spent reading the sources
+		 */
+		public synchronized long getReadTime() {
+			return this.readTime / 1000000;
+		}
+
+		/**
+		 * @return the number of milliseconds spent writing the destinations
+		 */
+		public synchronized long getWriteTime() {
+			return this.writeTime / 1000000;
+		}
+
+		/**
+		 * @return the number of bytes per second of a single copy
+		 */
+		public synchronized long getThroughput() {
+			return (this.time == 0 ? 0 : (long) (this.bytes * 1000000000d / this.time));
+		}
+
+		/**
+		 * The time spent reading and writing is given as a percentage of the copy
+		 * time; together they exceed 100% as far as the two overlapped. Copies
+		 * between local files are not included in these percentages.
+		 */
+		public synchronized String toString() {
+			String result = this.bytes + " bytes in " + this.files + " file(s) at " + (getThroughput() / 1024) + " KB/s";
+			if (this.readTime > 0 || this.writeTime > 0) {
+				result += ", reading " + percentage(this.readTime) + "%, writing " + percentage(this.writeTime) + "% of the time";
+			}
+			return result;
+		}
+
+		private long percentage(long part) {
+			return (this.time == 0 ? 0 : Math.round(part * 100d / this.time));
+		}
+	}
+
+	private static final Block END = new Block(null, 0);
+
+	private static class Block {
+		private byte[] data;
+		private int length;
+
+		private Block(byte[] data, int length) {
+			this.data = data;
+			this.length = length;
+		}
+	}
+
+	private static final long TRANSFER_SIZE = 64L * 1024 * 1024;
+
+	private int bufferCount = 8;
+	private int bufferSize = 128 * 1024;
+	private boolean localTransfer = true;
+	private LinkedList pool = new LinkedList();
+	private ExecutorService writers;
+
+	public PipelinedCopier() {
+		this.writers = Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "pipelined-copy-writer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @param bufferCount the maximum number of buffers per copy, at least 2
+	 */
+	public void setBufferCount(int bufferCount) {
+		if (bufferCount < 2) {
+			throw new IllegalArgumentException("The buffer count must be at least 2");
+		}
+		this.bufferCount = bufferCount;
+	}
+
+	public int getBufferCount() {
+		return this.bufferCount;
+	}
+
+	public void setBufferSize(int bufferSize) {
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("The buffer size must be at least 1");
+		}
+		synchronized (this.pool) {
+			this.bufferSize = bufferSize;
+			this.pool.clear();
+		}
+	}
+
+	public int getBufferSize() {
+		return this.bufferSize;
+	}
+
+	/**
+	 * @param localTransfer whether copies between local files are left to
+	 * the operating system, true by default
+	 */
+	public void setLocalTransfer(boolean localTransfer) {
+		this.localTransfer = localTransfer;
+	}
+
+	/**
+	 * Copies the content of the source file to the destination file
+	 * @param src
+	 * @param dest
+	 * @param stats counts the copy, can be null
+	 * @return the number of bytes copied
+	 * @throws FileSystemException
+	 */
+	public long copy(FileObject src, FileObject dest, Stats stats) throws FileSystemException {
+		return copy(src, dest, stats, null);
+	}
+
+	/**
+	 * Copies the content of the source file to the destination file and feeds
+	 * the copied bytes into a digest
+	 * @param src
+	 * @param dest
+	 * @param stats counts the copy, can be null
+	 * @param digest is updated with the bytes that are read, can be null; a
+	 * copy between local files then passes through the buffers as well
+	 * @return the number of bytes copied
+	 * @throws FileSystemException
+	 */
+	public long copy(FileObject src, FileObject dest, Stats stats, MessageDigest digest) throws FileSystemException {
+		if (this.localTransfer && digest == null) {
+			File srcFile = VfsUtils.toLocalFile(src);
+			File destFile = VfsUtils.toLocalFile(dest);
+			if (srcFile != null && destFile != null) {
+				return transfer(srcFile, dest, destFile, stats);
+			}
+		}
+
+		InputStream in = null;
+		Pipe pipe = null;
+		try {
+			in = src.getContent().getInputStream();
+			pipe = new Pipe(dest.getContent().getOutputStream(), stats);
+			pipe.digest = digest;
+			long size = pipe.transferFrom(in, -1);
+			pipe.close();
+			return size;
+		}
+		catch (IOException e) {
+			throw new FileSystemException(e);
+		}
+		finally {
+			if (in != null) {
+				try {
+					in.close();
+				}
+				catch (IOException e) {
+					//ignore
+				}
+			}
+			if (pipe != null) {
+				pipe.abort();
+			}
+		}
+	}
+
+	private long transfer(File srcFile, FileObject dest, File destFile, Stats stats) throws FileSystemException {
+		long start = System.nanoTime();
+		FileObject parent = dest.getParent();
+		if (parent != null && !parent.exists()) {
+			parent.createFolder();
+		}
+
+		FileInputStream in = null;
+		FileOutputStream out = null;
+		long position = 0;
+		try {
+			in = new FileInputStream(srcFile);
+			out = new FileOutputStream(destFile);
+			FileChannel srcChannel = in.getChannel();
+			FileChannel destChannel = out.getChannel();
+			long size = srcChannel.size();
+			while (position < size) {
+				long transferred = srcChannel.transferTo(position, Math.min(size - position, TRANSFER_SIZE), destChannel);
+				if (transferred <= 0) {
+					//the source became shorter
+					break;
+				}
+				position += transferred;
+			}
+			out.close();
+			out = null;
+		}
+		catch (IOException e) {
+			throw new FileSystemException(e);
+		}
+		finally {
+			if (in != null) {
+				try {
+					in.close();
+				}
+				catch (IOException e) {
+					//ignore
+				}
+			}
+			if (out != null) {
+				try {
+					out.close();
+				}
+				catch (IOException e) {
+					//ignore
+				}
+			}
+			//the file was written behind the back of the file system
+			dest.refresh();
+		}
+
+		if (stats != null) {
+			stats.add(position, System.nanoTime() - start, 0, 0);
+		}
+		return position;
+	}
+
+	/**
+	 * Copies a number of bytes from an input stream to an output stream; both
+	 * streams are left open
+	 * @param in
+	 * @param out
+	 * @param length the number of bytes to copy or -1 to copy up to the end
+	 * @param stats counts the copy, can be null
+	 * @return the number of bytes copied
+	 * @throws IOException also when the input stream ends before length bytes
+	 */
+	public long copy(InputStream in, OutputStream out, long length, Stats stats) throws IOException {
+		Pipe pipe = new Pipe(out, stats);
+		pipe.closeTarget = false;
+		try {
+			long size = pipe.transferFrom(in, length);
+			pipe.close();
+			return size;
+		}
+		finally {
+			pipe.abort();
+		}
+	}
+
+	/**
+	 * Puts a ring of buffers in front of an output stream: the written data is
+	 * passed to the stream by the writer thread. Closing the returned stream
+	 * waits until all data has been written and closes the given stream; a
+	 * failure of the writer thread is thrown by the next write or by the close.
+	 * @param out
+	 * @param stats counts the stream as a copy, can be null
+	 * @return the buffered stream
+	 */
+	public OutputStream pipe(OutputStream out, Stats stats) {
+		return new Pipe(out, stats);
+	}
+
+	/**
+	 * Stops the writer threads
+	 */
+	public void close() {
+		this.writers.shutdown();
+	}
+
+	private byte[] borrow() {
+		synchronized (this.pool) {
+			if (!this.pool.isEmpty()) {
+				return (byte[]) this.pool.removeFirst();
+			}
+		}
+		return new byte[this.bufferSize];
+	}
+
+	private void release(byte[] buffer) {
+		synchronized (this.pool) {
+			if (buffer.length == this.bufferSize && this.pool.size() < 4 * this.bufferCount) {
+				this.pool.addLast(buffer);
+			}
+		}
+	}
+
+	/**
+	 * The ring of a single copy: the calling thread fills the buffers and hands
+	 * them to the writer thread, which hands them back once they are written
+	 */
+	private class Pipe extends OutputStream implements Runnable {
+		private OutputStream out;
+		private Stats stats;
+		private boolean closeTarget = true;
+		private MessageDigest digest = null;
+		private int capacity = bufferCount;
+		private LinkedList spare = new LinkedList();
+		private BlockingQueue filled = new ArrayBlockingQueue(capacity + 1);
+		private BlockingQueue written = new ArrayBlockingQueue(capacity);
+		private CountDownLatch done = new CountDownLatch(1);
+		private volatile Throwable failure = null;
+
+		private byte[] current = null;
+		private int length = 0;
+		private int owned = 0;
+		private int handedOff = 0;
+		private int returned = 0;
+		private boolean started = false;
+		private boolean closed = false;
+
+		private long bytes = 0;
+		private long start = System.nanoTime();
+		private long lastWrite = this.start;
+		private long readTime = 0;
+		private long writeTime = 0;
+
+		private Pipe(OutputStream out, Stats stats) {
+			this.out = out;
+			this.stats = stats;
+		}
+
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			//the time between the writes is spent producing the data
+			this.readTime += System.nanoTime() - this.lastWrite;
+			checkFailure();
+			while (len > 0) {
+				if (this.current == null) {
+					this.current = nextBuffer();
+				}
+				int chunk = Math.min(len, this.current.length - this.length);
+				System.arraycopy(b, off, this.current, this.length, chunk);
+				this.length += chunk;
+				this.bytes += chunk;
+				off += chunk;
+				len -= chunk;
+				if (this.length == this.current.length) {
+					handOff();
+				}
+			}
+			this.lastWrite = System.nanoTime();
+		}
+
+		private long transferFrom(InputStream in, long max) throws IOException {
+			long total = 0;
+			while (max < 0 || total < max) {
+				if (this.current == null) {
+					this.current = nextBuffer();
+				}
+				int len = this.current.length - this.length;
+				if (max >= 0) {
+					len = (int) Math.min(len, max - total);
+				}
+				long readStart = System.nanoTime();
+				int read = in.read(this.current, this.length, len);
+				this.readTime += System.nanoTime() - readStart;
+				if (read < 0) {
+					if (max >= 0) {
+						throw new EOFException("End of stream reached after " + total + " of " + max + " bytes");
+					}
+					break;
+				}
+				if (this.digest != null) {
+					this.digest.update(this.current, this.length, read);
+				}
+				this.length += read;
+				this.bytes += read;
+				total += read;
+				if (this.length == this.current.length) {
+					handOff();
+				}
+			}
+			this.lastWrite = System.nanoTime();
+			return total;
+		}
+
+		/**
+		 * Writes the buffered data and waits until the writer thread is idle
+		 */
+		public void flush() throws IOException {
+			checkFailure();
+			if (this.length > 0) {
+				handOff();
+			}
+			if (this.started) {
+				while (this.returned < this.handedOff) {
+					this.spare.add(takeWritten());
+				}
+			}
+			checkFailure();
+			this.out.flush();
+		}
+
+		public void close() throws IOException {
+			if (this.closed) {
+				return;
+			}
+			try {
+				if (!this.started) {
+					//everything fits in one buffer
+					if (this.length > 0) {
+						long writeStart = System.nanoTime();
+						this.out.write(this.current, 0, this.length);
+						this.writeTime += System.nanoTime() - writeStart;
+					}
+				}
+				else {
+					if (this.length > 0) {
+						handOff();
+					}
+					finish();
+				}
+				checkFailure();
+				if (this.closeTarget) {
+					this.closeTarget = false;
+					this.out.close();
+				}
+				if (this.stats != null) {
+					this.stats.add(this.bytes, System.nanoTime() - this.start, this.readTime, this.writeTime);
+				}
+			}
+			finally {
+				abort();
+			}
+		}
+
+		/**
+		 * Stops the writer thread, closes the target and releases the buffers
+		 * without further writing, if the pipe was not closed yet
+		 */
+		private void abort() {
+			if (this.closed) {
+				return;
+			}
+			this.closed = true;
+			if (this.failure == null) {
+				this.failure = new IOException("The copy was aborted");
+			}
+			finish();
+			if (this.closeTarget) {
+				try {
+					this.out.close();
+				}
+				catch (IOException e) {
+					//ignore
+				}
+			}
+			if (this.current != null) {
+				release(this.current);
+				this.current = null;
+			}
+			while (!this.spare.isEmpty()) {
+				release((byte[]) this.spare.removeFirst());
+			}
+			byte[] buffer;
+			while ((buffer = (byte[]) this.written.poll()) != null) {
+				release(buffer);
+			}
+		}
+
+		private void finish() {
+			if (!this.started) {
+				return;
+			}
+			this.started = false;
+			boolean interrupted = false;
+			while (true) {
+				try {
+					this.filled.put(END);
+					break;
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			while (true) {
+				try {
+					this.done.await();
+					break;
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private byte[] nextBuffer() throws IOException {
+			if (!this.spare.isEmpty()) {
+				return (byte[]) this.spare.removeFirst();
+			}
+			byte[] buffer = (byte[]) this.written.poll();
+			if (buffer != null) {
+				this.returned++;
+				return buffer;
+			}
+			if (this.owned < this.capacity) {
+				this.owned++;
+				return borrow();
+			}
+			return takeWritten();
+		}
+
+		private byte[] takeWritten() throws IOException {
+			try {
+				byte[] buffer;
+				while ((buffer = (byte[]) this.written.poll(100, TimeUnit.MILLISECONDS)) == null) {
+					if (this.done.getCount() == 0) {
+						checkFailure();
+						throw new IOException("The writer stopped");
+					}
+				}
+				this.returned++;
+				return buffer;
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+
+		private void handOff() throws IOException {
+			if (!this.started) {
+				this.started = true;
+				writers.execute(this);
+			}
+			try {
+				this.filled.put(new Block(this.current, this.length));
+				this.handedOff++;
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+			this.current = null;
+			this.length = 0;
+			checkFailure();
+		}
+
+		private void checkFailure() throws IOException {
+			Throwable t = this.failure;
+			if (t instanceof IOException) {
+				throw (IOException) t;
+			}
+			else if (t != null) {
+				IOException e = new IOException(t.getMessage());
+				e.initCause(t);
+				throw e;
+			}
+		}
+
+		/**
+		 * Writes the blocks until the end; after a failure the remaining
+		 * blocks are only handed back
+		 */
+		public void run() {
+			try {
+				while (true) {
+					Block block = (Block) this.filled.take();
+					if (block == END) {
+						break;
+					}
+					if (this.failure == null) {
+						try {
+							long writeStart = System.nanoTime();
+							this.out.write(block.data, 0, block.length);
+							this.writeTime += System.nanoTime() - writeStart;
+						}
+						catch (Throwable t) {
+							this.failure = t;
+						}
+					}
+					this.written.put(block.data);
+				}
+			}
+			catch (InterruptedException e) {
+				this.failure = e;
+			}
+			finally {
+				this.done.countDown();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,475 @@
+package org.vfsutils.copy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.vfs2.Capability;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileType;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+import org.vfsutils.digest.DigestEngine;
+
+/**
+ * Copies a large file as a number of byte ranges that are copied concurrently,
+ * for file systems where a single stream does not use the available bandwidth.
+ * The source has to support random access reads. When the destination supports
+ * random access writes every range is written in place; otherwise every thread
+ * writes its range to a part file next to the destination and the parts are
+ * concatenated into the destination afterwards. The part files get a random
+ * name that did not exist yet, so no other file is overwritten or removed.
+ * <p>
+ * The digest of every range is calculated while it is read from the source and
+ * compared with the digest of what was written; a range that fails or differs
+ * is copied again, up to the number of retries. With part files the destination
+ * is verified once more after the concatenation.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class RangedCopier {
+
+	/**
+	 * A range of the source and where it is written
+	 */
+	private static class Range {
+		private int index;
+		private long offset;
+		private long length;
+		private FileObject part;
+		private byte[] digest;
+	}
+
+	private static final Random RANDOM = new Random();
+
+	private int parallelism = 4;
+	private long rangeSize = 64L * 1024 * 1024;
+	private long threshold = 256L * 1024 * 1024;
+	private int retries = 2;
+	private int bufferSize = 256 * 1024;
+	private String algorithm = DigestEngine.MD5;
+	private boolean partFiles = false;
+	private DigestEngine digestEngine = new DigestEngine();
+
+	/**
+	 * @param parallelism the default number of ranges that are copied at the same time
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("The parallelism must be at least 1");
+		}
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @param rangeSize the size of the ranges that are written in place; with
+	 * part files there is one range per thread
+	 */
+	public void setRangeSize(long rangeSize) {
+		if (rangeSize < 1) {
+			throw new IllegalArgumentException("The range size must be at least 1");
+		}
+		this.rangeSize = rangeSize;
+	}
+
+	/**
+	 * @param threshold the minimum size of a file to be copied in ranges
+	 */
+	public void setThreshold(long threshold) {
+		this.threshold = threshold;
+	}
+
+	public long getThreshold() {
+		return this.threshold;
+	}
+
+	/**
+	 * @param retries the number of times a range is copied again after a failure
+	 */
+	public void setRetries(int retries) {
+		this.retries = retries;
+	}
+
+	/**
+	 * @param partFiles whether to use part files also for destinations that
+	 * support random access writes
+	 */
+	public void setPartFiles(boolean partFiles) {
+		this.partFiles = partFiles;
+	}
+
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * @param algorithm the digest algorithm that verifies the ranges
+	 * @throws FileSystemException if the algorithm is not supported
+	 */
+	public void setAlgorithm(String algorithm) throws FileSystemException {
+		this.digestEngine.createDigest(algorithm);
+		this.algorithm = algorithm;
+	}
+
+	/**
+	 * Checks whether the file can and should be copied in ranges
+	 * @param src
+	 * @return true if the source is a file of at least the threshold size on a
+	 * file system that supports random access reads
+	 * @throws FileSystemException
+	 */
+	public boolean canCopy(FileObject src) throws FileSystemException {
+		return src.getType().equals(FileType.FILE)
+			&& src.getFileSystem().hasCapability(Capability.RANDOM_ACCESS_READ)
+			&& src.getContent().getSize() >= this.threshold;
+	}
+
+	/**
+	 * Copies the source to the destination with the default parallelism
+	 * @param src
+	 * @param dest
+	 * @return the number of ranges
+	 * @throws FileSystemException
+	 */
+	public int copy(FileObject src, FileObject dest) throws FileSystemException {
+		return copy(src, dest, this.parallelism);
+	}
+
+	/**
+	 * Copies the source to the destination
+	 * @param src a file on a file system that supports random access reads
+	 * @param dest
+	 * @param parallelism the number of ranges that are copied at the same time
+	 * @return the number of ranges
+	 * @throws FileSystemException if a range can not be copied within the retries,
+	 * if the destination does not match the source or if the source changed
+	 */
+	public int copy(FileObject src, FileObject dest, int parallelism) throws FileSystemException {
+		long size = src.getContent().getSize();
+		long lastModified = getLastModified(src);
+		boolean inPlace = !this.partFiles && dest.getFileSystem().hasCapability(Capability.RANDOM_ACCESS_WRITE);
+
+		long length = (inPlace ? this.rangeSize : Math.max((size + parallelism - 1) / parallelism, 1));
+		List ranges = new ArrayList();
+		for (long offset = 0; offset < size || ranges.isEmpty(); offset += length) {
+			Range range = new Range();
+			range.index = ranges.size();
+			range.offset = offset;
+			range.length = Math.min(length, size - offset);
+			ranges.add(range);
+		}
+		if (!inPlace) {
+			resolveParts(dest, ranges);
+		}
+
+		try {
+			if (inPlace) {
+				//create or truncate the destination
+				dest.getContent().getOutputStream().close();
+			}
+			copyRanges(src, dest, ranges, parallelism);
+
+			if (size != src.getContent().getSize() || lastModified != getLastModified(src)) {
+				throw new FileSystemException(new IOException("The source changed while it was copied"));
+			}
+			if (!inPlace) {
+				concatenate(dest, ranges);
+				verify(dest, ranges);
+			}
+		}
+		catch (IOException e) {
+			throw toFileSystemException(e);
+		}
+		finally {
+			if (!inPlace) {
+				for (int i=0; i<ranges.size(); i++) {
+					((Range) ranges.get(i)).part.delete();
+				}
+			}
+			dest.refresh();
+		}
+		return ranges.size();
+	}
+
+	/**
+	 * Chooses part files next to the destination that do not exist yet
+	 */
+	private void resolveParts(FileObject dest, List ranges) throws FileSystemException {
+		for (int attempt = 0; ; attempt++) {
+			String prefix = dest.getName().getBaseName() + "." + Integer.toHexString(RANDOM.nextInt() & 0x7FFFFFFF) + ".part";
+			boolean exists = false;
+			for (int i=0; i<ranges.size() && !exists; i++) {
+				Range range = (Range) ranges.get(i);
+				range.part = dest.getParent().resolveFile(prefix + range.index);
+				exists = range.part.exists();
+			}
+			if (!exists) {
+				return;
+			}
+			if (attempt >= 10) {
+				throw new FileSystemException(new IOException("Could not find unused names for the part files of " + dest.getName()));
+			}
+		}
+	}
+
+	private void copyRanges(final FileObject src, final FileObject dest, List ranges, int parallelism) throws IOException {
+		ExecutorService workers = Executors.newFixedThreadPool(Math.min(parallelism, ranges.size()), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ranged-copy-worker");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			List futures = new ArrayList();
+			for (int i=0; i<ranges.size(); i++) {
+				final Range range = (Range) ranges.get(i);
+				futures.add(workers.submit(new Callable() {
+					public Object call() throws Exception {
+						copyRange(src, dest, range);
+						return null;
+					}
+				}));
+			}
+			for (int i=0; i<futures.size(); i++) {
+				try {
+					((Future) futures.get(i)).get();
+				}
+				catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof IOException) {
+						throw (IOException) cause;
+					}
+					throw new FileSystemException(cause);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new FileSystemException(e);
+				}
+			}
+		}
+		finally {
+			workers.shutdownNow();
+		}
+	}
+
+	/**
+	 * Copies and verifies a range, again after a failure
+	 */
+	private void copyRange(FileObject src, FileObject dest, Range range) throws IOException {
+		for (int attempt = 0; ; attempt++) {
+			try {
+				FileObject target = (range.part == null ? dest : range.part);
+				long targetOffset = (range.part == null ? range.offset : 0);
+				range.digest = write(src, range, target, targetOffset);
+				if (!Arrays.equals(range.digest, read(target, targetOffset, range.length))) {
+					throw new IOException("Range " + range.index + " of " + dest.getName().getBaseName() + " differs after the copy");
+				}
+				return;
+			}
+			catch (IOException e) {
+				if (attempt >= this.retries || Thread.currentThread().isInterrupted()) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copies a range of the source to the target
+	 * @return the digest of the range
+	 */
+	private byte[] write(FileObject src, Range range, FileObject target, long targetOffset) throws IOException {
+		MessageDigest digest = this.digestEngine.createDigest(this.algorithm);
+		byte[] buffer = new byte[this.bufferSize];
+		RandomAccessContent in = null;
+		RandomAccessContent rac = null;
+		OutputStream out = null;
+		try {
+			in = src.getContent().getRandomAccessContent(RandomAccessMode.READ);
+			in.seek(range.offset);
+			if (range.part == null) {
+				rac = target.getContent().getRandomAccessContent(RandomAccessMode.READWRITE);
+				rac.seek(targetOffset);
+			}
+			else {
+				out = target.getContent().getOutputStream();
+			}
+
+			long remaining = range.length;
+			while (remaining > 0) {
+				int len = (int) Math.min(remaining, buffer.length);
+				in.readFully(buffer, 0, len);
+				digest.update(buffer, 0, len);
+				if (rac != null) {
+					rac.write(buffer, 0, len);
+				}
+				else {
+					out.write(buffer, 0, len);
+				}
+				remaining -= len;
+			}
+			if (out != null) {
+				out.close();
+				out = null;
+			}
+			if (rac != null) {
+				rac.close();
+				rac = null;
+			}
+		}
+		finally {
+			close(in);
+			close(rac);
+			if (out != null) {
+				try {
+					out.close();
+				}
+				catch (IOException e) {
+					//ignore
+				}
+			}
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * @return the digest of a range of the file as it is stored
+	 */
+	private byte[] read(FileObject file, long offset, long length) throws IOException {
+		file.refresh();
+		MessageDigest digest = this.digestEngine.createDigest(this.algorithm);
+		byte[] buffer = new byte[this.bufferSize];
+		RandomAccessContent rac = null;
+		InputStream in = null;
+		try {
+			if (offset > 0) {
+				rac = file.getContent().getRandomAccessContent(RandomAccessMode.READ);
+				rac.seek(offset);
+				in = rac.getInputStream();
+			}
+			else {
+				in = file.getContent().getInputStream();
+			}
+			update(in, length, digest, buffer);
+		}
+		finally {
+			if (in != null) {
+				try {
+					in.close();
+				}
+				catch (IOException e) {
+					//ignore
+				}
+			}
+			close(rac);
+		}
+		return digest.digest();
+	}
+
+	private void update(InputStream in, long length, MessageDigest digest, byte[] buffer) throws IOException {
+		while (length > 0) {
+			int read = in.read(buffer, 0, (int) Math.min(length, buffer.length));
+			if (read < 0) {
+				throw new IOException("The copy is shorter than the source");
+			}
+			digest.update(buffer, 0, read);
+			length -= read;
+		}
+	}
+
+	private void concatenate(FileObject dest, List ranges) throws IOException {
+		byte[] buffer = new byte[this.bufferSize];
+		OutputStream out = dest.getContent().getOutputStream();
+		try {
+			for (int i=0; i<ranges.size(); i++) {
+				InputStream in = ((Range) ranges.get(i)).part.getContent().getInputStream();
+				try {
+					int read;
+					while ((read = in.read(buffer)) >= 0) {
+						out.write(buffer, 0, read);
+					}
+				}
+				finally {
+					in.close();
+				}
+			}
+			out.close();
+			out = null;
+		}
+		finally {
+			if (out != null) {
+				try {
+					out.close();
+				}
+				catch (IOException e) {
+					//ignore
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the concatenated destination and compares every range with the
+	 * digest of the source
+	 */
+	private void verify(FileObject dest, List ranges) throws IOException {
+		dest.refresh();
+		byte[] buffer = new byte[this.bufferSize];
+		InputStream in = dest.getContent().getInputStream();
+		try {
+			for (int i=0; i<ranges.size(); i++) {
+				Range range = (Range) ranges.get(i);
+				MessageDigest digest = this.digestEngine.createDigest(this.algorithm);
+				update(in, range.length, digest, buffer);
+				if (!Arrays.equals(range.digest, digest.digest())) {
+					throw new IOException("Range " + range.index + " of " + dest.getName().getBaseName() + " differs after the concatenation");
+				}
+			}
+			if (in.read() >= 0) {
+				throw new IOException("The copy is longer than the source");
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private long getLastModified(FileObject file) throws FileSystemException {
+		if (file.getFileSystem().hasCapability(Capability.GET_LAST_MODIFIED)) {
+			return file.getContent().getLastModifiedTime();
+		}
+		return 0;
+	}
+
+	private FileSystemException toFileSystemException(IOException e) {
+		if (e instanceof FileSystemException) {
+			return (FileSystemException) e;
+		}
+		return new FileSystemException(e);
+	}
+
+	private void close(RandomAccessContent rac) {
+		if (rac != null) {
+			try {
+				rac.close();
+			}
+			catch (IOException e) {
+				//ignore
+			}
+		}
+	}
+
+}
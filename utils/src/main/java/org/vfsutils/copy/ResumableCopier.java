@@ -0,0 +1,286 @@
+package org.vfsutils.copy;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import org.apache.commons.vfs2.Capability;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileType;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+import org.vfsutils.VfsUtils;
+
+/**
+ * Copies a file in a way that can be continued after an interruption. While
+ * copying, the destination is flushed every checkpoint size bytes after which
+ * the listener is told how many bytes are confirmed. A later copy can start
+ * at such an offset if the destination supports random access writes or
+ * appending; otherwise it starts from the beginning.
+ * <p>
+ * The caller is responsible for checking that the source did not change
+ * since the offset was confirmed.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class ResumableCopier {
+
+	/**
+	 * Is told about the progress of a copy
+	 */
+	public static interface Listener {
+
+		/**
+		 * @param offset the number of bytes that have been written and flushed
+		 * @throws IOException to abort the copy
+		 */
+		public void confirmed(long offset) throws IOException;
+	}
+
+	private int bufferSize = 64 * 1024;
+	private long checkpointSize = 8L * 1024 * 1024;
+
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * @param checkpointSize the number of bytes between two confirmations
+	 */
+	public void setCheckpointSize(long checkpointSize) {
+		this.checkpointSize = checkpointSize;
+	}
+
+	public long getCheckpointSize() {
+		return this.checkpointSize;
+	}
+
+	/**
+	 * Checks whether a copy to the destination can start at the given offset
+	 * @param dest
+	 * @param offset
+	 * @return true if the destination is a file of at least offset bytes
+	 * that can be written from the offset on
+	 * @throws FileSystemException
+	 */
+	public boolean canResume(FileObject dest, long offset) throws FileSystemException {
+		if (offset <= 0 || !dest.getType().equals(FileType.FILE)) {
+			return false;
+		}
+		long size = dest.getContent().getSize();
+		if (size < offset) {
+			return false;
+		}
+		if (VfsUtils.toLocalFile(dest) != null
+				|| dest.getFileSystem().hasCapability(Capability.RANDOM_ACCESS_WRITE)) {
+			return true;
+		}
+		return size == offset && dest.getFileSystem().hasCapability(Capability.APPEND_CONTENT);
+	}
+
+	/**
+	 * Copies the source to the destination starting at the given offset
+	 * @param src
+	 * @param dest
+	 * @param offset the offset to start at, 0 or an offset that was confirmed before
+	 * @param listener is told about the progress, can be null
+	 * @return the offset the copy started at, which is 0 if the copy could not
+	 * be resumed at the given offset
+	 * @throws FileSystemException
+	 */
+	public long copy(FileObject src, FileObject dest, long offset, Listener listener) throws FileSystemException {
+		if (!canResume(dest, offset)) {
+			offset = 0;
+		}
+
+		InputStream in = null;
+		OutputStream out = null;
+		try {
+			in = openInputStream(src, offset);
+			out = openOutputStream(dest, offset);
+
+			byte[] buffer = new byte[this.bufferSize];
+			long pos = offset;
+			long unconfirmed = 0;
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				out.write(buffer, 0, read);
+				pos += read;
+				unconfirmed += read;
+				if (unconfirmed >= this.checkpointSize) {
+					out.flush();
+					unconfirmed = 0;
+					if (listener != null) {
+						listener.confirmed(pos);
+					}
+				}
+			}
+			out.close();
+			out = null;
+		}
+		catch (IOException e) {
+			throw new FileSystemException(e);
+		}
+		finally {
+			close(in, out);
+		}
+		return offset;
+	}
+
+	/**
+	 * Compares the bytes before the offset in the source and the destination,
+	 * to detect a destination that is not the start of the source
+	 * @param src
+	 * @param dest
+	 * @param offset the offset a copy would resume at
+	 * @param length the number of bytes before the offset to compare
+	 * @return true if the bytes are the same
+	 * @throws FileSystemException
+	 */
+	public boolean matchesBefore(FileObject src, FileObject dest, long offset, long length) throws FileSystemException {
+		long start = Math.max(0, offset - length);
+		InputStream srcIn = null;
+		InputStream destIn = null;
+		try {
+			srcIn = openInputStream(src, start);
+			destIn = openInputStream(dest, start);
+			byte[] srcBuffer = new byte[this.bufferSize];
+			byte[] destBuffer = new byte[this.bufferSize];
+			long remaining = offset - start;
+			while (remaining > 0) {
+				int len = (int) Math.min(remaining, this.bufferSize);
+				if (!readFully(srcIn, srcBuffer, len) || !readFully(destIn, destBuffer, len)) {
+					return false;
+				}
+				for (int i=0; i<len; i++) {
+					if (srcBuffer[i] != destBuffer[i]) {
+						return false;
+					}
+				}
+				remaining -= len;
+			}
+			return true;
+		}
+		catch (IOException e) {
+			throw new FileSystemException(e);
+		}
+		finally {
+			close(srcIn, null);
+			close(destIn, null);
+		}
+	}
+
+	private boolean readFully(InputStream in, byte[] buffer, int len) throws IOException {
+		int offset = 0;
+		while (offset < len) {
+			int read = in.read(buffer, offset, len - offset);
+			if (read < 0) {
+				return false;
+			}
+			offset += read;
+		}
+		return true;
+	}
+
+	private InputStream openInputStream(FileObject file, long offset) throws IOException {
+		if (offset > 0 && file.getFileSystem().hasCapability(Capability.RANDOM_ACCESS_READ)) {
+			final RandomAccessContent rac = file.getContent().getRandomAccessContent(RandomAccessMode.READ);
+			rac.seek(offset);
+			return new FilterInputStream(rac.getInputStream()) {
+				public void close() throws IOException {
+					try {
+						super.close();
+					}
+					finally {
+						rac.close();
+					}
+				}
+			};
+		}
+		InputStream in = file.getContent().getInputStream();
+		try {
+			skipFully(in, offset);
+		}
+		catch (IOException e) {
+			in.close();
+			throw e;
+		}
+		return in;
+	}
+
+	private OutputStream openOutputStream(FileObject dest, long offset) throws IOException {
+		if (offset == 0) {
+			return dest.getContent().getOutputStream();
+		}
+
+		File localFile = VfsUtils.toLocalFile(dest);
+		if (localFile != null) {
+			//drop what was written after the last confirmation
+			RandomAccessFile raf = new RandomAccessFile(localFile, "rw");
+			try {
+				raf.setLength(offset);
+			}
+			finally {
+				raf.close();
+			}
+			dest.refresh();
+			return dest.getContent().getOutputStream(true);
+		}
+
+		if (dest.getFileSystem().hasCapability(Capability.RANDOM_ACCESS_WRITE)) {
+			//the rest of the source overwrites what was written after the last confirmation
+			final RandomAccessContent rac = dest.getContent().getRandomAccessContent(RandomAccessMode.READWRITE);
+			rac.seek(offset);
+			return new OutputStream() {
+				public void write(int b) throws IOException {
+					rac.write(b);
+				}
+				public void write(byte[] b, int off, int len) throws IOException {
+					rac.write(b, off, len);
+				}
+				public void close() throws IOException {
+					rac.close();
+				}
+			};
+		}
+
+		return dest.getContent().getOutputStream(true);
+	}
+
+	private void skipFully(InputStream in, long n) throws IOException {
+		while (n > 0) {
+			long skipped = in.skip(n);
+			if (skipped <= 0) {
+				if (in.read() < 0) {
+					throw new IOException("The source is shorter than the offset");
+				}
+				skipped = 1;
+			}
+			n -= skipped;
+		}
+	}
+
+	private void close(InputStream in, OutputStream out) {
+		if (in != null) {
+			try {
+				in.close();
+			}
+			catch (IOException e) {
+				//ignore
+			}
+		}
+		if (out != null) {
+			try {
+				out.close();
+			}
+			catch (IOException e) {
+				//ignore
+			}
+		}
+	}
+
+}
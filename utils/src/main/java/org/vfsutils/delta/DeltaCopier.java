@@ -0,0 +1,192 @@
+package org.vfsutils.delta;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import org.apache.commons.vfs2.Capability;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileType;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+import org.vfsutils.VfsUtils;
+
+/**
+ * Updates an existing file in place so that it equals the source, writing
+ * only the blocks that differ. The source is read as a stream and compared
+ * block by block with the destination at the same positions; unchanged blocks
+ * are not written, which saves writes on appended or partially modified files
+ * and keeps copy-on-write snapshots of the destination small.
+ * <p>
+ * This saves writes only, not bandwidth: both files are read completely, and
+ * as blocks are only compared at the same position, data that moved, e.g.
+ * after an insertion, is rewritten from the point where it moved.
+ * The destination must support {@link Capability#RANDOM_ACCESS_WRITE}.
+ * Only local files can be shortened; for other file systems a source that is
+ * smaller than the destination is not supported.
+ * <p>
+ * Note that an interrupted update leaves a partially updated file.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class DeltaCopier {
+
+	/**
+	 * The counts of the last update
+	 */
+	public static class Stats {
+		public long blocks = 0;
+		public long changedBlocks = 0;
+		public long bytesWritten = 0;
+
+		public String toString() {
+			return "rewrote " + changedBlocks + " of " + blocks + " block(s), " + bytesWritten + " bytes";
+		}
+	}
+
+	private int blockSize = 64 * 1024;
+
+	public int getBlockSize() {
+		return this.blockSize;
+	}
+
+	public void setBlockSize(int blockSize) {
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("The block size must be at least 1");
+		}
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Checks whether the destination can be updated in place
+	 * @param src the source file
+	 * @param dest the destination
+	 * @return false if the destination does not exist, is not a file or
+	 * does not support random access writes
+	 * @throws FileSystemException
+	 */
+	public boolean canUpdate(FileObject src, FileObject dest) throws FileSystemException {
+		if (!dest.getType().equals(FileType.FILE) || !dest.isWriteable()
+				|| !dest.getFileSystem().hasCapability(Capability.RANDOM_ACCESS_WRITE)) {
+			return false;
+		}
+		return VfsUtils.toLocalFile(dest) != null
+			|| src.getContent().getSize() >= dest.getContent().getSize();
+	}
+
+	/**
+	 * Makes the content of the destination equal to the content of the source
+	 * @param src the source file
+	 * @param dest an existing file for which {@link #canUpdate(FileObject, FileObject)} is true
+	 * @return the counts of the update
+	 * @throws FileSystemException
+	 */
+	public Stats update(FileObject src, FileObject dest) throws FileSystemException {
+		Stats stats = new Stats();
+		long srcSize = src.getContent().getSize();
+
+		InputStream in = null;
+		RandomAccessContent rac = null;
+		try {
+			in = src.getContent().getInputStream();
+			rac = dest.getContent().getRandomAccessContent(RandomAccessMode.READWRITE);
+			long destSize = rac.length();
+
+			byte[] srcBlock = new byte[this.blockSize];
+			byte[] destBlock = new byte[this.blockSize];
+			long pos = 0;
+
+			while (pos < srcSize) {
+				int len = (int) Math.min(this.blockSize, srcSize - pos);
+				readFully(in, srcBlock, len);
+				stats.blocks++;
+
+				boolean same = false;
+				if (pos + len <= destSize) {
+					// the file pointer is at pos: every changed block is written in full
+					rac.readFully(destBlock, 0, len);
+					same = equals(srcBlock, destBlock, len);
+				}
+
+				if (!same) {
+					rac.seek(pos);
+					rac.write(srcBlock, 0, len);
+					stats.changedBlocks++;
+					stats.bytesWritten += len;
+				}
+				pos += len;
+			}
+
+			rac.close();
+			rac = null;
+
+			if (destSize > srcSize) {
+				truncate(dest, srcSize);
+			}
+		}
+		catch (IOException e) {
+			throw new FileSystemException(e);
+		}
+		finally {
+			close(in, rac);
+		}
+		return stats;
+	}
+
+	private void truncate(FileObject dest, long size) throws IOException {
+		File localFile = VfsUtils.toLocalFile(dest);
+		if (localFile == null) {
+			throw new IOException("The destination can not be truncated");
+		}
+		RandomAccessFile raf = new RandomAccessFile(localFile, "rw");
+		try {
+			raf.setLength(size);
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	private void readFully(InputStream in, byte[] buffer, int len) throws IOException {
+		int offset = 0;
+		while (offset < len) {
+			int read = in.read(buffer, offset, len - offset);
+			if (read < 0) {
+				throw new EOFException("The source file is shorter than its size");
+			}
+			offset += read;
+		}
+	}
+
+	private boolean equals(byte[] a, byte[] b, int len) {
+		for (int i=0; i<len; i++) {
+			if (a[i] != b[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void close(InputStream in, RandomAccessContent rac) {
+		if (in != null) {
+			try {
+				in.close();
+			}
+			catch (IOException e) {
+				//ignore
+			}
+		}
+		if (rac != null) {
+			try {
+				rac.close();
+			}
+			catch (IOException e) {
+				//ignore
+			}
+		}
+	}
+
+}
@@ -0,0 +1,133 @@
+package org.vfsutils.diff;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.vfs2.FileChangeEvent;
+import org.apache.commons.vfs2.FileListener;
+import org.apache.commons.vfs2.FileObject;
+
+/**
+ * Collects the changes reported by a file monitor into a set of dirty files.
+ * Every file occurs only once: a file that is created, changed and deleted
+ * before the set is taken is only reported as deleted. The changes are handed
+ * out in batches once no new change arrived for a quiet period, so a burst of
+ * changes, such as a large copy into the monitored folder, is handled at once.
+ * A maximum latency bounds the wait when the changes keep coming.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class ChangeCollector implements FileListener {
+
+	/**
+	 * A file that was created, changed or deleted
+	 */
+	public static class Change {
+		private FileObject file;
+		private boolean deleted;
+
+		public Change(FileObject file, boolean deleted) {
+			this.file = file;
+			this.deleted = deleted;
+		}
+
+		public FileObject getFile() {
+			return this.file;
+		}
+
+		/**
+		 * @return whether the last event for the file was a delete
+		 */
+		public boolean isDeleted() {
+			return this.deleted;
+		}
+	}
+
+	private Map changes = new TreeMap();
+	private long firstChange = 0;
+	private long lastChange = 0;
+
+	public void fileCreated(FileChangeEvent event) throws Exception {
+		add(event.getFile(), false);
+	}
+
+	public void fileChanged(FileChangeEvent event) throws Exception {
+		add(event.getFile(), false);
+	}
+
+	public void fileDeleted(FileChangeEvent event) throws Exception {
+		add(event.getFile(), true);
+	}
+
+	private synchronized void add(FileObject file, boolean deleted) {
+		this.lastChange = System.currentTimeMillis();
+		if (this.changes.isEmpty()) {
+			this.firstChange = this.lastChange;
+		}
+		this.changes.put(file.getName(), new Change(file, deleted));
+		notifyAll();
+	}
+
+	/**
+	 * @return the number of changes that were not taken yet
+	 */
+	public synchronized int size() {
+		return this.changes.size();
+	}
+
+	/**
+	 * Waits for changes and takes them once no new change arrived for the
+	 * quiet period
+	 * @param quietPeriod the number of milliseconds without changes
+	 * @param timeout the maximum number of milliseconds to wait for a first
+	 * change, 0 to wait without limit
+	 * @return the changes ordered by name, so that a folder comes before its
+	 * children; empty if the timeout expired
+	 * @throws InterruptedException
+	 */
+	public List take(long quietPeriod, long timeout) throws InterruptedException {
+		return take(quietPeriod, 0, timeout);
+	}
+
+	/**
+	 * Waits for changes and takes them once no new change arrived for the
+	 * quiet period, or once the first change is maxLatency milliseconds old
+	 * @param quietPeriod the number of milliseconds without changes
+	 * @param maxLatency the maximum number of milliseconds the first change
+	 * waits, 0 to wait without limit
+	 * @param timeout the maximum number of milliseconds to wait for a first
+	 * change, 0 to wait without limit
+	 * @return the changes ordered by name, so that a folder comes before its
+	 * children; empty if the timeout expired
+	 * @throws InterruptedException
+	 */
+	public synchronized List take(long quietPeriod, long maxLatency, long timeout) throws InterruptedException {
+		long end = (timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE);
+		while (this.changes.isEmpty()) {
+			long remaining = end - System.currentTimeMillis();
+			if (remaining <= 0) {
+				return new ArrayList();
+			}
+			wait(timeout > 0 ? remaining : 0);
+		}
+
+		long quiet;
+		while ((quiet = this.lastChange + quietPeriod - System.currentTimeMillis()) > 0) {
+			if (maxLatency > 0) {
+				long latency = this.firstChange + maxLatency - System.currentTimeMillis();
+				if (latency <= 0) {
+					break;
+				}
+				quiet = Math.min(quiet, latency);
+			}
+			wait(quiet);
+		}
+
+		List result = new ArrayList(this.changes.values());
+		this.changes.clear();
+		return result;
+	}
+
+}
@@ -0,0 +1,72 @@
+package org.vfsutils.diff;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileType;
+
+/**
+ * A difference between a source and a destination folder, as produced by
+ * {@link DirectoryDiff}.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class DiffEvent {
+
+	/**
+	 * The child only exists in the source; the destination is imaginary
+	 */
+	public static final int ADDED = 0;
+
+	/**
+	 * The child only exists in the destination; there is no source
+	 */
+	public static final int REMOVED = 1;
+
+	/**
+	 * The child exists on both sides with the same type; whether the content
+	 * changed is up to the consumer to decide
+	 */
+	public static final int MATCHED = 2;
+
+	/**
+	 * The child exists on both sides but one is a file and the other a folder
+	 */
+	public static final int TYPE_CONFLICT = 3;
+
+	private int type;
+	private FileObject src;
+	private FileObject dest;
+	private FileType destType;
+
+	public DiffEvent(int type, FileObject src, FileObject dest, FileType destType) {
+		this.type = type;
+		this.src = src;
+		this.dest = dest;
+		this.destType = destType;
+	}
+
+	public int getType() {
+		return this.type;
+	}
+
+	/**
+	 * @return the source child, null for REMOVED
+	 */
+	public FileObject getSrc() {
+		return this.src;
+	}
+
+	/**
+	 * @return the destination child, imaginary for ADDED
+	 */
+	public FileObject getDest() {
+		return this.dest;
+	}
+
+	/**
+	 * @return the type of the destination child as it was listed, IMAGINARY for ADDED
+	 */
+	public FileType getDestType() {
+		return this.destType;
+	}
+
+}
@@ -0,0 +1,156 @@
+package org.vfsutils.diff;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileType;
+import org.apache.commons.vfs2.NameScope;
+
+/**
+ * Compares the children of a source and a destination folder by sorting
+ * both listings on base name and merge-joining them, which takes O(n log n)
+ * instead of looking up every source child in the destination listing.
+ * The differences are returned one by one by {@link #next()}; references to
+ * children that have been returned are released so that a consumer that
+ * descends into sub folders only keeps the listings of the folders on the
+ * current path in memory.
+ * <p>
+ * Consumers typically descend by creating a new DirectoryDiff for every
+ * MATCHED or ADDED pair of folders. The destination listing can also be
+ * taken from an earlier recording, e.g. a {@link Snapshot}, in which case
+ * the destination is not accessed at all.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class DirectoryDiff {
+
+	private static final Comparator BY_BASE_NAME = new Comparator() {
+		public int compare(Object o1, Object o2) {
+			return ((FileObject) o1).getName().getBaseName().compareTo(((FileObject) o2).getName().getBaseName());
+		}
+	};
+
+	private FileObject destDir;
+	private FileObject[] srcChildren;
+	private FileObject[] destChildren;
+	private FileType[] destTypes;
+	private int srcIndex = 0;
+	private int destIndex = 0;
+
+	/**
+	 * Lists the children of both folders. When the destination does not exist
+	 * all source children are ADDED.
+	 * @param srcDir an existing folder
+	 * @param destDir a folder, can be imaginary
+	 * @throws FileSystemException
+	 */
+	public DirectoryDiff(FileObject srcDir, FileObject destDir) throws FileSystemException {
+		this(srcDir, destDir, destDir.exists());
+	}
+
+	/**
+	 * Lists the children of the source and, when asked, of the destination
+	 * @param srcDir an existing folder
+	 * @param destDir a folder, can be imaginary
+	 * @param listDest false if the destination is known to be empty or missing,
+	 * which saves a listing
+	 * @throws FileSystemException
+	 */
+	public DirectoryDiff(FileObject srcDir, FileObject destDir, boolean listDest) throws FileSystemException {
+		this.destDir = destDir;
+		this.srcChildren = sort(srcDir.getChildren());
+		this.destChildren = (listDest ? sort(destDir.getChildren()) : new FileObject[0]);
+		this.destTypes = new FileType[this.destChildren.length];
+		for (int i=0; i<this.destChildren.length; i++) {
+			this.destTypes[i] = this.destChildren[i].getType();
+		}
+	}
+
+	/**
+	 * Lists the children of the source; the children of the destination are
+	 * given and only resolved, not accessed
+	 * @param srcDir an existing folder
+	 * @param destDir a folder, can be imaginary
+	 * @param destNames the base names of the children of the destination
+	 * @param destTypes the types of the children of the destination
+	 * @throws FileSystemException
+	 */
+	public DirectoryDiff(FileObject srcDir, FileObject destDir, String[] destNames, FileType[] destTypes) throws FileSystemException {
+		this.destDir = destDir;
+		this.srcChildren = sort(srcDir.getChildren());
+
+		Integer[] order = new Integer[destNames.length];
+		for (int i=0; i<order.length; i++) {
+			order[i] = new Integer(i);
+		}
+		final String[] names = destNames;
+		Arrays.sort(order, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				return names[((Integer) o1).intValue()].compareTo(names[((Integer) o2).intValue()]);
+			}
+		});
+
+		this.destChildren = new FileObject[order.length];
+		this.destTypes = new FileType[order.length];
+		for (int i=0; i<order.length; i++) {
+			int index = order[i].intValue();
+			this.destChildren[i] = destDir.resolveFile(destNames[index], NameScope.CHILD);
+			this.destTypes[i] = destTypes[index];
+		}
+	}
+
+	/**
+	 * Returns the next difference
+	 * @return the next event or null when both listings are exhausted
+	 * @throws FileSystemException
+	 */
+	public DiffEvent next() throws FileSystemException {
+		boolean hasSrc = srcIndex < srcChildren.length;
+		boolean hasDest = destIndex < destChildren.length;
+
+		if (!hasSrc && !hasDest) {
+			return null;
+		}
+
+		int order;
+		if (!hasDest) {
+			order = -1;
+		}
+		else if (!hasSrc) {
+			order = 1;
+		}
+		else {
+			order = BY_BASE_NAME.compare(srcChildren[srcIndex], destChildren[destIndex]);
+		}
+
+		DiffEvent event;
+		if (order < 0) {
+			FileObject src = srcChildren[srcIndex];
+			FileObject dest = destDir.resolveFile(src.getName().getBaseName(), NameScope.CHILD);
+			event = new DiffEvent(DiffEvent.ADDED, src, dest, FileType.IMAGINARY);
+			srcChildren[srcIndex++] = null;
+		}
+		else if (order > 0) {
+			event = new DiffEvent(DiffEvent.REMOVED, null, destChildren[destIndex], destTypes[destIndex]);
+			destChildren[destIndex++] = null;
+		}
+		else {
+			FileObject src = srcChildren[srcIndex];
+			FileObject dest = destChildren[destIndex];
+			FileType destType = destTypes[destIndex];
+			int type = (src.getType().equals(destType) ? DiffEvent.MATCHED : DiffEvent.TYPE_CONFLICT);
+			event = new DiffEvent(type, src, dest, destType);
+			srcChildren[srcIndex++] = null;
+			destChildren[destIndex++] = null;
+		}
+		return event;
+	}
+
+	private FileObject[] sort(FileObject[] children) {
+		Arrays.sort(children, BY_BASE_NAME);
+		return children;
+	}
+
+}
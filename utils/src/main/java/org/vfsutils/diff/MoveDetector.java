@@ -0,0 +1,249 @@
+package org.vfsutils.diff;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.vfs2.Capability;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileType;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.Selectors;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+import org.vfsutils.digest.DigestEngine;
+
+/**
+ * Finds files that were moved or renamed. The files that are about to be
+ * removed from a destination are registered as candidates; for a file that
+ * is about to be added a candidate with the same size and the same content
+ * fingerprint is looked up, so that it can be moved instead of copied.
+ * <p>
+ * By default the fingerprint is the MD5 of three samples of the file, at the
+ * start, in the middle and at the end, which only reads a small part of
+ * large files. As the samples do not cover the whole file they only select
+ * the candidates; a candidate is only returned when the MD5 of its complete
+ * content matches that of the source as well. When an algorithm is set the
+ * digest of the complete file is used as fingerprint instead. Empty files
+ * are never matched.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class MoveDetector {
+
+	private DigestEngine digestEngine;
+	private String algorithm = null;
+	private int sampleSize = 64 * 1024;
+
+	private Map candidates = new HashMap();
+	private Map fingerprints = new IdentityHashMap();
+	private Map digests = new IdentityHashMap();
+	private int count = 0;
+
+	public MoveDetector(DigestEngine digestEngine) {
+		this.digestEngine = digestEngine;
+	}
+
+	/**
+	 * Uses the digest of the complete file as fingerprint
+	 * @param algorithm the digest algorithm or null to use samples
+	 */
+	public void setAlgorithm(String algorithm) {
+		this.algorithm = algorithm;
+	}
+
+	public void setSampleSize(int sampleSize) {
+		this.sampleSize = sampleSize;
+	}
+
+	/**
+	 * Registers a file or all files of a folder as candidates
+	 * @param removed a file or folder that is about to be removed
+	 * @throws FileSystemException
+	 */
+	public void addRemoved(FileObject removed) throws FileSystemException {
+		if (removed.getType().equals(FileType.FOLDER)) {
+			FileObject[] files = removed.findFiles(Selectors.SELECT_FILES);
+			for (int i=0; i<files.length; i++) {
+				addCandidate(files[i]);
+			}
+		}
+		else {
+			addCandidate(removed);
+		}
+	}
+
+	private void addCandidate(FileObject file) throws FileSystemException {
+		long size = file.getContent().getSize();
+		if (size == 0) {
+			return;
+		}
+		Long key = new Long(size);
+		List list = (List) this.candidates.get(key);
+		if (list == null) {
+			list = new ArrayList();
+			this.candidates.put(key, list);
+		}
+		list.add(file);
+		this.count++;
+	}
+
+	/**
+	 * @return the number of candidates that have not been matched
+	 */
+	public int size() {
+		return this.count;
+	}
+
+	/**
+	 * Looks for a candidate with the same content as the source that can be
+	 * renamed to the destination. A candidate is returned only once.
+	 * @param src the file that is about to be copied
+	 * @param dest the destination it is copied to
+	 * @return the candidate or null
+	 * @throws FileSystemException
+	 */
+	public FileObject findMoved(FileObject src, FileObject dest) throws FileSystemException {
+		List list = (List) this.candidates.get(new Long(src.getContent().getSize()));
+		if (list == null) {
+			return null;
+		}
+
+		BigInteger srcFingerprint = null;
+		BigInteger srcDigest = null;
+		for (int i=0; i<list.size(); i++) {
+			FileObject candidate = (FileObject) list.get(i);
+			if (!candidate.canRenameTo(dest)) {
+				continue;
+			}
+			if (srcFingerprint == null) {
+				srcFingerprint = fingerprint(src);
+			}
+			if (!srcFingerprint.equals(getFingerprint(candidate))) {
+				continue;
+			}
+			if (isSampled(src)) {
+				// the samples match, the complete content has to match as well
+				if (srcDigest == null) {
+					srcDigest = this.digestEngine.calculate(src, DigestEngine.MD5);
+				}
+				if (!srcDigest.equals(getDigest(candidate))) {
+					continue;
+				}
+			}
+			list.remove(i);
+			this.count--;
+			return candidate;
+		}
+		return null;
+	}
+
+	private boolean isSampled(FileObject file) throws FileSystemException {
+		return (this.algorithm == null && file.getContent().getSize() > 3L * this.sampleSize);
+	}
+
+	private BigInteger getDigest(FileObject candidate) throws FileSystemException {
+		BigInteger digest = (BigInteger) this.digests.get(candidate);
+		if (digest == null) {
+			digest = this.digestEngine.calculate(candidate, DigestEngine.MD5);
+			this.digests.put(candidate, digest);
+		}
+		return digest;
+	}
+
+	private BigInteger getFingerprint(FileObject candidate) throws FileSystemException {
+		BigInteger fingerprint = (BigInteger) this.fingerprints.get(candidate);
+		if (fingerprint == null) {
+			fingerprint = fingerprint(candidate);
+			this.fingerprints.put(candidate, fingerprint);
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * Calculates the fingerprint of a file
+	 * @param file
+	 * @return the fingerprint
+	 * @throws FileSystemException
+	 */
+	public BigInteger fingerprint(FileObject file) throws FileSystemException {
+		if (this.algorithm != null) {
+			return this.digestEngine.calculate(file, this.algorithm);
+		}
+
+		if (!isSampled(file)) {
+			return this.digestEngine.calculate(file, DigestEngine.MD5);
+		}
+		long size = file.getContent().getSize();
+
+		long[] offsets = {0, (size - this.sampleSize) / 2, size - this.sampleSize};
+		MessageDigest digest = this.digestEngine.createDigest(DigestEngine.MD5);
+		byte[] buffer = new byte[this.sampleSize];
+		try {
+			if (file.getFileSystem().hasCapability(Capability.RANDOM_ACCESS_READ)) {
+				RandomAccessContent rac = file.getContent().getRandomAccessContent(RandomAccessMode.READ);
+				try {
+					for (int i=0; i<offsets.length; i++) {
+						rac.seek(offsets[i]);
+						rac.readFully(buffer);
+						digest.update(buffer);
+					}
+				}
+				finally {
+					rac.close();
+				}
+			}
+			else {
+				InputStream in = file.getContent().getInputStream();
+				try {
+					long pos = 0;
+					for (int i=0; i<offsets.length; i++) {
+						skipFully(in, offsets[i] - pos);
+						readFully(in, buffer);
+						digest.update(buffer);
+						pos = offsets[i] + buffer.length;
+					}
+				}
+				finally {
+					in.close();
+				}
+			}
+		}
+		catch (IOException e) {
+			throw new FileSystemException(e);
+		}
+		return new BigInteger(1, digest.digest());
+	}
+
+	private void skipFully(InputStream in, long n) throws IOException {
+		while (n > 0) {
+			long skipped = in.skip(n);
+			if (skipped <= 0) {
+				if (in.read() < 0) {
+					throw new EOFException();
+				}
+				skipped = 1;
+			}
+			n -= skipped;
+		}
+	}
+
+	private void readFully(InputStream in, byte[] buffer) throws IOException {
+		int offset = 0;
+		while (offset < buffer.length) {
+			int read = in.read(buffer, offset, buffer.length - offset);
+			if (read < 0) {
+				throw new EOFException();
+			}
+			offset += read;
+		}
+	}
+
+}
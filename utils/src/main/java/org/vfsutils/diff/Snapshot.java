@@ -0,0 +1,384 @@
+package org.vfsutils.diff;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.commons.vfs2.Capability;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileType;
+import org.vfsutils.VfsUtils;
+
+/**
+ * The state of a folder tree as it was left by a previous synchronisation:
+ * the type, size and last modified time of every entry, keyed by the path
+ * relative to the base folder ("." for the base itself). A synchronisation
+ * that trusts a snapshot does not need to list or stat the destination.
+ * A folder whose children were not examined, e.g. because it was excluded,
+ * is recorded as unlisted: neither it nor anything below it can be taken from
+ * the snapshot.
+ * <p>
+ * The snapshot is stored as a compact binary index: a header with the URI
+ * and the last modified time of the base folder, the records sorted by path
+ * with the common prefix of consecutive paths left out, and a CRC32 of the
+ * whole. Files that are truncated or damaged are rejected by {@link #load(File)}.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class Snapshot {
+
+	private static final int MAGIC = 0x56465353;
+	private static final int VERSION = 2;
+
+	private static final byte TYPE_FILE = 0;
+	private static final byte TYPE_FOLDER = 1;
+	private static final byte TYPE_FILE_OR_FOLDER = 2;
+	private static final byte TYPE_UNLISTED_FOLDER = 3;
+
+	/**
+	 * The recorded state of a single file or folder. Size and last modified
+	 * time are -1 when they are unknown, which never matches a real file.
+	 */
+	public static class Entry {
+		public final FileType type;
+		public final long size;
+		public final long lastModified;
+
+		public Entry(FileType type, long size, long lastModified) {
+			this.type = type;
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+	}
+
+	private String baseUri;
+	private long baseLastModified = -1;
+	private Map entries = new HashMap();
+	private Map children = new HashMap();
+	private Set unlisted = new HashSet();
+
+	/**
+	 * Creates an empty snapshot
+	 * @param base the base folder
+	 */
+	public Snapshot(FileObject base) {
+		this(VfsUtils.toString(base));
+	}
+
+	protected Snapshot(String baseUri) {
+		this.baseUri = baseUri;
+	}
+
+	public String getBaseUri() {
+		return this.baseUri;
+	}
+
+	/**
+	 * Returns the path of the file relative to the base folder
+	 * @param base
+	 * @param file a descendant of the base or the base itself
+	 * @return the relative path
+	 * @throws FileSystemException
+	 */
+	public static String getPath(FileObject base, FileObject file) throws FileSystemException {
+		return base.getName().getRelativeName(file.getName());
+	}
+
+	/**
+	 * @param path the path of a folder
+	 * @param name the base name of a child
+	 * @return the path of the child
+	 */
+	public static String getChildPath(String path, String name) {
+		return (path.equals(".") ? name : path + "/" + name);
+	}
+
+	/**
+	 * @param path a path other than "."
+	 * @return the path of the parent folder
+	 */
+	public static String getParentPath(String path) {
+		int sep = path.lastIndexOf('/');
+		return (sep < 0 ? "." : path.substring(0, sep));
+	}
+
+	public synchronized Entry get(String path) {
+		return (Entry) this.entries.get(path);
+	}
+
+	public synchronized void put(String path, Entry entry) {
+		if (this.entries.put(path, entry) == null && !path.equals(".")) {
+			String parent = getParentPath(path);
+			List names = (List) this.children.get(parent);
+			if (names == null) {
+				names = new ArrayList();
+				this.children.put(parent, names);
+			}
+			names.add(path.substring(path.lastIndexOf('/') + 1));
+		}
+	}
+
+	/**
+	 * Records a folder of which the children are unknown
+	 * @param path
+	 */
+	public synchronized void putUnlisted(String path) {
+		put(path, new Entry(FileType.FOLDER, -1, -1));
+		this.unlisted.add(path);
+	}
+
+	/**
+	 * Checks whether the children of a folder are recorded, which is not the
+	 * case when the folder or one of its parents is unlisted
+	 * @param path the path of a folder
+	 * @return true if the children can be taken from the snapshot
+	 */
+	public synchronized boolean isListed(String path) {
+		while (!path.equals(".")) {
+			if (this.unlisted.contains(path)) {
+				return false;
+			}
+			path = getParentPath(path);
+		}
+		return !this.unlisted.contains(path);
+	}
+
+	/**
+	 * Copies the state of a file or folder, including everything below it,
+	 * from another snapshot
+	 * @param other
+	 * @param path
+	 */
+	public void copy(Snapshot other, String path) {
+		Entry entry = other.get(path);
+		if (entry == null) {
+			return;
+		}
+		if (!other.isListed(path)) {
+			putUnlisted(path);
+			return;
+		}
+		put(path, entry);
+		String[] names = other.getChildren(path);
+		for (int i=0; i<names.length; i++) {
+			copy(other, getChildPath(path, names[i]));
+		}
+	}
+
+	public void put(String path, FileType type, long size, long lastModified) {
+		put(path, new Entry(type, size, lastModified));
+	}
+
+	/**
+	 * @param path the path of a folder
+	 * @return the base names of the recorded children, never null
+	 */
+	public synchronized String[] getChildren(String path) {
+		List names = (List) this.children.get(path);
+		if (names == null) {
+			return new String[0];
+		}
+		return (String[]) names.toArray(new String[names.size()]);
+	}
+
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Records the current last modified time of the base folder, which
+	 * is checked by {@link #matches(FileObject)}
+	 * @param base
+	 * @throws FileSystemException
+	 */
+	public void setBase(FileObject base) throws FileSystemException {
+		base.refresh();
+		if (base.getFileSystem().hasCapability(Capability.GET_LAST_MODIFIED)) {
+			this.baseLastModified = base.getContent().getLastModifiedTime();
+		}
+	}
+
+	/**
+	 * Checks whether the snapshot was taken of the given folder and whether
+	 * the folder is unchanged since. Only the base folder itself is checked:
+	 * files that are added, removed or changed deeper in the tree by anything
+	 * other than the synchronisation are not detected, so a snapshot may only
+	 * be trusted for a destination that is not changed otherwise.
+	 * @param base
+	 * @return false if the snapshot is stale
+	 * @throws FileSystemException
+	 */
+	public boolean matches(FileObject base) throws FileSystemException {
+		if (!this.baseUri.equals(VfsUtils.toString(base)) || !base.getType().equals(FileType.FOLDER)) {
+			return false;
+		}
+		if (this.baseLastModified != -1 && base.getFileSystem().hasCapability(Capability.GET_LAST_MODIFIED)) {
+			return this.baseLastModified == base.getContent().getLastModifiedTime();
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the snapshot to a temporary file that replaces the given file
+	 * @param file
+	 * @throws IOException
+	 */
+	public synchronized void save(File file) throws IOException {
+		String[] paths = (String[]) this.entries.keySet().toArray(new String[this.entries.size()]);
+		Arrays.sort(paths);
+
+		File tmp = new File(file.getPath() + ".tmp");
+		CRC32 crc = new CRC32();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536));
+		try {
+			DataOutputStream checked = new DataOutputStream(new CheckedOutputStream(out, crc));
+			checked.writeInt(MAGIC);
+			checked.writeInt(VERSION);
+			checked.writeUTF(this.baseUri);
+			checked.writeLong(this.baseLastModified);
+			checked.writeInt(paths.length);
+
+			String previous = "";
+			for (int i=0; i<paths.length; i++) {
+				String path = paths[i];
+				int prefix = commonPrefix(previous, path);
+				checked.writeShort(prefix);
+				checked.writeUTF(path.substring(prefix));
+				if (this.unlisted.contains(path)) {
+					checked.writeByte(TYPE_UNLISTED_FOLDER);
+				}
+				else {
+					writeEntry(checked, (Entry) this.entries.get(path));
+				}
+				previous = path;
+			}
+			checked.flush();
+			out.writeLong(crc.getValue());
+		}
+		finally {
+			out.close();
+		}
+
+		if (file.exists() && !file.delete()) {
+			tmp.delete();
+			throw new IOException("Could not replace " + file);
+		}
+		if (!tmp.renameTo(file)) {
+			throw new IOException("Could not rename " + tmp + " to " + file);
+		}
+	}
+
+	/**
+	 * Reads a snapshot
+	 * @param file
+	 * @return the snapshot
+	 * @throws IOException if the file can not be read or is corrupt
+	 */
+	public static Snapshot load(File file) throws IOException {
+		byte[] data = new byte[(int) file.length()];
+		FileInputStream in = new FileInputStream(file);
+		try {
+			int offset = 0;
+			while (offset < data.length) {
+				int read = in.read(data, offset, data.length - offset);
+				if (read < 0) {
+					throw new EOFException();
+				}
+				offset += read;
+			}
+		}
+		finally {
+			in.close();
+		}
+
+		if (data.length < 8) {
+			throw new IOException("The snapshot is truncated");
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length - 8);
+		DataInputStream trailer = new DataInputStream(new ByteArrayInputStream(data, data.length - 8, 8));
+		if (trailer.readLong() != crc.getValue()) {
+			throw new IOException("The snapshot is corrupt");
+		}
+
+		DataInputStream din = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - 8));
+		if (din.readInt() != MAGIC) {
+			throw new IOException("The file is not a snapshot");
+		}
+		if (din.readInt() != VERSION) {
+			throw new IOException("The snapshot has an unsupported version");
+		}
+		Snapshot snapshot = new Snapshot(din.readUTF());
+		snapshot.baseLastModified = din.readLong();
+		int count = din.readInt();
+
+		String previous = "";
+		for (int i=0; i<count; i++) {
+			int prefix = din.readUnsignedShort();
+			if (prefix > previous.length()) {
+				throw new IOException("The snapshot is corrupt");
+			}
+			String path = previous.substring(0, prefix) + din.readUTF();
+			byte type = din.readByte();
+			if (type == TYPE_UNLISTED_FOLDER) {
+				snapshot.putUnlisted(path);
+			}
+			else {
+				snapshot.put(path, readEntry(din, type));
+			}
+			previous = path;
+		}
+		return snapshot;
+	}
+
+	private static int commonPrefix(String a, String b) {
+		int max = Math.min(Math.min(a.length(), b.length()), 0xFFFF);
+		int i = 0;
+		while (i < max && a.charAt(i) == b.charAt(i)) {
+			i++;
+		}
+		return i;
+	}
+
+	private static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+		if (entry.type.equals(FileType.FILE)) {
+			out.writeByte(TYPE_FILE);
+			out.writeLong(entry.size);
+			out.writeLong(entry.lastModified);
+		}
+		else if (entry.type.equals(FileType.FILE_OR_FOLDER)) {
+			out.writeByte(TYPE_FILE_OR_FOLDER);
+			out.writeLong(entry.size);
+			out.writeLong(entry.lastModified);
+		}
+		else {
+			out.writeByte(TYPE_FOLDER);
+		}
+	}
+
+	private static Entry readEntry(DataInputStream in, byte type) throws IOException {
+		switch (type) {
+		case TYPE_FILE: return new Entry(FileType.FILE, in.readLong(), in.readLong());
+		case TYPE_FILE_OR_FOLDER: return new Entry(FileType.FILE_OR_FOLDER, in.readLong(), in.readLong());
+		case TYPE_FOLDER: return new Entry(FileType.FOLDER, -1, -1);
+		default: throw new IOException("The snapshot is corrupt");
+		}
+	}
+
+}
@@ -0,0 +1,389 @@
+package org.vfsutils.diff;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Records the progress of a synchronization so that an interrupted run can be
+ * resumed. The journal is an append-only text file with a line per folder
+ * that was processed completely, per file that was handled and per checkpoint
+ * of a file that is being copied. Lines are buffered and written to disk at
+ * most every checkpoint interval, so a crash loses at most the progress of
+ * that interval. A half written last line is ignored on reading and cut off
+ * before the journal is continued.
+ * <p>
+ * Paths are relative to the base of the synchronization as given by
+ * {@link Snapshot#getPath(org.apache.commons.vfs2.FileObject, org.apache.commons.vfs2.FileObject)}.
+ * A folder is complete when it was listed and all its children are complete;
+ * every folder and file has to be registered with {@link #begin(String, boolean)}
+ * by its parent before the parent itself is ended, which also holds when the
+ * children are handled by other threads.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class SyncJournal {
+
+	private static final String HEADER = "# vfsutils sync journal";
+
+	/**
+	 * A confirmed part of a file that was being copied
+	 */
+	private static class Partial {
+		private long size;
+		private long lastModified;
+		private long offset;
+	}
+
+	/**
+	 * A folder that is being processed
+	 */
+	private static class Node {
+		private Node parent;
+		private String path;
+		private int pending = 1;
+	}
+
+	private File file;
+	private Writer writer;
+	private long checkpointInterval = 5000;
+	private long lastCheckpoint = System.currentTimeMillis();
+	private FileOutputStream fos;
+	private boolean resumed = false;
+
+	private Set done = new HashSet();
+	private Map partials = new HashMap();
+	private Map nodes = new HashMap();
+
+	/**
+	 * Opens the journal, truncating or continuing an existing journal
+	 * @param file the journal file
+	 * @param key identifies the synchronization, e.g. the source and destination
+	 * @param resume whether the progress of an existing journal is used
+	 * @throws IOException
+	 * @throws IllegalArgumentException if the existing journal belongs to another key
+	 */
+	public SyncJournal(File file, String key, boolean resume) throws IOException {
+		this.file = file;
+		boolean append = false;
+		// without a complete header line there is no progress to continue
+		long complete = (resume && file.exists() ? getCompleteLength(file) : 0);
+		if (complete > 0) {
+			load(key, complete < file.length());
+			truncate(file, complete);
+			append = true;
+			this.resumed = true;
+		}
+		this.fos = new FileOutputStream(file, append);
+		this.writer = new OutputStreamWriter(this.fos, "UTF-8");
+		if (!append) {
+			this.writer.write(HEADER + "\t" + escape(key) + "\n");
+			this.writer.flush();
+		}
+	}
+
+	/**
+	 * Returns the length of the journal up to and including its last line
+	 * terminator
+	 */
+	private static long getCompleteLength(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			byte[] buffer = new byte[4096];
+			long end = raf.length();
+			while (end > 0) {
+				int n = (int) Math.min(buffer.length, end);
+				raf.seek(end - n);
+				raf.readFully(buffer, 0, n);
+				for (int i=n-1; i>=0; i--) {
+					if (buffer[i] == '\n') {
+						return end - n + i + 1;
+					}
+				}
+				end -= n;
+			}
+			return 0;
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	private static void truncate(File file, long length) throws IOException {
+		if (file.length() > length) {
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(length);
+			}
+			finally {
+				raf.close();
+			}
+		}
+	}
+
+	/**
+	 * @param key
+	 * @param incomplete whether the last line has no terminator and is skipped
+	 */
+	private void load(String key, boolean incomplete) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.file), "UTF-8"));
+		try {
+			String header = reader.readLine();
+			if (header == null || !header.equals(HEADER + "\t" + escape(key))) {
+				throw new IllegalArgumentException("The journal " + this.file + " belongs to another synchronization");
+			}
+			// a line is parsed once the next one is read, so the last one can be skipped
+			String previous = null;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (previous != null) {
+					parse(previous);
+				}
+				previous = line;
+			}
+			if (previous != null && !incomplete) {
+				parse(previous);
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	private void parse(String line) {
+		if (line.length() < 3 || line.charAt(1) != '\t') {
+			return;
+		}
+		char type = line.charAt(0);
+		if (type == 'D' || type == 'F') {
+			String path = unescape(line.substring(2));
+			this.done.add(path);
+			this.partials.remove(path);
+		}
+		else if (type == 'P') {
+			String[] fields = line.substring(2).split("\t", 4);
+			if (fields.length < 4) {
+				return;
+			}
+			try {
+				Partial partial = new Partial();
+				partial.size = Long.parseLong(fields[0]);
+				partial.lastModified = Long.parseLong(fields[1]);
+				partial.offset = Long.parseLong(fields[2]);
+				this.partials.put(unescape(fields[3]), partial);
+			}
+			catch (NumberFormatException e) {
+				//an incomplete last line
+			}
+		}
+	}
+
+	/**
+	 * @param checkpointInterval the maximum number of milliseconds between writes to disk
+	 */
+	public void setCheckpointInterval(long checkpointInterval) {
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	/**
+	 * @return the journal file
+	 */
+	public File getFile() {
+		return this.file;
+	}
+
+	/**
+	 * @param path
+	 * @return whether the folder or file was completed in a previous run
+	 */
+	public synchronized boolean isDone(String path) {
+		return this.done.contains(path);
+	}
+
+	/**
+	 * @return whether the progress of a previous run was loaded
+	 */
+	public boolean isResumed() {
+		return this.resumed;
+	}
+
+	/**
+	 * @param path
+	 * @return whether the file was being copied when the previous run stopped
+	 */
+	public synchronized boolean isPartial(String path) {
+		return this.partials.containsKey(path);
+	}
+
+	/**
+	 * Returns the confirmed offset of a file that was being copied in a
+	 * previous run, if the source did not change since
+	 * @param path
+	 * @param size the current size of the source
+	 * @param lastModified the current modification time of the source
+	 * @return the offset or 0
+	 */
+	public synchronized long getOffset(String path, long size, long lastModified) {
+		Partial partial = (Partial) this.partials.get(path);
+		if (partial == null || partial.size != size || partial.lastModified != lastModified) {
+			return 0;
+		}
+		return partial.offset;
+	}
+
+	/**
+	 * Registers a folder or file that is about to be processed
+	 * @param path
+	 * @param folder
+	 */
+	public synchronized void begin(String path, boolean folder) {
+		Node parent = getParent(path);
+		if (parent != null) {
+			parent.pending++;
+		}
+		if (folder) {
+			Node node = new Node();
+			node.parent = parent;
+			node.path = path;
+			this.nodes.put(path, node);
+		}
+	}
+
+	/**
+	 * Marks a file as handled or ends the listing of a folder; a folder is
+	 * recorded once all its children have ended as well
+	 * @param path
+	 * @throws IOException
+	 */
+	public synchronized void end(String path) throws IOException {
+		Node node = (Node) this.nodes.get(path);
+		if (node == null) {
+			write('F', path);
+			end(getParent(path));
+		}
+		else {
+			end(node);
+		}
+	}
+
+	private void end(Node node) throws IOException {
+		while (node != null && --node.pending == 0) {
+			this.nodes.remove(node.path);
+			write('D', node.path);
+			node = node.parent;
+		}
+	}
+
+	private Node getParent(String path) {
+		if (path.equals(".")) {
+			return null;
+		}
+		int sep = path.lastIndexOf('/');
+		return (Node) this.nodes.get(sep < 0 ? "." : path.substring(0, sep));
+	}
+
+	/**
+	 * Records that the first bytes of a file have been written
+	 * @param path
+	 * @param size the size of the source
+	 * @param lastModified the modification time of the source
+	 * @param offset the number of bytes that were written and flushed
+	 * @throws IOException
+	 */
+	public synchronized void progress(String path, long size, long lastModified, long offset) throws IOException {
+		this.writer.write("P\t" + size + "\t" + lastModified + "\t" + offset + "\t" + escape(path) + "\n");
+		checkpoint(false);
+	}
+
+	private void write(char type, String path) throws IOException {
+		this.writer.write(type + "\t" + escape(path) + "\n");
+		checkpoint(false);
+	}
+
+	/**
+	 * Writes the buffered lines to disk
+	 * @param force whether to write even if the interval did not pass yet
+	 * @throws IOException
+	 */
+	public synchronized void checkpoint(boolean force) throws IOException {
+		long now = System.currentTimeMillis();
+		if (force || now - this.lastCheckpoint >= this.checkpointInterval) {
+			this.writer.flush();
+			this.fos.getFD().sync();
+			this.lastCheckpoint = now;
+		}
+	}
+
+	/**
+	 * Writes the buffered lines and closes the journal
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		try {
+			checkpoint(true);
+		}
+		finally {
+			this.writer.close();
+		}
+	}
+
+	private static String escape(String value) {
+		StringBuffer buffer = new StringBuffer(value.length());
+		for (int i=0; i<value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\') {
+				buffer.append("\\\\");
+			}
+			else if (c == '\n') {
+				buffer.append("\\n");
+			}
+			else if (c == '\r') {
+				buffer.append("\\r");
+			}
+			else if (c == '\t') {
+				buffer.append("\\t");
+			}
+			else {
+				buffer.append(c);
+			}
+		}
+		return buffer.toString();
+	}
+
+	private static String unescape(String value) {
+		StringBuffer buffer = new StringBuffer(value.length());
+		for (int i=0; i<value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' && i + 1 < value.length()) {
+				char next = value.charAt(++i);
+				if (next == 'n') {
+					buffer.append('\n');
+				}
+				else if (next == 'r') {
+					buffer.append('\r');
+				}
+				else if (next == 't') {
+					buffer.append('\t');
+				}
+				else {
+					buffer.append(next);
+				}
+			}
+			else {
+				buffer.append(c);
+			}
+		}
+		return buffer.toString();
+	}
+
+}
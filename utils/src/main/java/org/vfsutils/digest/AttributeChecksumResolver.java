@@ -0,0 +1,152 @@
+package org.vfsutils.digest;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileType;
+
+/**
+ * Resolves checksums from the attributes of the content of a file. For an
+ * algorithm such as SHA-256 the attributes sha-256, sha256, checksum.sha256
+ * and content-sha256 are looked up, ignoring case; other attribute names can
+ * be added per algorithm, e.g. ETag for MD5 on object stores that use the MD5
+ * of the content as ETag.
+ * <p>
+ * Only hex values of the full length of the algorithm are accepted, with
+ * optional quotes and an optional algorithm prefix (md5:...). Anything else,
+ * such as the ETag of a multipart upload, is ignored so that the content is
+ * read instead.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class AttributeChecksumResolver implements ChecksumResolver {
+
+	private Map names = new HashMap();
+	private Map lengths = new HashMap();
+	private DigestEngine digestEngine = new DigestEngine();
+
+	/**
+	 * Adds an attribute that holds the checksum of the given algorithm; the
+	 * added attributes are tried before the default ones
+	 * @param algorithm
+	 * @param attributeName
+	 */
+	public synchronized void addAttribute(String algorithm, String attributeName) {
+		String key = this.digestEngine.normalize(algorithm);
+		List list = (List) this.names.get(key);
+		if (list == null) {
+			list = new ArrayList();
+			this.names.put(key, list);
+		}
+		list.add(attributeName);
+	}
+
+	/**
+	 * @param algorithm the normalized name of the algorithm
+	 * @return the names of the attributes to look for, in order
+	 */
+	protected synchronized List getAttributeNames(String algorithm) {
+		List result = new ArrayList();
+		List added = (List) this.names.get(algorithm);
+		if (added != null) {
+			result.addAll(added);
+		}
+		String name = algorithm.toLowerCase();
+		String shortName = name.replaceAll("-", "");
+		result.add(name);
+		result.add(shortName);
+		result.add("checksum." + shortName);
+		result.add("content-" + shortName);
+		return result;
+	}
+
+	public BigInteger resolve(FileObject file, String algorithm) throws FileSystemException {
+		if (!file.getType().equals(FileType.FILE)) {
+			return null;
+		}
+		Map attributes;
+		try {
+			attributes = file.getContent().getAttributes();
+		}
+		catch (FileSystemException e) {
+			// the provider does not support attributes
+			return null;
+		}
+		return resolve(attributes, algorithm);
+	}
+
+	/**
+	 * Looks up the checksum in the given attributes
+	 * @param attributes
+	 * @param algorithm the normalized name of the algorithm
+	 * @return the checksum or null
+	 * @throws FileSystemException if the algorithm is not supported
+	 */
+	public BigInteger resolve(Map attributes, String algorithm) throws FileSystemException {
+		if (attributes == null || attributes.isEmpty()) {
+			return null;
+		}
+		List candidates = getAttributeNames(algorithm);
+		for (int i=0; i<candidates.size(); i++) {
+			String candidate = (String) candidates.get(i);
+			Iterator iter = attributes.entrySet().iterator();
+			while (iter.hasNext()) {
+				Map.Entry entry = (Map.Entry) iter.next();
+				if (candidate.equalsIgnoreCase((String) entry.getKey()) && entry.getValue() != null) {
+					BigInteger value = parse(entry.getValue().toString(), algorithm);
+					if (value != null) {
+						return value;
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param value
+	 * @param algorithm the normalized name of the algorithm
+	 * @return the checksum or null if the value is not a hex checksum of the algorithm
+	 * @throws FileSystemException if the algorithm is not supported
+	 */
+	protected BigInteger parse(String value, String algorithm) throws FileSystemException {
+		String hex = value.trim();
+		if (hex.length() > 1 && hex.startsWith("\"") && hex.endsWith("\"")) {
+			hex = hex.substring(1, hex.length() - 1);
+		}
+		int colon = hex.indexOf(':');
+		if (colon > 0) {
+			String prefix = this.digestEngine.normalize(hex.substring(0, colon));
+			if (!prefix.equals(algorithm)) {
+				return null;
+			}
+			hex = hex.substring(colon + 1);
+		}
+
+		if (hex.length() != getLength(algorithm)) {
+			return null;
+		}
+		for (int i=0; i<hex.length(); i++) {
+			if (Character.digit(hex.charAt(i), 16) < 0) {
+				return null;
+			}
+		}
+		return new BigInteger(hex, 16);
+	}
+
+	private synchronized int getLength(String algorithm) throws FileSystemException {
+		Integer length = (Integer) this.lengths.get(algorithm);
+		if (length == null) {
+			length = new Integer(this.digestEngine.createDigest(algorithm).getDigestLength() * 2);
+			this.lengths.put(algorithm, length);
+		}
+		return length.intValue();
+	}
+
+}
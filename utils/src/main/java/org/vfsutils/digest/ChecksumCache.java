@@ -0,0 +1,403 @@
+package org.vfsutils.digest;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.vfs2.Capability;
+import org.apache.commons.vfs2.FileContent;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.vfsutils.VfsUtils;
+
+/**
+ * Persistent store of checksums. An entry is keyed by the URI of the file and
+ * the digest algorithm and is only valid as long as the size and the last
+ * modified time of the file are unchanged, so repeated verification of an
+ * unchanged tree only needs the metadata of the files.
+ * <p>
+ * The store is an append-only log of records on the local disk that is
+ * memory-mapped when it is loaded. Superseded and evicted records are removed
+ * by {@link #compact()}, which is done automatically on close when more than
+ * half of the log is stale. When more than maxEntries entries are present the
+ * least recently used entries are evicted.
+ * <p>
+ * Only files of file systems that support {@link Capability#GET_LAST_MODIFIED}
+ * are cached. The URIs are stored without passwords.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class ChecksumCache {
+
+	private static final int MAGIC = 0x56465343;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+
+	private class Entry {
+		private String uri;
+		private String algorithm;
+		private long size;
+		private long lastModified;
+		private BigInteger digest;
+	}
+
+	private File file;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private DataOutputStream out;
+
+	private int maxEntries;
+	private LinkedHashMap entries;
+
+	private int staleRecords = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private long stores = 0;
+	private long evictions = 0;
+
+	/**
+	 * Opens or creates a cache with at most one million entries
+	 * @param file the local file that contains the cache
+	 * @throws IOException
+	 */
+	public ChecksumCache(File file) throws IOException {
+		this(file, 1000000);
+	}
+
+	/**
+	 * Opens or creates a cache. An existing file that is not a checksum cache
+	 * is refused and left as it is.
+	 * @param file the local file that contains the cache
+	 * @param maxEntries the maximum number of entries that is kept
+	 * @throws IOException also when the file is not a checksum cache
+	 */
+	public ChecksumCache(File file, int maxEntries) throws IOException {
+		this.file = file;
+		this.maxEntries = maxEntries;
+		this.entries = new LinkedHashMap(1024, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry eldest) {
+				if (size() > ChecksumCache.this.maxEntries) {
+					evictions++;
+					staleRecords++;
+					return true;
+				}
+				return false;
+			}
+		};
+		open();
+		try {
+			load();
+		}
+		catch (IOException e) {
+			closeFile();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the cached digest of the file
+	 * @param file
+	 * @param algorithm
+	 * @return the digest or null if it is not cached or the file changed
+	 * @throws FileSystemException
+	 */
+	public BigInteger get(FileObject file, String algorithm) throws FileSystemException {
+		if (!isCacheable(file)) {
+			return null;
+		}
+		String key = toKey(VfsUtils.toString(file), algorithm);
+		Entry entry;
+		synchronized (this) {
+			entry = (Entry) this.entries.get(key);
+		}
+		//the metadata can take a round trip, so it is read without holding the lock
+		FileContent content = file.getContent();
+		boolean valid = (entry != null && entry.size == content.getSize()
+				&& entry.lastModified == content.getLastModifiedTime());
+		synchronized (this) {
+			if (valid) {
+				hits++;
+			}
+			else {
+				misses++;
+			}
+		}
+		return (valid ? entry.digest : null);
+	}
+
+	/**
+	 * Stores the digest of the file with its current size and last modified time.
+	 * The digest must have been calculated on the current content.
+	 * @param file
+	 * @param algorithm
+	 * @param digest
+	 * @throws FileSystemException
+	 */
+	public void put(FileObject file, String algorithm, BigInteger digest) throws FileSystemException {
+		if (!isCacheable(file)) {
+			return;
+		}
+		Entry entry = new Entry();
+		entry.uri = VfsUtils.toString(file);
+		entry.algorithm = algorithm;
+		entry.size = file.getContent().getSize();
+		entry.lastModified = file.getContent().getLastModifiedTime();
+		entry.digest = digest;
+
+		synchronized (this) {
+			try {
+				writeRecord(this.out, entry);
+			}
+			catch (IOException e) {
+				throw new FileSystemException(e);
+			}
+			if (this.entries.put(toKey(entry.uri, entry.algorithm), entry) != null) {
+				staleRecords++;
+			}
+			stores++;
+		}
+	}
+
+	/**
+	 * Removes the superseded and evicted records from the file. The log is
+	 * written to a temporary file that replaces the original; when the
+	 * original can not be replaced the log is kept as it is, or written
+	 * again when the original was lost as well.
+	 * @throws IOException
+	 */
+	public synchronized void compact() throws IOException {
+		this.out.flush();
+
+		File tmp = new File(this.file.getPath() + ".tmp");
+		DataOutputStream tmpOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536));
+		try {
+			writeLog(tmpOut);
+		}
+		finally {
+			tmpOut.close();
+		}
+
+		closeFile();
+		if (replace(tmp)) {
+			staleRecords = 0;
+		}
+		else {
+			tmp.delete();
+		}
+		open();
+		if (this.channel.size() < HEADER_SIZE) {
+			//the original was lost, write the entries to a new one
+			this.channel.truncate(0);
+			writeLog(this.out);
+			this.out.flush();
+			staleRecords = 0;
+		}
+		this.channel.position(this.channel.size());
+	}
+
+	/**
+	 * Replaces the file by the temporary file. Where a rename does not
+	 * replace an existing file the original is moved aside first and moved
+	 * back when the temporary file can not take its place.
+	 */
+	private boolean replace(File tmp) {
+		if (tmp.renameTo(this.file)) {
+			return true;
+		}
+		File old = new File(this.file.getPath() + ".old");
+		old.delete();
+		if (!this.file.renameTo(old)) {
+			return false;
+		}
+		if (tmp.renameTo(this.file)) {
+			old.delete();
+			return true;
+		}
+		old.renameTo(this.file);
+		return false;
+	}
+
+	/**
+	 * Writes the pending records to disk
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		this.out.flush();
+	}
+
+	/**
+	 * Flushes the cache and closes the file; the log is compacted when
+	 * more than half of it is stale.
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		if (staleRecords > this.entries.size()) {
+			compact();
+		}
+		closeFile();
+	}
+
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getStores() {
+		return stores;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public String toString() {
+		return "Checksum cache " + this.file + ": " + size() + " entries, " + getHits() + " hits, "
+			+ getMisses() + " misses, " + getEvictions() + " evictions";
+	}
+
+	protected boolean isCacheable(FileObject file) throws FileSystemException {
+		return file.getFileSystem().hasCapability(Capability.GET_LAST_MODIFIED);
+	}
+
+	private String toKey(String uri, String algorithm) {
+		return algorithm + ' ' + uri;
+	}
+
+	private void open() throws IOException {
+		this.raf = new RandomAccessFile(this.file, "rw");
+		this.channel = this.raf.getChannel();
+		this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(this.channel), 65536));
+	}
+
+	private void closeFile() throws IOException {
+		try {
+			this.out.close();
+		}
+		finally {
+			this.raf.close();
+		}
+	}
+
+	/**
+	 * Reads the log through a memory mapping. A truncated last record, e.g.
+	 * after a crash, is discarded and a log of another version is reset; a
+	 * file that does not start with the magic number is refused, so a wrong
+	 * path does not overwrite an unrelated file.
+	 */
+	private void load() throws IOException {
+		long length = this.channel.size();
+		long valid = 0;
+
+		if (length > 0 && length < HEADER_SIZE) {
+			throw new IOException(this.file + " is not a checksum cache");
+		}
+		if (length >= HEADER_SIZE) {
+			MappedByteBuffer buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException(this.file + " is not a checksum cache");
+			}
+			if (buffer.getInt() == VERSION) {
+				valid = buffer.position();
+				while (buffer.hasRemaining()) {
+					Entry entry = readRecord(buffer);
+					if (entry == null) {
+						break;
+					}
+					valid = buffer.position();
+					if (this.entries.put(toKey(entry.uri, entry.algorithm), entry) != null) {
+						staleRecords++;
+					}
+				}
+			}
+		}
+
+		if (valid == 0) {
+			this.channel.truncate(0);
+			this.channel.position(0);
+			writeHeader(this.out);
+			this.out.flush();
+		}
+		else {
+			if (valid < length) {
+				this.channel.truncate(valid);
+			}
+			this.channel.position(valid);
+		}
+	}
+
+	private Entry readRecord(MappedByteBuffer buffer) {
+		try {
+			Entry entry = new Entry();
+			entry.uri = readString(buffer, buffer.getShort() & 0xFFFF);
+			entry.algorithm = readString(buffer, buffer.get() & 0xFF);
+			entry.size = buffer.getLong();
+			entry.lastModified = buffer.getLong();
+			byte[] digest = new byte[buffer.get() & 0xFF];
+			buffer.get(digest);
+			entry.digest = new BigInteger(1, digest);
+			return entry;
+		}
+		catch (BufferUnderflowException e) {
+			return null;
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+	private String readString(MappedByteBuffer buffer, int length) throws IOException {
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	private void writeHeader(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+	}
+
+	private void writeLog(DataOutputStream out) throws IOException {
+		writeHeader(out);
+		Iterator iterator = this.entries.values().iterator();
+		while (iterator.hasNext()) {
+			writeRecord(out, (Entry) iterator.next());
+		}
+	}
+
+	private void writeRecord(DataOutputStream out, Entry entry) throws IOException {
+		byte[] uri = entry.uri.getBytes("UTF-8");
+		byte[] algorithm = entry.algorithm.getBytes("UTF-8");
+		byte[] digest = entry.digest.toByteArray();
+		if (uri.length > 0xFFFF || algorithm.length > 0xFF || digest.length > 0xFF) {
+			// can not be represented, skip
+			return;
+		}
+		out.writeShort(uri.length);
+		out.write(uri);
+		out.writeByte(algorithm.length);
+		out.write(algorithm);
+		out.writeLong(entry.size);
+		out.writeLong(entry.lastModified);
+		out.writeByte(digest.length);
+		out.write(digest);
+	}
+
+}
@@ -0,0 +1,48 @@
+package org.vfsutils.digest;
+
+import java.security.MessageDigest;
+import java.util.zip.Checksum;
+
+/**
+ * Offers a 32 bit {@link Checksum} as a MessageDigest so that it can be
+ * fed together with the cryptographic digests. The digest is the big-endian
+ * representation of the checksum value.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class ChecksumDigest extends MessageDigest {
+
+	private Checksum checksum;
+
+	public ChecksumDigest(String algorithm, Checksum checksum) {
+		super(algorithm);
+		this.checksum = checksum;
+	}
+
+	protected void engineUpdate(byte input) {
+		this.checksum.update(input);
+	}
+
+	protected void engineUpdate(byte[] input, int offset, int len) {
+		this.checksum.update(input, offset, len);
+	}
+
+	protected byte[] engineDigest() {
+		long value = this.checksum.getValue();
+		this.checksum.reset();
+		return new byte[] {
+				(byte) (value >>> 24),
+				(byte) (value >>> 16),
+				(byte) (value >>> 8),
+				(byte) value};
+	}
+
+	protected int engineGetDigestLength() {
+		return 4;
+	}
+
+	protected void engineReset() {
+		this.checksum.reset();
+	}
+
+}
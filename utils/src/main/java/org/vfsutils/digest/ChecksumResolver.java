@@ -0,0 +1,25 @@
+package org.vfsutils.digest;
+
+import java.math.BigInteger;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+
+/**
+ * Looks up a checksum that the file system already knows, such as a hash
+ * exposed as an attribute of the content, so that the content does not
+ * have to be read to calculate it.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public interface ChecksumResolver {
+
+	/**
+	 * @param file
+	 * @param algorithm the normalized name of the algorithm
+	 * @return the checksum or null if the file system does not know it
+	 * @throws FileSystemException
+	 */
+	public BigInteger resolve(FileObject file, String algorithm) throws FileSystemException;
+
+}
@@ -0,0 +1,53 @@
+package org.vfsutils.digest;
+
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C (Castagnoli) checksum, as used by iSCSI, ext4 and several object
+ * stores. Table driven implementation.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class Crc32c implements Checksum {
+
+	private static final int[] TABLE = new int[256];
+
+	static {
+		for (int i=0; i<256; i++) {
+			int crc = i;
+			for (int j=0; j<8; j++) {
+				if ((crc & 1) != 0) {
+					crc = (crc >>> 1) ^ 0x82F63B78;
+				}
+				else {
+					crc = crc >>> 1;
+				}
+			}
+			TABLE[i] = crc;
+		}
+	}
+
+	private int crc = 0xFFFFFFFF;
+
+	public void update(int b) {
+		crc = TABLE[(crc ^ b) & 0xFF] ^ (crc >>> 8);
+	}
+
+	public void update(byte[] b, int off, int len) {
+		int value = crc;
+		int end = off + len;
+		for (int i=off; i<end; i++) {
+			value = TABLE[(value ^ b[i]) & 0xFF] ^ (value >>> 8);
+		}
+		crc = value;
+	}
+
+	public long getValue() {
+		return (~crc) & 0xFFFFFFFFL;
+	}
+
+	public void reset() {
+		crc = 0xFFFFFFFF;
+	}
+
+}
@@ -0,0 +1,361 @@
+package org.vfsutils.digest;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.vfsutils.VfsUtils;
+
+/**
+ * Calculates one or more digests of the content of a file while reading
+ * the content only once. Next to the algorithms offered by the installed
+ * security providers (MD5, SHA-1, SHA-256, ...) the non-cryptographic
+ * checksums CRC32, CRC32C, ADLER32 and XXHASH64 are supported.
+ * <p>
+ * Local files are read through their FileChannel, other files through the
+ * input stream of their content. When a checksum resolver is set, checksums
+ * that the file system already knows are used without reading the content.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class DigestEngine {
+
+	public static final String MD5 = "MD5";
+	public static final String SHA1 = "SHA-1";
+	public static final String SHA256 = "SHA-256";
+	public static final String CRC32 = "CRC32";
+	public static final String CRC32C = "CRC32C";
+	public static final String ADLER32 = "ADLER32";
+	public static final String XXHASH64 = "XXHASH64";
+
+	protected int bufferSize = 8192;
+	
+	protected ChecksumCache checksumCache = null;
+	protected ChecksumResolver checksumResolver = null;
+	
+	protected boolean useFileChannel = true;
+	protected long mapThreshold = 8L * 1024 * 1024;
+	protected long mapWindowSize = 64L * 1024 * 1024;
+	protected int chunkSize = 64 * 1024;
+	
+	/**
+	 * Whether local files (file://) are read through a FileChannel instead of
+	 * the VFS input stream. Enabled by default.
+	 * @param useFileChannel
+	 */
+	public void setUseFileChannel(boolean useFileChannel) {
+		this.useFileChannel = useFileChannel;
+	}
+	
+	/**
+	 * Sets the size from which local files are memory-mapped
+	 * @param mapThreshold
+	 */
+	public void setMapThreshold(long mapThreshold) {
+		this.mapThreshold = mapThreshold;
+	}
+	
+	/**
+	 * Sets the size of the region that is mapped at once
+	 * @param mapWindowSize
+	 */
+	public void setMapWindowSize(long mapWindowSize) {
+		this.mapWindowSize = mapWindowSize;
+	}
+	
+	/**
+	 * Sets the cache that is consulted before the content of a file is read
+	 * @param checksumCache the cache or null to disable caching
+	 */
+	public void setChecksumCache(ChecksumCache checksumCache) {
+		this.checksumCache = checksumCache;
+	}
+	
+	public ChecksumCache getChecksumCache() {
+		return this.checksumCache;
+	}
+	
+	/**
+	 * Sets the resolver that is asked for a native checksum before the
+	 * checksum cache is consulted or the content of a file is read
+	 * @param checksumResolver the resolver or null to always use the content
+	 */
+	public void setChecksumResolver(ChecksumResolver checksumResolver) {
+		this.checksumResolver = checksumResolver;
+	}
+	
+	public ChecksumResolver getChecksumResolver() {
+		return this.checksumResolver;
+	}
+
+	/**
+	 * Normalizes the name of an algorithm so that it can be given
+	 * case-insensitively and without dash, e.g. sha256 becomes SHA-256.
+	 * @param algorithm
+	 * @return the normalized name
+	 */
+	public String normalize(String algorithm) {
+		String result = algorithm.trim().toUpperCase();
+		if (result.startsWith("SHA") && result.length() > 3 && result.charAt(3) != '-') {
+			result = "SHA-" + result.substring(3);
+		}
+		return result;
+	}
+
+	/**
+	 * Creates a new digest for the given algorithm
+	 * @param algorithm
+	 * @return a fresh digest
+	 * @throws FileSystemException if the algorithm is not supported
+	 */
+	public MessageDigest createDigest(String algorithm) throws FileSystemException {
+		String name = normalize(algorithm);
+		if (name.equals(CRC32)) {
+			return new ChecksumDigest(CRC32, new CRC32());
+		}
+		else if (name.equals(CRC32C)) {
+			return new ChecksumDigest(CRC32C, new Crc32c());
+		}
+		else if (name.equals(ADLER32)) {
+			return new ChecksumDigest(ADLER32, new Adler32());
+		}
+		else if (name.equals(XXHASH64)) {
+			return new XxHash64();
+		}
+		else {
+			try {
+				return MessageDigest.getInstance(name);
+			}
+			catch (NoSuchAlgorithmException e) {
+				throw new FileSystemException(new IllegalArgumentException("Unsupported digest algorithm " + algorithm));
+			}
+		}
+	}
+
+	/**
+	 * Creates a hex string of the digest value padded with zeroes to the
+	 * full length of the digest of the given algorithm.
+	 * @param value
+	 * @param algorithm
+	 * @return a hex string, e.g. 32 characters for MD5
+	 * @throws FileSystemException if the algorithm is not supported
+	 */
+	public String toString(BigInteger value, String algorithm) throws FileSystemException {
+		int length = createDigest(algorithm).getDigestLength() * 2;
+		StringBuffer buffer = new StringBuffer(length);
+		String s = value.toString(16);
+		for (int i=s.length(); i<length; i++) {
+			buffer.append('0');
+		}
+		buffer.append(s);
+		return buffer.toString();
+	}
+
+	/**
+	 * Calculates a single digest of the content of the given file
+	 * @param file
+	 * @param algorithm
+	 * @return BigInteger representation of the digest
+	 * @throws FileSystemException
+	 */
+	public BigInteger calculate(FileObject file, String algorithm) throws FileSystemException {
+		return calculate(file, new String[] {algorithm})[0];
+	}
+
+	/**
+	 * Calculates several digests of the content of the given file, reading
+	 * the content only once. When the checksum resolver knows all digests
+	 * the content is not read; otherwise, when a checksum cache is set, the
+	 * digests are taken from the cache if the file did not change.
+	 * @param file
+	 * @param algorithms
+	 * @return the BigInteger representations of the digests in the same order as the algorithms
+	 * @throws FileSystemException
+	 */
+	public BigInteger[] calculate(FileObject file, String[] algorithms) throws FileSystemException {
+		BigInteger[] resolved = resolve(file, algorithms);
+		if (resolved != null) {
+			return resolved;
+		}
+		
+		if (this.checksumCache == null) {
+			return digest(file, algorithms);
+		}
+		
+		BigInteger[] result = new BigInteger[algorithms.length];
+		boolean complete = true;
+		for (int i=0; i<algorithms.length && complete; i++) {
+			result[i] = this.checksumCache.get(file, normalize(algorithms[i]));
+			complete = (result[i] != null);
+		}
+		
+		if (!complete) {
+			result = digest(file, algorithms);
+			for (int i=0; i<algorithms.length; i++) {
+				this.checksumCache.put(file, normalize(algorithms[i]), result[i]);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Asks the checksum resolver for all digests
+	 * @param file
+	 * @param algorithms
+	 * @return the digests or null if the resolver does not know all of them
+	 * @throws FileSystemException
+	 */
+	protected BigInteger[] resolve(FileObject file, String[] algorithms) throws FileSystemException {
+		if (this.checksumResolver == null) {
+			return null;
+		}
+		BigInteger[] result = new BigInteger[algorithms.length];
+		for (int i=0; i<algorithms.length; i++) {
+			result[i] = this.checksumResolver.resolve(file, normalize(algorithms[i]));
+			if (result[i] == null) {
+				return null;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Calculates several digests of the content of the given file, reading
+	 * the content only once and without consulting the checksum cache.
+	 * @param file
+	 * @param algorithms
+	 * @return the BigInteger representations of the digests in the same order as the algorithms
+	 * @throws FileSystemException
+	 */
+	public BigInteger[] digest(FileObject file, String[] algorithms) throws FileSystemException {
+		MessageDigest[] digests = new MessageDigest[algorithms.length];
+		for (int i=0; i<algorithms.length; i++) {
+			digests[i] = createDigest(algorithms[i]);
+		}
+
+		update(file, digests);
+
+		BigInteger[] result = new BigInteger[digests.length];
+		for (int i=0; i<digests.length; i++) {
+			result[i] = new BigInteger(1, digests[i].digest());
+		}
+		return result;
+	}
+
+	/**
+	 * Feeds the content of the file into all the given digests
+	 * @param file
+	 * @param digests
+	 * @throws FileSystemException
+	 */
+	public void update(FileObject file, MessageDigest[] digests) throws FileSystemException {
+		File localFile = (this.useFileChannel ? VfsUtils.toLocalFile(file) : null);
+		if (localFile != null) {
+			try {
+				update(localFile, digests);
+			}
+			catch (IOException e) {
+				throw new FileSystemException(e);
+			}
+			return;
+		}
+		
+		InputStream is = null;
+		try {
+			is = file.getContent().getInputStream();
+			update(is, digests);
+
+			//close the stream and free it
+			is.close();
+			is = null;
+		}
+		catch (IOException e) {
+			throw new FileSystemException(e);
+		}
+		finally {
+			if (is != null) {
+				try {
+					is.close();
+				}
+				catch (IOException e) {
+					//ignore
+				}
+			}
+		}
+	}
+
+	/**
+	 * Feeds the content of a local file into all the given digests through its
+	 * FileChannel. Files of at least mapThreshold bytes are memory-mapped window
+	 * by window so that files over 2GB are supported; smaller files are read 
+	 * from the channel in large chunks.
+	 * @param file
+	 * @param digests
+	 * @throws IOException
+	 */
+	public void update(File file, MessageDigest[] digests) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			FileChannel channel = fis.getChannel();
+			long size = channel.size();
+			
+			if (size >= this.mapThreshold) {
+				long position = 0;
+				while (position < size) {
+					long length = Math.min(this.mapWindowSize, size - position);
+					MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+					for (int i=0; i<digests.length; i++) {
+						digests[i].update(window.duplicate());
+					}
+					position += length;
+				}
+			}
+			else {
+				// a buffer that wraps an array can be passed to the digests
+				// without a copy, and the channel reads into it through a
+				// direct buffer that is reused per thread instead of per file
+				byte[] bytes = new byte[(int) Math.max(Math.min(size, this.chunkSize), 1)];
+				ByteBuffer buffer = ByteBuffer.wrap(bytes);
+				int read = -1;
+				while ((read = channel.read(buffer)) >= 0) {
+					for (int i=0; i<digests.length; i++) {
+						digests[i].update(bytes, 0, read);
+					}
+					buffer.clear();
+				}
+			}
+		}
+		finally {
+			fis.close();
+		}
+	}
+	
+	/**
+	 * Feeds the stream into all the given digests; the stream is not closed
+	 * @param is
+	 * @param digests
+	 * @throws IOException
+	 */
+	public void update(InputStream is, MessageDigest[] digests) throws IOException {
+		byte[] buffer = new byte[this.bufferSize];
+		int read = -1;
+
+		while ((read = is.read(buffer)) >= 0) {
+			for (int i=0; i<digests.length; i++) {
+				digests[i].update(buffer, 0, read);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,37 @@
+package org.vfsutils.digest;
+
+/**
+ * A single line of a checksum manifest.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class ManifestEntry {
+
+	/**
+	 * The algorithm given in the line (BSD format) or null
+	 */
+	public String algorithm = null;
+
+	/**
+	 * The hex checksum or null if the line could not be parsed
+	 */
+	public String checksum = null;
+
+	/**
+	 * The name of the file or null if the line only contains a checksum
+	 */
+	public String fileName = null;
+
+	public int lineNumber = 0;
+
+	public String line = null;
+
+	public boolean isValid() {
+		return this.checksum != null;
+	}
+
+	public String toString() {
+		return (fileName == null ? "line " + lineNumber : fileName);
+	}
+
+}
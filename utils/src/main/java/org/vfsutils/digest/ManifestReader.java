@@ -0,0 +1,151 @@
+package org.vfsutils.digest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads checksum manifests line by line, so that manifests of any size can
+ * be processed. Supported are the GNU format of md5sum and sha*sum
+ * (<code>checksum  name</code> or <code>checksum *name</code>), the BSD
+ * format (<code>MD5 (name) = checksum</code>) and a single checksum with an
+ * optional name. Empty lines and lines starting with # are skipped.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class ManifestReader {
+
+	private static final Pattern BSD = Pattern.compile("([A-Za-z0-9-]+) ?\\((.*)\\) ?= ?([a-fA-F0-9]+)\\s*");
+	private static final Pattern GNU = Pattern.compile("\\\\?([a-fA-F0-9]+) [ *](.+)");
+	private static final Pattern SIMPLE = Pattern.compile("([a-fA-F0-9]+)\\s*(\\S*)\\s*");
+
+	private BufferedReader reader;
+	private int lineNumber = 0;
+
+	public ManifestReader(Reader reader) {
+		this.reader = new BufferedReader(reader);
+	}
+
+	/**
+	 * Reads the next entry. Lines that can not be parsed result in an
+	 * entry that is not valid.
+	 * @return the next entry or null at the end of the manifest
+	 * @throws IOException
+	 */
+	public ManifestEntry next() throws IOException {
+		String line;
+		while ((line = this.reader.readLine()) != null) {
+			lineNumber++;
+			if (lineNumber == 1 && line.length() > 0 && line.charAt(0) == '\uFEFF') {
+				// byte order mark
+				line = line.substring(1);
+			}
+			if (line.trim().length() > 0 && !line.startsWith("#")) {
+				return parse(line, lineNumber);
+			}
+		}
+		return null;
+	}
+
+	public void close() throws IOException {
+		this.reader.close();
+	}
+
+	/**
+	 * Parses a single line
+	 * @param line
+	 * @param lineNumber
+	 * @return the entry, which is not valid if the line could not be parsed
+	 */
+	public ManifestEntry parse(String line, int lineNumber) {
+		ManifestEntry entry = new ManifestEntry();
+		entry.line = line;
+		entry.lineNumber = lineNumber;
+
+		Matcher matcher = BSD.matcher(line);
+		if (matcher.matches()) {
+			entry.algorithm = matcher.group(1);
+			entry.fileName = matcher.group(2);
+			entry.checksum = matcher.group(3);
+			return entry;
+		}
+
+		matcher = GNU.matcher(line);
+		if (matcher.matches()) {
+			entry.checksum = matcher.group(1);
+			entry.fileName = matcher.group(2);
+			if (line.startsWith("\\")) {
+				entry.fileName = unescape(entry.fileName);
+			}
+			return entry;
+		}
+
+		matcher = SIMPLE.matcher(line);
+		if (matcher.matches()) {
+			entry.checksum = matcher.group(1);
+			if (matcher.group(2).length() > 0) {
+				entry.fileName = matcher.group(2);
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * The GNU tools escape names containing a backslash or newline and mark the
+	 * line with a leading backslash
+	 */
+	private String unescape(String name) {
+		StringBuffer buffer = new StringBuffer(name.length());
+		for (int i=0; i<name.length(); i++) {
+			char c = name.charAt(i);
+			if (c == '\\' && i + 1 < name.length()) {
+				char next = name.charAt(++i);
+				buffer.append(next == 'n' ? '\n' : next);
+			}
+			else {
+				buffer.append(c);
+			}
+		}
+		return buffer.toString();
+	}
+
+	/**
+	 * Deduces the algorithm from the extension of a manifest, e.g. sha256
+	 * @param extension
+	 * @return the algorithm or null if unknown
+	 */
+	public static String algorithmFromExtension(String extension) {
+		String ext = extension.toLowerCase();
+		if (ext.equals("md5")) {
+			return DigestEngine.MD5;
+		}
+		else if (ext.equals("sha1")) {
+			return DigestEngine.SHA1;
+		}
+		else if (ext.equals("sha256")) {
+			return DigestEngine.SHA256;
+		}
+		else if (ext.equals("sha512")) {
+			return "SHA-512";
+		}
+		return null;
+	}
+
+	/**
+	 * Deduces the algorithm from the length of a hex checksum
+	 * @param checksum
+	 * @return the algorithm or null if unknown
+	 */
+	public static String algorithmFromLength(String checksum) {
+		switch (checksum.length()) {
+		case 32: return DigestEngine.MD5;
+		case 40: return DigestEngine.SHA1;
+		case 64: return DigestEngine.SHA256;
+		case 128: return "SHA-512";
+		default: return null;
+		}
+	}
+
+}
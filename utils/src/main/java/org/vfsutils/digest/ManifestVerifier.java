@@ -0,0 +1,251 @@
+package org.vfsutils.digest;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigInteger;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.vfsutils.concurrent.FileSystemLimiter;
+
+/**
+ * Verifies the files listed in a checksum manifest. The manifest is read
+ * while the files are verified, so only a bounded number of entries is in
+ * memory at any time. The files are verified by a pool of worker threads;
+ * the results are reported on the calling thread in order of completion.
+ * <p>
+ * Names in the manifest are resolved relative to the folder of the manifest.
+ * When a line only contains a checksum the name of the manifest without its
+ * extension is used, e.g. archive.zip for archive.zip.md5. The algorithm is
+ * taken from the line (BSD format), the extension of the manifest or the length
+ * of the checksum, in that order.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class ManifestVerifier {
+
+	public static final int OK = 0;
+	public static final int FAILED = 1;
+	public static final int MISSING = 2;
+	public static final int ERROR = 3;
+
+	private static final String[] STATUS_NAMES = {"OK", "FAILED", "MISSING", "ERROR"};
+
+	/**
+	 * Receives the result of the verification of each entry
+	 */
+	public interface VerifyListener {
+		/**
+		 * @param entry the manifest entry
+		 * @param file the resolved file, null if it could not be resolved
+		 * @param status one of OK, FAILED, MISSING, ERROR
+		 * @param detail the calculated checksum or a message in case of an error
+		 */
+		public void entryVerified(ManifestEntry entry, FileObject file, int status, String detail);
+	}
+
+	/**
+	 * Counts of the verification results
+	 */
+	public static class Summary {
+		public int ok = 0;
+		public int failed = 0;
+		public int missing = 0;
+		public int errors = 0;
+
+		public int getTotal() {
+			return ok + failed + missing + errors;
+		}
+
+		public boolean isSuccess() {
+			return getTotal() == ok;
+		}
+
+		public String toString() {
+			return "OK: " + ok + ", FAILED: " + failed + ", MISSING: " + missing + ", ERROR: " + errors;
+		}
+	}
+
+	private static class Result {
+		private ManifestEntry entry;
+		private FileObject file = null;
+		private int status = ERROR;
+		private String detail = null;
+	}
+
+	protected DigestEngine digestEngine = new DigestEngine();
+	protected int threads = 1;
+	protected int maxPerFileSystem = 4;
+
+	public static String toString(int status) {
+		return STATUS_NAMES[status];
+	}
+
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("The number of threads must be at least 1");
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * Sets the maximum number of files that are read at the same time from
+	 * a single file system.
+	 * @param maxPerFileSystem a value smaller than 1 means no limit
+	 */
+	public void setMaxPerFileSystem(int maxPerFileSystem) {
+		this.maxPerFileSystem = maxPerFileSystem;
+	}
+
+	public void setDigestEngine(DigestEngine digestEngine) {
+		this.digestEngine = digestEngine;
+	}
+
+	/**
+	 * Verifies all entries of the manifest
+	 * @param manifest
+	 * @param listener receives the result of every entry
+	 * @return the summary of the results
+	 * @throws FileSystemException if the manifest can not be read
+	 */
+	public Summary verify(final FileObject manifest, VerifyListener listener) throws FileSystemException {
+		if (!manifest.exists()) {
+			throw new FileSystemException(new IllegalArgumentException("The manifest does not exist"));
+		}
+
+		Summary summary = new Summary();
+		final String defaultAlgorithm = ManifestReader.algorithmFromExtension(manifest.getName().getExtension());
+		final FileSystemLimiter limiter = new FileSystemLimiter(this.maxPerFileSystem);
+		int maxPending = this.threads * 4;
+		int pending = 0;
+
+		ManifestReader reader = null;
+		ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+		try {
+			reader = new ManifestReader(new InputStreamReader(manifest.getContent().getInputStream(), "UTF-8"));
+			CompletionService completion = new ExecutorCompletionService(executor);
+
+			ManifestEntry entry;
+			while ((entry = reader.next()) != null) {
+				if (pending >= maxPending) {
+					report((Result) completion.take().get(), summary, listener);
+					pending--;
+				}
+
+				final ManifestEntry current = entry;
+				completion.submit(new Callable() {
+					public Object call() throws Exception {
+						return verify(manifest, current, defaultAlgorithm, limiter);
+					}
+				});
+				pending++;
+			}
+
+			while (pending > 0) {
+				report((Result) completion.take().get(), summary, listener);
+				pending--;
+			}
+		}
+		catch (IOException e) {
+			throw new FileSystemException(e);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FileSystemException(e);
+		}
+		catch (ExecutionException e) {
+			throw new FileSystemException(e.getCause());
+		}
+		finally {
+			executor.shutdownNow();
+			if (reader != null) {
+				try {
+					reader.close();
+				}
+				catch (IOException e) {
+					//ignore
+				}
+			}
+		}
+
+		return summary;
+	}
+
+	private void report(Result result, Summary summary, VerifyListener listener) {
+		switch (result.status) {
+		case OK: summary.ok++; break;
+		case FAILED: summary.failed++; break;
+		case MISSING: summary.missing++; break;
+		default: summary.errors++;
+		}
+		listener.entryVerified(result.entry, result.file, result.status, result.detail);
+	}
+
+	/**
+	 * Verifies a single entry; called on a worker thread
+	 */
+	private Result verify(FileObject manifest, ManifestEntry entry, String defaultAlgorithm, FileSystemLimiter limiter) {
+		Result result = new Result();
+		result.entry = entry;
+
+		if (!entry.isValid()) {
+			result.detail = "Improperly formatted line";
+			return result;
+		}
+
+		try {
+			String fileName = entry.fileName;
+			if (fileName == null) {
+				String baseName = manifest.getName().getBaseName();
+				String extension = manifest.getName().getExtension();
+				if (defaultAlgorithm == null) {
+					result.detail = "Target file name can not be deduced";
+					return result;
+				}
+				fileName = baseName.substring(0, baseName.length() - extension.length() - 1);
+			}
+
+			String algorithm = entry.algorithm;
+			if (algorithm == null) {
+				algorithm = defaultAlgorithm;
+			}
+			if (algorithm == null) {
+				algorithm = ManifestReader.algorithmFromLength(entry.checksum);
+			}
+			if (algorithm == null) {
+				result.detail = "Algorithm can not be deduced";
+				return result;
+			}
+
+			result.file = manifest.getParent().resolveFile(fileName);
+			if (!result.file.exists()) {
+				result.status = MISSING;
+				return result;
+			}
+
+			BigInteger actual;
+			limiter.acquire(result.file);
+			try {
+				actual = this.digestEngine.calculate(result.file, algorithm);
+			}
+			finally {
+				limiter.release(result.file);
+			}
+
+			result.status = (actual.equals(new BigInteger(entry.checksum, 16)) ? OK : FAILED);
+			result.detail = this.digestEngine.toString(actual, algorithm);
+		}
+		catch (FileSystemException e) {
+			result.status = ERROR;
+			result.detail = e.getMessage();
+		}
+		return result;
+	}
+
+}
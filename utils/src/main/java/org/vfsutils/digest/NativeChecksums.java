@@ -0,0 +1,67 @@
+package org.vfsutils.digest;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+
+/**
+ * Resolves native checksums with a resolver per URI scheme. Schemes without
+ * a resolver of their own use the default resolver, which by default looks
+ * for checksum attributes; registering null for a scheme disables the lookup
+ * for that scheme.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class NativeChecksums implements ChecksumResolver {
+
+	private Map resolvers = new HashMap();
+	private ChecksumResolver defaultResolver;
+
+	public NativeChecksums() {
+		this(new AttributeChecksumResolver());
+	}
+
+	public NativeChecksums(ChecksumResolver defaultResolver) {
+		this.defaultResolver = defaultResolver;
+	}
+
+	/**
+	 * Sets the resolver for the files with the given scheme
+	 * @param scheme e.g. webdav
+	 * @param resolver the resolver or null to never resolve checksums for the scheme
+	 */
+	public synchronized void setResolver(String scheme, ChecksumResolver resolver) {
+		this.resolvers.put(scheme, resolver);
+	}
+
+	/**
+	 * Removes the resolver of the scheme so that the default resolver is used
+	 * @param scheme
+	 */
+	public synchronized void removeResolver(String scheme) {
+		this.resolvers.remove(scheme);
+	}
+
+	public synchronized void setDefaultResolver(ChecksumResolver defaultResolver) {
+		this.defaultResolver = defaultResolver;
+	}
+
+	public synchronized ChecksumResolver getResolver(String scheme) {
+		if (this.resolvers.containsKey(scheme)) {
+			return (ChecksumResolver) this.resolvers.get(scheme);
+		}
+		return this.defaultResolver;
+	}
+
+	public BigInteger resolve(FileObject file, String algorithm) throws FileSystemException {
+		ChecksumResolver resolver = getResolver(file.getName().getScheme());
+		if (resolver == null) {
+			return null;
+		}
+		return resolver.resolve(file, algorithm);
+	}
+
+}
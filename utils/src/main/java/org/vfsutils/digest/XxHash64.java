@@ -0,0 +1,167 @@
+package org.vfsutils.digest;
+
+import java.security.MessageDigest;
+
+/**
+ * Streaming implementation of the 64 bit xxHash algorithm. It is a very fast
+ * non-cryptographic hash that is well suited for change detection. The digest
+ * is the big-endian (canonical) representation of the hash value.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class XxHash64 extends MessageDigest {
+
+	private static final long PRIME1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME3 = 0x165667B19E3779F9L;
+	private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+	private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+	private long seed;
+	private long v1, v2, v3, v4;
+	private long totalLength;
+	private byte[] buffer = new byte[32];
+	private int bufferSize;
+
+	public XxHash64() {
+		this(0);
+	}
+
+	public XxHash64(long seed) {
+		super(DigestEngine.XXHASH64);
+		this.seed = seed;
+		engineReset();
+	}
+
+	protected void engineReset() {
+		v1 = seed + PRIME1 + PRIME2;
+		v2 = seed + PRIME2;
+		v3 = seed;
+		v4 = seed - PRIME1;
+		totalLength = 0;
+		bufferSize = 0;
+	}
+
+	protected int engineGetDigestLength() {
+		return 8;
+	}
+
+	protected void engineUpdate(byte input) {
+		engineUpdate(new byte[] {input}, 0, 1);
+	}
+
+	protected void engineUpdate(byte[] input, int offset, int len) {
+		totalLength += len;
+
+		//complete a partially filled stripe first
+		if (bufferSize > 0) {
+			int fill = Math.min(32 - bufferSize, len);
+			System.arraycopy(input, offset, buffer, bufferSize, fill);
+			bufferSize += fill;
+			offset += fill;
+			len -= fill;
+			if (bufferSize < 32) {
+				return;
+			}
+			processStripe(buffer, 0);
+			bufferSize = 0;
+		}
+
+		int end = offset + len;
+		while (offset + 32 <= end) {
+			processStripe(input, offset);
+			offset += 32;
+		}
+
+		if (offset < end) {
+			bufferSize = end - offset;
+			System.arraycopy(input, offset, buffer, 0, bufferSize);
+		}
+	}
+
+	protected byte[] engineDigest() {
+		long h;
+		if (totalLength >= 32) {
+			h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7)
+				+ Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+			h = mergeRound(h, v1);
+			h = mergeRound(h, v2);
+			h = mergeRound(h, v3);
+			h = mergeRound(h, v4);
+		}
+		else {
+			h = seed + PRIME5;
+		}
+
+		h += totalLength;
+
+		int pos = 0;
+		while (pos + 8 <= bufferSize) {
+			h ^= round(0, readLong(buffer, pos));
+			h = Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+			pos += 8;
+		}
+		if (pos + 4 <= bufferSize) {
+			h ^= (readInt(buffer, pos) & 0xFFFFFFFFL) * PRIME1;
+			h = Long.rotateLeft(h, 23) * PRIME2 + PRIME3;
+			pos += 4;
+		}
+		while (pos < bufferSize) {
+			h ^= (buffer[pos] & 0xFF) * PRIME5;
+			h = Long.rotateLeft(h, 11) * PRIME1;
+			pos++;
+		}
+
+		h ^= h >>> 33;
+		h *= PRIME2;
+		h ^= h >>> 29;
+		h *= PRIME3;
+		h ^= h >>> 32;
+
+		engineReset();
+
+		byte[] result = new byte[8];
+		for (int i=7; i>=0; i--) {
+			result[i] = (byte) h;
+			h >>>= 8;
+		}
+		return result;
+	}
+
+	private void processStripe(byte[] b, int off) {
+		v1 = round(v1, readLong(b, off));
+		v2 = round(v2, readLong(b, off + 8));
+		v3 = round(v3, readLong(b, off + 16));
+		v4 = round(v4, readLong(b, off + 24));
+	}
+
+	private static long round(long acc, long input) {
+		acc += input * PRIME2;
+		acc = Long.rotateLeft(acc, 31);
+		return acc * PRIME1;
+	}
+
+	private static long mergeRound(long acc, long val) {
+		acc ^= round(0, val);
+		return acc * PRIME1 + PRIME4;
+	}
+
+	private static long readLong(byte[] b, int off) {
+		return (b[off] & 0xFFL)
+			| (b[off + 1] & 0xFFL) << 8
+			| (b[off + 2] & 0xFFL) << 16
+			| (b[off + 3] & 0xFFL) << 24
+			| (b[off + 4] & 0xFFL) << 32
+			| (b[off + 5] & 0xFFL) << 40
+			| (b[off + 6] & 0xFFL) << 48
+			| (b[off + 7] & 0xFFL) << 56;
+	}
+
+	private static int readInt(byte[] b, int off) {
+		return (b[off] & 0xFF)
+			| (b[off + 1] & 0xFF) << 8
+			| (b[off + 2] & 0xFF) << 16
+			| (b[off + 3] & 0xFF) << 24;
+	}
+
+}
@@ -0,0 +1,224 @@
+package org.vfsutils.selector;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSelectInfo;
+import org.apache.commons.vfs2.FileSelector;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileType;
+
+/**
+ * Selects files by include and exclude patterns on their path relative to
+ * a base folder. The patterns use the syntax of {@link FilenameSelector}
+ * with a few additions for the common case of excluding names anywhere in a
+ * tree:
+ * <ul>
+ * <li>a pattern without a separator matches the name at any depth, e.g.
+ * <code>.git</code> or <code>*.class</code></li>
+ * <li>a pattern that starts with a separator only matches relative to the
+ * base folder, e.g. <code>/build</code></li>
+ * <li>a pattern that ends with a separator only matches folders, e.g.
+ * <code>target/</code></li>
+ * </ul>
+ * A path is selected when it is not excluded and, if there are includes, it
+ * or one of its parent folders matches an include. An excluded folder is
+ * excluded with everything it contains, so it does not have to be listed;
+ * {@link #traverse(String)} tells whether a folder has to be listed at all.
+ * @author kleij - at - users.sourceforge.net
+ *
+ */
+public class PathFilter implements FileSelector {
+
+	private static class Pattern {
+		private String pattern;
+		private boolean foldersOnly;
+	}
+
+	private List includes = new ArrayList();
+	private List excludes = new ArrayList();
+	private boolean caseSensitive = true;
+
+	public void setCaseSensitive(boolean caseSensitive) {
+		this.caseSensitive = caseSensitive;
+	}
+
+	/**
+	 * @param patterns one or more patterns separated by commas
+	 */
+	public void addIncludes(String patterns) {
+		add(this.includes, patterns);
+	}
+
+	/**
+	 * @param patterns one or more patterns separated by commas
+	 */
+	public void addExcludes(String patterns) {
+		add(this.excludes, patterns);
+	}
+
+	/**
+	 * Reads exclude patterns, one per line; empty lines and lines starting
+	 * with # are ignored
+	 * @param file
+	 * @throws FileSystemException
+	 */
+	public void addExcludes(FileObject file) throws FileSystemException {
+		InputStream in = file.getContent().getInputStream();
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() > 0 && !line.startsWith("#")) {
+					this.excludes.add(createPattern(line));
+				}
+			}
+		}
+		catch (IOException e) {
+			throw new FileSystemException(e);
+		}
+		finally {
+			try {
+				in.close();
+			}
+			catch (IOException e) {
+				//ignore
+			}
+		}
+	}
+
+	private void add(List list, String patterns) {
+		StringTokenizer tokenizer = new StringTokenizer(patterns, ",");
+		while (tokenizer.hasMoreTokens()) {
+			String pattern = tokenizer.nextToken().trim();
+			if (pattern.length() > 0) {
+				list.add(createPattern(pattern));
+			}
+		}
+	}
+
+	private Pattern createPattern(String value) {
+		Pattern pattern = new Pattern();
+		String p = value.replace('\\', '/');
+		if (p.endsWith("/")) {
+			pattern.foldersOnly = true;
+			p = p.substring(0, p.length() - 1);
+		}
+		if (p.startsWith("/")) {
+			p = p.substring(1);
+		}
+		else if (p.indexOf('/') < 0) {
+			p = "**/" + p;
+		}
+		pattern.pattern = p;
+		return pattern;
+	}
+
+	/**
+	 * @return whether there are no patterns at all
+	 */
+	public boolean isEmpty() {
+		return this.includes.isEmpty() && this.excludes.isEmpty();
+	}
+
+	/**
+	 * @param path the path relative to the base folder
+	 * @param folder whether the path is a folder
+	 * @return whether the file or folder is selected
+	 */
+	public boolean accept(String path, boolean folder) {
+		if (matches(this.excludes, path, folder)) {
+			return false;
+		}
+		if (this.includes.isEmpty()) {
+			return true;
+		}
+		if (matches(this.includes, path, folder)) {
+			return true;
+		}
+		//a file in an included folder is included
+		int sep = path.lastIndexOf('/');
+		while (sep > 0) {
+			path = path.substring(0, sep);
+			if (matches(this.includes, path, true)) {
+				return true;
+			}
+			sep = path.lastIndexOf('/');
+		}
+		return false;
+	}
+
+	/**
+	 * @param path the path of a folder relative to the base folder
+	 * @return whether the folder can contain selected files, so whether it
+	 * has to be listed
+	 */
+	public boolean traverse(String path) {
+		if (matches(this.excludes, path, true)) {
+			return false;
+		}
+		if (this.includes.isEmpty() || accept(path, true)) {
+			return true;
+		}
+		for (int i=0; i<this.includes.size(); i++) {
+			Pattern include = (Pattern) this.includes.get(i);
+			if (SelectorUtils.matchPatternStart(include.pattern, path, this.caseSensitive)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks a path together with its parent folders, for paths that are
+	 * not found by walking the tree from the base folder
+	 * @param path the path relative to the base folder
+	 * @param folder whether the path is a folder
+	 * @return whether none of the parent folders is pruned and the path is selected
+	 */
+	public boolean acceptWithParents(String path, boolean folder) {
+		int sep = path.indexOf('/');
+		while (sep > 0) {
+			if (!traverse(path.substring(0, sep))) {
+				return false;
+			}
+			sep = path.indexOf('/', sep + 1);
+		}
+		return (folder ? traverse(path) : accept(path, false));
+	}
+
+	private boolean matches(List patterns, String path, boolean folder) {
+		for (int i=0; i<patterns.size(); i++) {
+			Pattern pattern = (Pattern) patterns.get(i);
+			if ((folder || !pattern.foldersOnly)
+					&& SelectorUtils.matchPath(pattern.pattern, path, this.caseSensitive)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public boolean includeFile(FileSelectInfo fileInfo) throws Exception {
+		if (fileInfo.getDepth() == 0) {
+			return false;
+		}
+		FileObject file = fileInfo.getFile();
+		return accept(fileInfo.getBaseFolder().getName().getRelativeName(file.getName()),
+				file.getType().equals(FileType.FOLDER));
+	}
+
+	public boolean traverseDescendents(FileSelectInfo fileInfo) throws Exception {
+		if (fileInfo.getDepth() == 0) {
+			return true;
+		}
+		return traverse(fileInfo.getBaseFolder().getName().getRelativeName(fileInfo.getFile().getName()));
+	}
+
+}
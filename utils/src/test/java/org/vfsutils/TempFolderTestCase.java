@@ -0,0 +1,66 @@
+package org.vfsutils;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.Selectors;
+import org.apache.commons.vfs2.VFS;
+
+/**
+ * Offers a local temporary folder that is removed after each test, with
+ * helpers to write and read the files in it
+ */
+public abstract class TempFolderTestCase extends TestCase {
+
+	protected FileObject base;
+
+	protected void setUp() throws Exception {
+		File tmp = File.createTempFile("vfsutils", "");
+		tmp.delete();
+		base = VFS.getManager().toFileObject(tmp);
+		base.createFolder();
+	}
+
+	protected void tearDown() throws Exception {
+		base.delete(Selectors.SELECT_ALL);
+	}
+
+	/**
+	 * @return content of the given size without repeating short patterns
+	 */
+	protected static byte[] data(int size) {
+		byte[] data = new byte[size];
+		for (int i=0; i<size; i++) {
+			data[i] = (byte) (i * 31 + i / 7);
+		}
+		return data;
+	}
+
+	protected FileObject write(String name, byte[] data) throws Exception {
+		FileObject file = base.resolveFile(name);
+		OutputStream out = file.getContent().getOutputStream();
+		out.write(data);
+		out.close();
+		return file;
+	}
+
+	protected FileObject write(String name, String content) throws Exception {
+		return write(name, content.getBytes("UTF-8"));
+	}
+
+	protected static byte[] read(FileObject file) throws Exception {
+		file.refresh();
+		byte[] data = new byte[(int) file.getContent().getSize()];
+		InputStream in = file.getContent().getInputStream();
+		int offset = 0;
+		while (offset < data.length) {
+			offset += in.read(data, offset, data.length - offset);
+		}
+		in.close();
+		return data;
+	}
+}
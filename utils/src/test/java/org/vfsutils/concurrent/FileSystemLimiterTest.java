@@ -0,0 +1,126 @@
+package org.vfsutils.concurrent;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.VFS;
+
+public class FileSystemLimiterTest extends TestCase {
+
+	private FileObject ram1;
+	private FileObject ram2;
+	private FileObject local;
+
+	protected void setUp() throws Exception {
+		ram1 = VFS.getManager().resolveFile("ram:///limiter/one");
+		ram2 = VFS.getManager().resolveFile("ram:///limiter/two");
+		local = VFS.getManager().toFileObject(new File(System.getProperty("java.io.tmpdir")));
+	}
+
+	/**
+	 * Tries to acquire the file system of the file from another thread
+	 */
+	private boolean canAcquire(final FileSystemLimiter limiter, final FileObject file) throws Exception {
+		final boolean[] acquired = new boolean[1];
+		Thread thread = new Thread() {
+			public void run() {
+				acquired[0] = limiter.tryAcquire(file);
+				if (acquired[0]) {
+					limiter.release(file);
+				}
+			}
+		};
+		thread.start();
+		thread.join();
+		return acquired[0];
+	}
+
+	public void testLimit() throws Exception {
+		FileSystemLimiter limiter = new FileSystemLimiter(2);
+		limiter.acquire(ram1);
+		assertTrue(canAcquire(limiter, ram2));
+		limiter.acquire(ram2);
+		assertFalse(canAcquire(limiter, ram1));
+		// other file systems have their own permits
+		assertTrue(canAcquire(limiter, local));
+		limiter.release(ram1);
+		assertTrue(canAcquire(limiter, ram1));
+		limiter.release(ram2);
+	}
+
+	public void testSetLimit() throws Exception {
+		FileSystemLimiter limiter = new FileSystemLimiter(1);
+		limiter.setLimit(local.getFileSystem(), 0);
+		limiter.acquire(local);
+		limiter.acquire(local);
+		assertTrue(canAcquire(limiter, local));
+		limiter.release(local);
+		limiter.release(local);
+	}
+
+	public void testPairOnOneFileSystem() throws Exception {
+		// with a single permit the pair only takes one
+		FileSystemLimiter limiter = new FileSystemLimiter(1);
+		limiter.acquire(ram1, ram2);
+		assertFalse(canAcquire(limiter, ram1));
+		limiter.release(ram1, ram2);
+		assertTrue(canAcquire(limiter, ram1));
+
+		limiter.acquireAll(new FileObject[] {ram1, local, ram2, local});
+		assertFalse(canAcquire(limiter, ram2));
+		assertFalse(canAcquire(limiter, local));
+		limiter.releaseAll(new FileObject[] {ram1, local, ram2, local});
+		assertTrue(canAcquire(limiter, ram2));
+		assertTrue(canAcquire(limiter, local));
+	}
+
+	public void testOppositeOrder() throws Exception {
+		final FileSystemLimiter limiter = new FileSystemLimiter(1);
+		final Exception[] failure = new Exception[1];
+		Thread[] threads = new Thread[4];
+		for (int i=0; i<threads.length; i++) {
+			final boolean reverse = (i % 2 == 1);
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						for (int j=0; j<200; j++) {
+							FileObject first = (reverse ? local : ram1);
+							FileObject second = (reverse ? ram1 : local);
+							limiter.acquire(first, second);
+							limiter.release(first, second);
+						}
+					}
+					catch (FileSystemException e) {
+						failure[0] = e;
+					}
+				}
+			};
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+		for (int i=0; i<threads.length; i++) {
+			threads[i].join(10000);
+			assertFalse("deadlock", threads[i].isAlive());
+		}
+		assertNull(failure[0]);
+	}
+
+	public void testInterrupted() throws Exception {
+		FileSystemLimiter limiter = new FileSystemLimiter(1);
+		limiter.acquire(ram1);
+		Thread.currentThread().interrupt();
+		try {
+			limiter.acquireAll(new FileObject[] {local, ram2});
+			fail("the interrupt is ignored");
+		}
+		catch (FileSystemException e) {
+			assertTrue(Thread.interrupted());
+		}
+		// the permit of the local file system was given back
+		assertTrue(canAcquire(limiter, local));
+		limiter.release(ram1);
+	}
+}
@@ -0,0 +1,110 @@
+package org.vfsutils.concurrent;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class TaskGroupTest extends TestCase {
+
+	private ExecutorService executor;
+
+	protected void setUp() throws Exception {
+		executor = Executors.newFixedThreadPool(4);
+	}
+
+	protected void tearDown() throws Exception {
+		executor.shutdownNow();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+	}
+
+	private void submitTree(final TaskGroup group, final int depth, final AtomicInteger count) {
+		group.submit(new TaskGroup.Task() {
+			public void run() throws Exception {
+				count.incrementAndGet();
+				Thread.sleep(1);
+				if (depth > 0) {
+					submitTree(group, depth - 1, count);
+					submitTree(group, depth - 1, count);
+				}
+			}
+		});
+	}
+
+	public void testAwait() throws Exception {
+		TaskGroup group = new TaskGroup(executor);
+		AtomicInteger count = new AtomicInteger();
+		submitTree(group, 6, count);
+		group.await();
+		// the tasks that were submitted by other tasks are awaited as well
+		assertEquals(127, count.get());
+		assertFalse(group.isFailed());
+	}
+
+	public void testFailure() throws Exception {
+		final TaskGroup group = new TaskGroup(executor);
+		final AtomicInteger count = new AtomicInteger();
+		group.submit(new TaskGroup.Task() {
+			public void run() throws Exception {
+				throw new IOException("first");
+			}
+		});
+		group.submit(new TaskGroup.Task() {
+			public void run() throws Exception {
+				Thread.sleep(50);
+				throw new IOException("second");
+			}
+		});
+		try {
+			group.await();
+			fail("the failure is not rethrown");
+		}
+		catch (IOException e) {
+			assertEquals("first", e.getMessage());
+		}
+		assertTrue(group.isFailed());
+
+		// no new tasks are started after a failure
+		submitTree(group, 3, count);
+		try {
+			group.await();
+			fail("the failure is not rethrown");
+		}
+		catch (IOException e) {
+			assertEquals("first", e.getMessage());
+		}
+		assertEquals(0, count.get());
+	}
+
+	public void testError() throws Exception {
+		TaskGroup group = new TaskGroup(executor);
+		group.submit(new TaskGroup.Task() {
+			public void run() throws Exception {
+				throw new OutOfMemoryError("test");
+			}
+		});
+		try {
+			group.await();
+			fail("the error is not rethrown");
+		}
+		catch (OutOfMemoryError e) {
+			assertEquals("test", e.getMessage());
+		}
+	}
+
+	public void testRejected() throws Exception {
+		executor.shutdown();
+		TaskGroup group = new TaskGroup(executor);
+		submitTree(group, 0, new AtomicInteger());
+		try {
+			group.await();
+			fail("the rejection is not rethrown");
+		}
+		catch (RuntimeException e) {
+			//expected
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package org.vfsutils.content;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.vfs2.Capability;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.VFS;
+
+public class CachingRandomAccessContentTest extends TestCase {
+
+	private File zip;
+	private byte[] data;
+	private FileObject entry;
+
+	protected void setUp() throws Exception {
+		data = new byte[1050];
+		for (int i=0; i<data.length; i++) {
+			data[i] = (byte) (i * 7 + i / 3);
+		}
+		// entries of a zip file can only be streamed
+		zip = File.createTempFile("caching", ".zip");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+		out.putNextEntry(new ZipEntry("entry"));
+		out.write(data);
+		out.close();
+		entry = VFS.getManager().resolveFile("zip:" + zip.toURI() + "!/entry");
+		assertFalse(entry.getFileSystem().hasCapability(Capability.RANDOM_ACCESS_READ));
+	}
+
+	protected void tearDown() throws Exception {
+		VFS.getManager().closeFileSystem(entry.getFileSystem());
+		zip.delete();
+	}
+
+	private void assertRead(CachingRandomAccessContent rac, int pos, int len) throws Exception {
+		rac.seek(pos);
+		byte[] b = new byte[len];
+		rac.readFully(b);
+		for (int i=0; i<len; i++) {
+			assertEquals(data[pos + i], b[i]);
+		}
+		assertEquals(pos + len, rac.getFilePointer());
+	}
+
+	public void testSpill() throws Exception {
+		CachingRandomAccessContent rac = new CachingRandomAccessContent(entry, 100, 300, true);
+		assertEquals(data.length, rac.length());
+
+		// the skipped pages are kept as well
+		assertRead(rac, 1040, 10);
+		assertEquals(data.length, rac.getBytesFetched());
+		assertEquals(1, rac.getMisses());
+
+		// pages 1 to 3 come back from the spill file
+		assertRead(rac, 150, 200);
+		assertEquals(3, rac.getSpillHits());
+		assertEquals(0, rac.getHits());
+		assertRead(rac, 300, 10);
+		assertEquals(1, rac.getHits());
+
+		assertRead(rac, 1000, 50);
+		assertEquals(4, rac.getSpillHits());
+		assertEquals(data.length, rac.getBytesFetched());
+		rac.close();
+	}
+
+	public void testWithoutSpill() throws Exception {
+		CachingRandomAccessContent rac = new CachingRandomAccessContent(entry, 100, 300, false);
+		assertRead(rac, 900, 100);
+		assertRead(rac, 0, 10);
+		assertEquals(1000 + 100, rac.getBytesFetched());
+		// page 9 is still cached, page 10 is read on from page 1
+		assertRead(rac, 950, 100);
+		assertEquals(1, rac.getHits());
+		assertEquals(3, rac.getMisses());
+		assertEquals(1100 + 950, rac.getBytesFetched());
+
+		rac.seek(data.length);
+		assertEquals(-1, rac.getInputStream().read());
+		rac.close();
+	}
+}
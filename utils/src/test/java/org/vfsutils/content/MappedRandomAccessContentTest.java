@@ -0,0 +1,86 @@
+package org.vfsutils.content;
+
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.VFS;
+
+public class MappedRandomAccessContentTest extends TestCase {
+
+	private File file;
+
+	protected void setUp() throws Exception {
+		file = File.createTempFile("mapped", ".bin");
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+		for (int i=0; i<3000; i++) {
+			out.writeInt(i);
+		}
+		out.writeLong(Long.MIN_VALUE);
+		out.writeUTF("end");
+		out.close();
+	}
+
+	protected void tearDown() throws Exception {
+		file.delete();
+	}
+
+	public void testRead() throws Exception {
+		FileObject fo = VFS.getManager().toFileObject(file);
+		MappedRandomAccessContent rac = new MappedRandomAccessContent(fo);
+		assertEquals(file.length(), rac.length());
+		rac.seek(4 * 1500);
+		assertEquals(1500, rac.readInt());
+		rac.seek(0);
+		assertEquals(0, rac.readInt());
+		rac.close();
+	}
+
+	public void testWindows() throws Exception {
+		MappedRandomAccessContent rac = new MappedRandomAccessContent(file, 4096);
+		// an int that crosses the window boundary
+		rac.seek(4094);
+		rac.readShort();
+		assertEquals(1024, rac.readInt());
+		rac.seek(4 * 2999);
+		assertEquals(2999, rac.readInt());
+		assertEquals(Long.MIN_VALUE, rac.readLong());
+		assertEquals("end", rac.readUTF());
+		try {
+			rac.readByte();
+			fail("the end of the content is not reported");
+		}
+		catch (EOFException e) {
+			//expected
+		}
+
+		byte[] all = new byte[(int) file.length()];
+		rac.seek(0);
+		rac.readFully(all);
+		assertEquals((byte) 2999, all[4 * 2999 + 3]);
+
+		rac.seek(4 * 2000);
+		InputStream in = rac.getInputStream();
+		assertEquals(4 * 1000 + 8 + 5, in.available());
+		assertEquals(8, in.skip(8));
+		assertEquals(0, in.read());
+		assertEquals(4 * 2002 + 1, rac.getFilePointer());
+		rac.close();
+	}
+
+	public void testNotLocal() throws Exception {
+		try {
+			new MappedRandomAccessContent(VFS.getManager().resolveFile("ram:///mapped"));
+			fail("only local files can be mapped");
+		}
+		catch (FileSystemException e) {
+			//expected
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package org.vfsutils.content;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.VFS;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+
+public class RandomAccessContentInputStreamTest extends TestCase {
+
+	private File zip;
+	private byte[] data;
+	private FileObject entry;
+
+	protected void setUp() throws Exception {
+		data = new byte[300000];
+		for (int i=0; i<data.length; i++) {
+			data[i] = (byte) (i * 11 + i / 9);
+		}
+		// entries of a zip file can only be streamed
+		zip = File.createTempFile("racin", ".zip");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+		out.putNextEntry(new ZipEntry("entry"));
+		out.write(data);
+		out.close();
+		entry = VFS.getManager().resolveFile("zip:" + zip.toURI() + "!/entry");
+	}
+
+	protected void tearDown() throws Exception {
+		VFS.getManager().closeFileSystem(entry.getFileSystem());
+		zip.delete();
+	}
+
+	private void assertStream(InputStream in, int offset) throws Exception {
+		byte[] b = new byte[1000];
+		int pos = offset;
+		int read;
+		while ((read = in.read(b)) > -1) {
+			for (int i=0; i<read; i++) {
+				assertEquals(data[pos + i], b[i]);
+			}
+			pos += read;
+		}
+		assertEquals(data.length, pos);
+		in.close();
+	}
+
+	public void testOpen() throws Exception {
+		InputStream in = RandomAccessContentInputStream.open(entry, 0);
+		// read ahead from the start as well
+		assertTrue(in instanceof RandomAccessContentInputStream);
+		assertStream(in, 0);
+		assertStream(RandomAccessContentInputStream.open(entry, 123457), 123457);
+	}
+
+	public void testSharedContent() throws Exception {
+		RandomAccessContent rac = RandomAccessContentInputStream.openContent(entry);
+		rac.seek(200000);
+		assertStream(new RandomAccessContentInputStream(rac, false), 200000);
+		// the content stays open and can seek back
+		rac.seek(1000);
+		assertStream(new RandomAccessContentInputStream(rac, false), 1000);
+		rac.close();
+	}
+
+	public void testPseudoSeek() throws Exception {
+		PseudoRandomAccessContent rac = new PseudoRandomAccessContent(entry, RandomAccessMode.READ);
+		rac.seek(5000);
+		assertEquals(data[5000], rac.readByte());
+		rac.seek(7000);
+		assertEquals(data[7000], rac.readByte());
+		rac.seek(10);
+		assertEquals(data[10], rac.readByte());
+
+		InputStream in = new RandomAccessContentInputStream(rac);
+		assertEquals(data.length - 11, in.available());
+		assertEquals(100, in.skip(100));
+		assertEquals(data[111] & 0xff, in.read());
+		in.close();
+	}
+}
@@ -0,0 +1,130 @@
+package org.vfsutils.content;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.VFS;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+
+public class RandomAccessContentOutputStreamTest extends TestCase {
+
+	private FileObject file;
+
+	protected void setUp() throws Exception {
+		file = VFS.getManager().resolveFile("ram:///racout/file");
+		OutputStream out = file.getContent().getOutputStream();
+		out.write("0123456789".getBytes("US-ASCII"));
+		out.close();
+	}
+
+	protected void tearDown() throws Exception {
+		file.delete();
+	}
+
+	private String read() throws Exception {
+		file.refresh();
+		byte[] b = new byte[(int) file.getContent().getSize()];
+		InputStream in = file.getContent().getInputStream();
+		int offset = 0;
+		while (offset < b.length) {
+			offset += in.read(b, offset, b.length - offset);
+		}
+		in.close();
+		return new String(b, "US-ASCII");
+	}
+
+	public void testBuffered() throws Exception {
+		SpooledRandomAccessContent rac = new SpooledRandomAccessContent(file, RandomAccessMode.READWRITE);
+		rac.seek(2);
+		RandomAccessContentOutputStream out = new RandomAccessContentOutputStream(rac, 4, true);
+		out.write('a');
+		out.write("bc".getBytes("US-ASCII"));
+		assertFalse(rac.isModified());
+		out.write("defgh".getBytes("US-ASCII"));
+		assertTrue(rac.isModified());
+		out.write('i');
+		out.close();
+		assertEquals("01abcdefghi", read());
+		out.close();
+	}
+
+	private void writeChunk(RandomAccessContent rac, long offset, String chunk) throws Exception {
+		rac.seek(offset);
+		OutputStream out = new RandomAccessContentOutputStream(rac, 4, false);
+		out.write(chunk.getBytes("US-ASCII"));
+		out.close();
+	}
+
+	public void testOutOfOrder() throws Exception {
+		for (int i=0; i<2; i++) {
+			file.delete();
+			RandomAccessContent rac;
+			if (i == 0) {
+				// written in place
+				rac = RandomAccessContentOutputStream.openContent(file);
+			}
+			else {
+				rac = new SpooledRandomAccessContent(file, RandomAccessMode.READWRITE);
+			}
+			// chunks written in parallel arrive in any order
+			writeChunk(rac, 6, "ghij");
+			writeChunk(rac, 0, "abc");
+			writeChunk(rac, 3, "def");
+			writeChunk(rac, 10, "k");
+			rac.close();
+			assertEquals("abcdefghijk", read());
+		}
+	}
+
+	public void testOpen() throws Exception {
+		OutputStream out = RandomAccessContentOutputStream.open(file, 8);
+		out.write("ab".getBytes("US-ASCII"));
+		out.close();
+		assertEquals("01234567ab", read());
+
+		out = RandomAccessContentOutputStream.open(file, 10);
+		out.write("cd".getBytes("US-ASCII"));
+		out.close();
+		assertEquals("01234567abcd", read());
+
+		out = RandomAccessContentOutputStream.open(file, 0);
+		out.write("new".getBytes("US-ASCII"));
+		out.close();
+		assertEquals("new", read());
+	}
+
+	public void testOpenDropsTail() throws Exception {
+		// an upload that restarts before the end of a longer file
+		OutputStream out = RandomAccessContentOutputStream.open(file, 4);
+		out.write("ab".getBytes("US-ASCII"));
+		out.close();
+		assertEquals("0123ab", read());
+
+		File local = File.createTempFile("racout", ".txt");
+		try {
+			FileObject localFile = VFS.getManager().toFileObject(local);
+			out = localFile.getContent().getOutputStream();
+			out.write("0123456789".getBytes("US-ASCII"));
+			out.close();
+
+			out = RandomAccessContentOutputStream.open(localFile, 4);
+			out.write("ab".getBytes("US-ASCII"));
+			out.close();
+			assertEquals(6, local.length());
+			localFile.refresh();
+			InputStream in = localFile.getContent().getInputStream();
+			byte[] b = new byte[6];
+			assertEquals(6, in.read(b));
+			in.close();
+			assertEquals("0123ab", new String(b, "US-ASCII"));
+		}
+		finally {
+			local.delete();
+		}
+	}
+}
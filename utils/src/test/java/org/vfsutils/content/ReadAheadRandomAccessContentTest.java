@@ -0,0 +1,84 @@
+package org.vfsutils.content;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.VFS;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+
+public class ReadAheadRandomAccessContentTest extends TestCase {
+
+	private FileObject file;
+	private byte[] data;
+
+	protected void setUp() throws Exception {
+		data = new byte[5000];
+		for (int i=0; i<data.length; i++) {
+			data[i] = (byte) (i * 13 + i / 5);
+		}
+		file = VFS.getManager().resolveFile("ram:///readahead/file");
+		OutputStream out = file.getContent().getOutputStream();
+		out.write(data);
+		out.close();
+	}
+
+	protected void tearDown() throws Exception {
+		file.delete();
+	}
+
+	private ReadAheadRandomAccessContent open() throws Exception {
+		return new ReadAheadRandomAccessContent(file.getContent().getRandomAccessContent(RandomAccessMode.READ), 256, 3, null);
+	}
+
+	private void assertRead(ReadAheadRandomAccessContent rac, int len) throws Exception {
+		int pos = (int) rac.getFilePointer();
+		byte[] b = new byte[len];
+		rac.readFully(b);
+		for (int i=0; i<len; i++) {
+			assertEquals(data[pos + i], b[i]);
+		}
+	}
+
+	public void testSequential() throws Exception {
+		ReadAheadRandomAccessContent rac = open();
+		assertRead(rac, 100);
+		assertRead(rac, 100);
+		assertFalse(rac.isReadingAhead());
+		while (rac.getFilePointer() < data.length) {
+			assertRead(rac, (int) Math.min(100, data.length - rac.getFilePointer()));
+		}
+		assertTrue(rac.isReadingAhead());
+		assertEquals(-1, rac.getInputStream().read());
+		assertTrue(rac.getBlocksReadAhead() > 0);
+		rac.close();
+	}
+
+	public void testSeek() throws Exception {
+		ReadAheadRandomAccessContent rac = open();
+		for (int i=0; i<3; i++) {
+			assertRead(rac, 100);
+		}
+		assertTrue(rac.isReadingAhead());
+
+		// within the blocks read ahead
+		rac.seek(700);
+		assertRead(rac, 50);
+		assertTrue(rac.isReadingAhead());
+
+		rac.seek(10);
+		assertFalse(rac.isReadingAhead());
+		assertEquals(1, rac.getCancelled());
+		assertRead(rac, 100);
+
+		rac.seek(4000);
+		InputStream in = rac.getInputStream();
+		for (int i=4000; i<data.length; i++) {
+			assertEquals(data[i] & 0xff, in.read());
+		}
+		assertEquals(-1, in.read());
+		rac.close();
+	}
+}
@@ -0,0 +1,89 @@
+package org.vfsutils.content;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.VFS;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+
+public class SpooledRandomAccessContentTest extends TestCase {
+
+	private FileObject file;
+
+	protected void setUp() throws Exception {
+		file = VFS.getManager().resolveFile("ram:///spooled/file");
+	}
+
+	protected void tearDown() throws Exception {
+		file.delete();
+	}
+
+	private void write(String content) throws Exception {
+		OutputStream out = file.getContent().getOutputStream();
+		out.write(content.getBytes("US-ASCII"));
+		out.close();
+	}
+
+	private String read() throws Exception {
+		file.refresh();
+		byte[] b = new byte[(int) file.getContent().getSize()];
+		InputStream in = file.getContent().getInputStream();
+		int offset = 0;
+		while (offset < b.length) {
+			offset += in.read(b, offset, b.length - offset);
+		}
+		in.close();
+		return new String(b, "US-ASCII");
+	}
+
+	public void testOffsetWrites() throws Exception {
+		write("0123456789");
+		SpooledRandomAccessContent rac = new SpooledRandomAccessContent(file, RandomAccessMode.READWRITE);
+		assertEquals(10, rac.length());
+		rac.seek(4);
+		rac.writeBytes("ab");
+		rac.seek(12);
+		rac.writeBytes("c");
+		rac.seek(0);
+		assertEquals('0', rac.readByte());
+		assertEquals("0123456789", read());
+		rac.close();
+		assertEquals("0123ab6789\0\0c", read());
+
+		rac = new SpooledRandomAccessContent(file, RandomAccessMode.READWRITE);
+		rac.setLength(3);
+		rac.close();
+		assertEquals("012", read());
+	}
+
+	public void testSparse() throws Exception {
+		write("obsolete content");
+		SpooledRandomAccessContent rac = new SpooledRandomAccessContent(file, RandomAccessMode.READWRITE, true);
+		assertEquals(0, rac.length());
+		rac.seek(3);
+		rac.writeBytes("def");
+		rac.seek(0);
+		rac.writeBytes("abc");
+		rac.close();
+		assertEquals("abcdef", read());
+	}
+
+	public void testUnmodified() throws Exception {
+		write("content");
+		SpooledRandomAccessContent rac = new SpooledRandomAccessContent(file, RandomAccessMode.READWRITE, true);
+		rac.close();
+		assertFalse(rac.isModified());
+		assertEquals("content", read());
+
+		rac = new SpooledRandomAccessContent(file, RandomAccessMode.READ);
+		rac.seek(3);
+		InputStream in = rac.getInputStream();
+		assertEquals('t', in.read());
+		assertEquals(3, in.available());
+		assertEquals(4, rac.getFilePointer());
+		rac.close();
+	}
+}
@@ -0,0 +1,58 @@
+package org.vfsutils.copy;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.vfsutils.TempFolderTestCase;
+import org.vfsutils.digest.ChecksumCache;
+import org.vfsutils.digest.DigestEngine;
+
+public class CopyVerifierTest extends TempFolderTestCase {
+
+	private File cacheFile;
+	private DigestEngine digestEngine;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		cacheFile = File.createTempFile("verify", ".cache");
+		cacheFile.delete();
+		digestEngine = new DigestEngine();
+		digestEngine.setChecksumCache(new ChecksumCache(cacheFile));
+	}
+
+	protected void tearDown() throws Exception {
+		digestEngine.getChecksumCache().close();
+		cacheFile.delete();
+		super.tearDown();
+	}
+
+	public void testVerify() throws Exception {
+		FileObject src = write("src", "some content to copy");
+		FileObject dest = base.resolveFile("dest");
+		CopyVerifier verifier = new CopyVerifier(digestEngine, "md5");
+		MessageDigest digest = verifier.createDigest();
+		new PipelinedCopier().copy(src, dest, null, digest);
+
+		BigInteger expected = digestEngine.digest(src, new String[] {DigestEngine.MD5})[0];
+		assertEquals(expected, verifier.verify(src, dest, digest));
+		assertEquals(expected, digestEngine.getChecksumCache().get(dest, DigestEngine.MD5));
+		assertEquals(expected, digestEngine.getChecksumCache().get(src, DigestEngine.MD5));
+	}
+
+	public void testDifference() throws Exception {
+		FileObject src = write("src", "some content to copy");
+		FileObject dest = write("dest", "some content to cope");
+		CopyVerifier verifier = new CopyVerifier(digestEngine, DigestEngine.SHA256);
+		try {
+			verifier.verify(src, dest, null);
+			fail("the difference is not detected");
+		}
+		catch (FileSystemException e) {
+			//expected
+		}
+		assertNull(digestEngine.getChecksumCache().get(dest, DigestEngine.SHA256));
+	}
+}
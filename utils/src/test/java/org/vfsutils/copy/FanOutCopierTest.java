@@ -0,0 +1,40 @@
+package org.vfsutils.copy;
+
+import java.util.Arrays;
+
+import org.apache.commons.vfs2.FileObject;
+import org.vfsutils.TempFolderTestCase;
+
+public class FanOutCopierTest extends TempFolderTestCase {
+
+	private FanOutCopier copier;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		copier = new FanOutCopier();
+		copier.setBlockSize(1000);
+		copier.setQueueSize(4);
+	}
+
+	protected void tearDown() throws Exception {
+		copier.close();
+		super.tearDown();
+	}
+
+	public void testCopy() throws Exception {
+		byte[] data = data(25500);
+		FileObject src = write("src", data);
+
+		// a file as parent makes the last destination fail
+		base.resolveFile("blocked").createFile();
+		FileObject[] dests = {base.resolveFile("a/file"), base.resolveFile("b"), base.resolveFile("blocked/file")};
+
+		FanOutCopier.Result[] results = copier.copy(src, dests);
+		assertEquals(FanOutCopier.OK, results[0].status);
+		assertEquals(FanOutCopier.OK, results[1].status);
+		assertEquals(FanOutCopier.FAILED, results[2].status);
+		assertNotNull(results[2].failure);
+		assertTrue(Arrays.equals(data, read(dests[0])));
+		assertTrue(Arrays.equals(data, read(dests[1])));
+	}
+}
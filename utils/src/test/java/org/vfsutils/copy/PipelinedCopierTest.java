@@ -0,0 +1,118 @@
+package org.vfsutils.copy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.Selectors;
+import org.apache.commons.vfs2.VFS;
+import org.vfsutils.TempFolderTestCase;
+
+public class PipelinedCopierTest extends TempFolderTestCase {
+
+	private PipelinedCopier copier;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		copier = new PipelinedCopier();
+		copier.setBufferSize(1000);
+		copier.setBufferCount(3);
+	}
+
+	protected void tearDown() throws Exception {
+		copier.close();
+		super.tearDown();
+	}
+
+	public void testCopy() throws Exception {
+		PipelinedCopier.Stats stats = new PipelinedCopier.Stats();
+		int[] sizes = {0, 999, 1000, 25500};
+		for (int i=0; i<sizes.length; i++) {
+			byte[] data = data(sizes[i]);
+			FileObject src = write("src" + i, data);
+
+			FileObject dest = base.resolveFile("dest/" + i);
+			assertEquals(sizes[i], copier.copy(src, dest, stats));
+			assertTrue(Arrays.equals(data, read(dest)));
+		}
+		assertEquals(4, stats.getFiles());
+		assertEquals(0 + 999 + 1000 + 25500, stats.getBytes());
+	}
+
+	public void testCopyThroughBuffers() throws Exception {
+		byte[] data = data(25500);
+		FileObject src = VFS.getManager().resolveFile("ram:///pipelined/src");
+		OutputStream out = src.getContent().getOutputStream();
+		out.write(data);
+		out.close();
+
+		FileObject dest = base.resolveFile("dest");
+		assertEquals(data.length, copier.copy(src, dest, null));
+		assertTrue(Arrays.equals(data, read(dest)));
+
+		// the local copy overwrites the existing file
+		FileObject local = base.resolveFile("local");
+		local.copyFrom(src, Selectors.SELECT_SELF);
+		OutputStream shorter = dest.getContent().getOutputStream();
+		shorter.write(data, 0, 10);
+		shorter.close();
+		assertEquals(10, copier.copy(dest, local, null));
+		assertEquals(10, local.getContent().getSize());
+		src.delete();
+	}
+
+	public void testPipe() throws Exception {
+		byte[] data = data(10500);
+		ByteArrayOutputStream target = new ByteArrayOutputStream();
+		OutputStream out = copier.pipe(target, null);
+		for (int i=0; i<data.length; i+=700) {
+			out.write(data, i, Math.min(700, data.length - i));
+		}
+		out.flush();
+		assertEquals(data.length, target.size());
+		out.close();
+		assertTrue(Arrays.equals(data, target.toByteArray()));
+	}
+
+	public void testWriteFailure() throws Exception {
+		OutputStream failing = new OutputStream() {
+			private int written = 0;
+			public void write(int b) throws IOException {
+				write(new byte[] {(byte) b}, 0, 1);
+			}
+			public void write(byte[] b, int off, int len) throws IOException {
+				written += len;
+				if (written > 2000) {
+					throw new IOException("disk full");
+				}
+			}
+		};
+		try {
+			copier.copy(new ByteArrayInputStream(data(50000)), failing, -1, null);
+			fail("the write failure is not reported");
+		}
+		catch (IOException e) {
+			assertEquals("disk full", e.getMessage());
+		}
+	}
+
+	public void testLength() throws Exception {
+		ByteArrayInputStream in = new ByteArrayInputStream(data(5000));
+		ByteArrayOutputStream target = new ByteArrayOutputStream();
+		assertEquals(3500, copier.copy(in, target, 3500, null));
+		assertEquals(3500, target.size());
+		assertEquals(1500, in.available());
+
+		try {
+			copier.copy(in, target, 2000, null);
+			fail("a short stream is not reported");
+		}
+		catch (EOFException e) {
+			//expected
+		}
+	}
+}
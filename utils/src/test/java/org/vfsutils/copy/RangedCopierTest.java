@@ -0,0 +1,65 @@
+package org.vfsutils.copy;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.apache.commons.vfs2.FileObject;
+import org.vfsutils.TempFolderTestCase;
+
+public class RangedCopierTest extends TempFolderTestCase {
+
+	private RangedCopier copier;
+	private byte[] data;
+	private FileObject src;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		copier = new RangedCopier();
+		copier.setRangeSize(10000);
+		copier.setBufferSize(999);
+		copier.setThreshold(20000);
+
+		data = data(45678);
+		src = write("src", data);
+	}
+
+	public void testInPlace() throws Exception {
+		assertTrue(copier.canCopy(src));
+
+		// a longer existing file is truncated
+		FileObject dest = base.resolveFile("dest");
+		OutputStream out = dest.getContent().getOutputStream();
+		out.write(new byte[50000]);
+		out.close();
+
+		assertEquals(5, copier.copy(src, dest, 3));
+		assertTrue(Arrays.equals(data, read(dest)));
+	}
+
+	public void testPartFiles() throws Exception {
+		copier.setPartFiles(true);
+		FileObject dest = base.resolveFile("dest");
+		assertEquals(3, copier.copy(src, dest, 3));
+		assertTrue(Arrays.equals(data, read(dest)));
+		assertEquals(2, base.getChildren().length);
+	}
+
+	public void testPartFilesKeepOtherFiles() throws Exception {
+		copier.setPartFiles(true);
+		FileObject dest = base.resolveFile("dest");
+		FileObject other = base.resolveFile("dest.part0");
+		OutputStream out = other.getContent().getOutputStream();
+		out.write(new byte[] {1, 2, 3});
+		out.close();
+
+		assertEquals(3, copier.copy(src, dest, 3));
+		assertTrue(Arrays.equals(data, read(dest)));
+		assertTrue(Arrays.equals(new byte[] {1, 2, 3}, read(other)));
+		assertEquals(3, base.getChildren().length);
+	}
+
+	public void testThreshold() throws Exception {
+		copier.setThreshold(data.length + 1);
+		assertFalse(copier.canCopy(src));
+	}
+}
@@ -0,0 +1,71 @@
+package org.vfsutils.copy;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.vfsutils.TempFolderTestCase;
+
+public class ResumableCopierTest extends TempFolderTestCase {
+
+	private ResumableCopier copier;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		copier = new ResumableCopier();
+		copier.setBufferSize(100);
+		copier.setCheckpointSize(1000);
+	}
+
+	public void testResume() throws Exception {
+		byte[] data = data(5500);
+		FileObject src = write("src", data);
+		final FileObject dest = base.resolveFile("dest");
+		final long[] confirmed = new long[1];
+
+		// interrupt after the second checkpoint
+		try {
+			copier.copy(src, dest, 0, new ResumableCopier.Listener() {
+				public void confirmed(long offset) throws IOException {
+					if (offset > 2000) {
+						throw new IOException("interrupted");
+					}
+					confirmed[0] = offset;
+				}
+			});
+			fail("the copy should have been interrupted");
+		}
+		catch (FileSystemException e) {}
+		assertEquals(2000, confirmed[0]);
+
+		// garbage after the confirmed offset is overwritten
+		dest.refresh();
+		assertTrue(dest.getContent().getSize() > 2000);
+		assertEquals(2000, copier.copy(src, dest, confirmed[0], null));
+		assertTrue(Arrays.equals(data, read(dest)));
+
+		// a destination that is too short is copied completely
+		write("short", data(100));
+		assertEquals(0, copier.copy(src, base.resolveFile("short"), 2000, null));
+		assertTrue(Arrays.equals(data, read(base.resolveFile("short"))));
+	}
+
+	public void testMatchesBefore() throws Exception {
+		byte[] data = data(5500);
+		FileObject src = write("src", data);
+		byte[] partial = new byte[3000];
+		System.arraycopy(data, 0, partial, 0, partial.length);
+		FileObject dest = write("dest", partial);
+
+		assertTrue(copier.matchesBefore(src, dest, 3000, 1000));
+		assertTrue(copier.matchesBefore(src, dest, 3000, 5000));
+
+		partial[2500]++;
+		dest = write("dest", partial);
+		assertFalse(copier.matchesBefore(src, dest, 3000, 1000));
+		assertTrue(copier.matchesBefore(src, dest, 3000, 400));
+		// the destination is shorter than the offset
+		assertFalse(copier.matchesBefore(src, dest, 3500, 1000));
+	}
+}
@@ -0,0 +1,53 @@
+package org.vfsutils.delta;
+
+import java.util.Arrays;
+
+import org.apache.commons.vfs2.FileObject;
+import org.vfsutils.TempFolderTestCase;
+
+public class DeltaCopierTest extends TempFolderTestCase {
+
+	private DeltaCopier copier;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		copier = new DeltaCopier();
+		copier.setBlockSize(1024);
+	}
+
+	public void testModifiedAndAppended() throws Exception {
+		byte[] old = data(10 * 1024);
+		FileObject dest = write("dest", old);
+
+		byte[] changed = new byte[12 * 1024 + 10];
+		System.arraycopy(old, 0, changed, 0, old.length);
+		changed[3000] ^= 1;
+		FileObject src = write("src", changed);
+
+		assertTrue(copier.canUpdate(src, dest));
+		DeltaCopier.Stats stats = copier.update(src, dest);
+		assertEquals(13, stats.blocks);
+		// block 2 and the three appended blocks
+		assertEquals(4, stats.changedBlocks);
+		assertTrue(Arrays.equals(changed, read(dest)));
+	}
+
+	public void testTruncated() throws Exception {
+		byte[] old = data(5000);
+		FileObject dest = write("dest", old);
+		byte[] shorter = new byte[2100];
+		System.arraycopy(old, 0, shorter, 0, shorter.length);
+		FileObject src = write("src", shorter);
+
+		DeltaCopier.Stats stats = copier.update(src, dest);
+		// the shorter file is a prefix, only the length changes
+		assertEquals(0, stats.changedBlocks);
+		assertTrue(Arrays.equals(shorter, read(dest)));
+	}
+
+	public void testUnsupported() throws Exception {
+		FileObject src = write("src", data(10));
+		assertFalse(copier.canUpdate(src, base.resolveFile("missing")));
+		assertFalse(copier.canUpdate(src, base));
+	}
+}
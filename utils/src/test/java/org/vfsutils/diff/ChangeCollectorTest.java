@@ -0,0 +1,65 @@
+package org.vfsutils.diff;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.vfs2.FileChangeEvent;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.VFS;
+
+public class ChangeCollectorTest extends TestCase {
+
+	public void testTake() throws Exception {
+		FileObject folder = VFS.getManager().resolveFile("ram:///watch/b");
+		FileObject file = VFS.getManager().resolveFile("ram:///watch/b/file");
+		FileObject other = VFS.getManager().resolveFile("ram:///watch/a");
+
+		ChangeCollector collector = new ChangeCollector();
+		assertTrue(collector.take(0, 10).isEmpty());
+
+		collector.fileCreated(new FileChangeEvent(file));
+		collector.fileChanged(new FileChangeEvent(other));
+		collector.fileCreated(new FileChangeEvent(folder));
+		collector.fileDeleted(new FileChangeEvent(file));
+		assertEquals(3, collector.size());
+
+		List changes = collector.take(10, 0);
+		assertEquals(0, collector.size());
+		assertEquals(3, changes.size());
+		assertEquals(other, ((ChangeCollector.Change) changes.get(0)).getFile());
+		assertEquals(folder, ((ChangeCollector.Change) changes.get(1)).getFile());
+		ChangeCollector.Change last = (ChangeCollector.Change) changes.get(2);
+		assertEquals(file, last.getFile());
+		assertTrue(last.isDeleted());
+	}
+
+	public void testMaxLatency() throws Exception {
+		final FileObject file = VFS.getManager().resolveFile("ram:///watch/busy");
+		final ChangeCollector collector = new ChangeCollector();
+		Thread changer = new Thread() {
+			public void run() {
+				try {
+					while (!isInterrupted()) {
+						collector.fileChanged(new FileChangeEvent(file));
+						Thread.sleep(10);
+					}
+				}
+				catch (Exception e) {
+					//stop
+				}
+			}
+		};
+		changer.start();
+		try {
+			long start = System.currentTimeMillis();
+			List changes = collector.take(1000, 200, 0);
+			assertEquals(1, changes.size());
+			assertTrue(System.currentTimeMillis() - start < 1000);
+		}
+		finally {
+			changer.interrupt();
+			changer.join();
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package org.vfsutils.diff;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileType;
+import org.apache.commons.vfs2.Selectors;
+import org.apache.commons.vfs2.VFS;
+
+public class DirectoryDiffTest extends TestCase {
+	
+	private FileObject base;
+	
+	protected void setUp() throws Exception {
+		File tmp = File.createTempFile("diff", "");
+		tmp.delete();
+		base = VFS.getManager().toFileObject(tmp);
+		base.resolveFile("src/added").createFile();
+		base.resolveFile("src/both").createFile();
+		base.resolveFile("src/conflict").createFile();
+		base.resolveFile("src/folder").createFolder();
+		base.resolveFile("dest/both").createFile();
+		base.resolveFile("dest/conflict").createFolder();
+		base.resolveFile("dest/folder").createFolder();
+		base.resolveFile("dest/removed").createFile();
+	}
+	
+	protected void tearDown() throws Exception {
+		base.delete(Selectors.SELECT_ALL);
+	}
+	
+	private void assertEvent(DiffEvent event, int type, String name) {
+		assertEquals(type, event.getType());
+		FileObject file = (type == DiffEvent.REMOVED ? event.getDest() : event.getSrc());
+		assertEquals(name, file.getName().getBaseName());
+	}
+
+	public void testMergeJoin() throws Exception {
+		DirectoryDiff diff = new DirectoryDiff(base.resolveFile("src"), base.resolveFile("dest"));
+		
+		DiffEvent event = diff.next();
+		assertEvent(event, DiffEvent.ADDED, "added");
+		assertEquals(FileType.IMAGINARY, event.getDest().getType());
+		assertEquals("dest", event.getDest().getParent().getName().getBaseName());
+		
+		assertEvent(diff.next(), DiffEvent.MATCHED, "both");
+		assertEvent(diff.next(), DiffEvent.TYPE_CONFLICT, "conflict");
+		assertEvent(diff.next(), DiffEvent.MATCHED, "folder");
+		assertEvent(diff.next(), DiffEvent.REMOVED, "removed");
+		assertNull(diff.next());
+	}
+	
+	public void testMissingDestination() throws Exception {
+		DirectoryDiff diff = new DirectoryDiff(base.resolveFile("src"), base.resolveFile("missing"));
+		int added = 0;
+		DiffEvent event;
+		while ((event = diff.next()) != null) {
+			assertEquals(DiffEvent.ADDED, event.getType());
+			added++;
+		}
+		assertEquals(4, added);
+	}
+
+}
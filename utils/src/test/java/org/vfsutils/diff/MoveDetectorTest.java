@@ -0,0 +1,81 @@
+package org.vfsutils.diff;
+
+import java.io.File;
+import java.io.OutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.Selectors;
+import org.apache.commons.vfs2.VFS;
+import org.vfsutils.digest.DigestEngine;
+
+public class MoveDetectorTest extends TestCase {
+
+	private FileObject base;
+
+	protected void setUp() throws Exception {
+		File tmp = File.createTempFile("moves", "");
+		tmp.delete();
+		base = VFS.getManager().toFileObject(tmp);
+	}
+
+	protected void tearDown() throws Exception {
+		base.delete(Selectors.SELECT_ALL);
+	}
+
+	private FileObject write(String name, int size, int seed) throws Exception {
+		FileObject file = base.resolveFile(name);
+		OutputStream out = file.getContent().getOutputStream();
+		for (int i=0; i<size; i++) {
+			out.write(i * seed);
+		}
+		out.close();
+		return file;
+	}
+
+	public void testFindMoved() throws Exception {
+		write("dest/old/a", 5000, 3);
+		write("dest/old/b", 5000, 7);
+		write("dest/old/empty", 0, 1);
+		FileObject srcA = write("src/a", 5000, 3);
+		FileObject srcC = write("src/c", 5000, 11);
+		FileObject srcEmpty = write("src/empty", 0, 1);
+
+		MoveDetector detector = new MoveDetector(new DigestEngine());
+		detector.setSampleSize(1000);
+		detector.addRemoved(base.resolveFile("dest/old"));
+		assertEquals(2, detector.size());
+
+		FileObject moved = detector.findMoved(srcA, base.resolveFile("dest/new/a"));
+		assertNotNull(moved);
+		assertEquals("a", moved.getName().getBaseName());
+		assertEquals(1, detector.size());
+
+		// a candidate is only returned once
+		assertNull(detector.findMoved(srcA, base.resolveFile("dest/new/a2")));
+		assertNull(detector.findMoved(srcC, base.resolveFile("dest/new/c")));
+		assertNull(detector.findMoved(srcEmpty, base.resolveFile("dest/new/empty")));
+	}
+
+	public void testDifferentBetweenSamples() throws Exception {
+		write("dest/old/a", 5000, 3);
+		// only a byte outside the three samples of 1000 bytes differs
+		FileObject src = base.resolveFile("src/a");
+		byte[] content = new byte[5000];
+		for (int i=0; i<content.length; i++) {
+			content[i] = (byte) (i * 3);
+		}
+		content[1500]++;
+		OutputStream out = src.getContent().getOutputStream();
+		out.write(content);
+		out.close();
+
+		MoveDetector detector = new MoveDetector(new DigestEngine());
+		detector.setSampleSize(1000);
+		detector.addRemoved(base.resolveFile("dest/old"));
+		assertEquals(detector.fingerprint(src), detector.fingerprint(base.resolveFile("dest/old/a")));
+		assertNull(detector.findMoved(src, base.resolveFile("dest/new/a")));
+		assertEquals(1, detector.size());
+	}
+}
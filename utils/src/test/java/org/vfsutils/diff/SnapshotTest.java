@@ -0,0 +1,109 @@
+package org.vfsutils.diff;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileType;
+import org.apache.commons.vfs2.Selectors;
+import org.apache.commons.vfs2.VFS;
+
+public class SnapshotTest extends TestCase {
+
+	private FileObject base;
+	private File state;
+
+	protected void setUp() throws Exception {
+		File tmp = File.createTempFile("snapshot", "");
+		tmp.delete();
+		base = VFS.getManager().toFileObject(tmp);
+		base.resolveFile("dest/folder/file").createFile();
+		state = File.createTempFile("snapshot", ".state");
+	}
+
+	protected void tearDown() throws Exception {
+		base.delete(Selectors.SELECT_ALL);
+		state.delete();
+	}
+
+	private Snapshot createSnapshot(FileObject dest) throws Exception {
+		Snapshot snapshot = new Snapshot(dest);
+		snapshot.put(".", FileType.FOLDER, -1, -1);
+		snapshot.put("folder", FileType.FOLDER, -1, -1);
+		snapshot.put("folder/file", FileType.FILE, 12, 1234567890L);
+		snapshot.put("folder/file2", FileType.FILE, 0, 42);
+		snapshot.setBase(dest);
+		return snapshot;
+	}
+
+	public void testRoundTrip() throws Exception {
+		FileObject dest = base.resolveFile("dest");
+		createSnapshot(dest).save(state);
+
+		Snapshot snapshot = Snapshot.load(state);
+		assertTrue(snapshot.matches(dest));
+		assertEquals(4, snapshot.size());
+		assertEquals(1, snapshot.getChildren(".").length);
+		assertEquals(2, snapshot.getChildren("folder").length);
+
+		Snapshot.Entry entry = snapshot.get("folder/file");
+		assertEquals(FileType.FILE, entry.type);
+		assertEquals(12, entry.size);
+		assertEquals(1234567890L, entry.lastModified);
+		assertEquals(FileType.FOLDER, snapshot.get("folder").type);
+	}
+
+	public void testUnlisted() throws Exception {
+		FileObject dest = base.resolveFile("dest");
+		Snapshot previous = createSnapshot(dest);
+		Snapshot snapshot = new Snapshot(dest);
+		snapshot.put(".", FileType.FOLDER, -1, -1);
+		snapshot.copy(previous, "folder");
+		snapshot.putUnlisted("other");
+		snapshot.save(state);
+
+		snapshot = Snapshot.load(state);
+		assertEquals(5, snapshot.size());
+		assertEquals(12, snapshot.get("folder/file").size);
+		assertTrue(snapshot.isListed("folder"));
+		assertFalse(snapshot.isListed("other"));
+		assertFalse(snapshot.isListed("other/sub"));
+		assertEquals(0, snapshot.getChildren("other").length);
+
+		// an unlisted folder stays unlisted when it is copied
+		Snapshot next = new Snapshot(dest);
+		next.copy(snapshot, "other");
+		assertFalse(next.isListed("other"));
+	}
+
+	public void testStale() throws Exception {
+		FileObject dest = base.resolveFile("dest");
+		createSnapshot(dest).save(state);
+
+		Snapshot snapshot = Snapshot.load(state);
+		assertFalse(snapshot.matches(base.resolveFile("dest/folder")));
+
+		dest.getContent().setLastModifiedTime(dest.getContent().getLastModifiedTime() - 10000);
+		assertFalse(snapshot.matches(dest));
+	}
+
+	public void testCorrupt() throws Exception {
+		createSnapshot(base.resolveFile("dest")).save(state);
+
+		RandomAccessFile raf = new RandomAccessFile(state, "rw");
+		raf.seek(raf.length() - 12);
+		raf.write(0xFF);
+		raf.close();
+
+		try {
+			Snapshot.load(state);
+			fail("Corruption not detected");
+		}
+		catch (IOException e) {
+			//expected
+		}
+	}
+}
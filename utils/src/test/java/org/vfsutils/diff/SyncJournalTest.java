@@ -0,0 +1,90 @@
+package org.vfsutils.diff;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import junit.framework.TestCase;
+
+public class SyncJournalTest extends TestCase {
+
+	private File file;
+
+	protected void setUp() throws Exception {
+		file = File.createTempFile("journal", ".txt");
+	}
+
+	protected void tearDown() throws Exception {
+		file.delete();
+	}
+
+	public void testResume() throws Exception {
+		SyncJournal journal = new SyncJournal(file, "src\tdest", false);
+		journal.begin(".", true);
+		journal.begin("a", true);
+		journal.begin("a/x", false);
+		journal.begin("b", true);
+		journal.begin("b/y", false);
+		journal.begin("b/z", false);
+		journal.end(".");
+		journal.end("b");
+		journal.end("b/y");
+		journal.progress("b/z", 100, 5, 40);
+		journal.end("a");
+		journal.end("a/x");
+		journal.close();
+
+		// simulate a crash while writing
+		FileWriter writer = new FileWriter(file, true);
+		writer.write("P\t100\t5\t8");
+		writer.close();
+
+		journal = new SyncJournal(file, "src\tdest", true);
+		assertTrue(journal.isDone("a"));
+		assertTrue(journal.isDone("a/x"));
+		assertTrue(journal.isDone("b/y"));
+		assertFalse(journal.isDone("b"));
+		assertFalse(journal.isDone("."));
+		assertEquals(40, journal.getOffset("b/z", 100, 5));
+		// the source changed
+		assertEquals(0, journal.getOffset("b/z", 100, 6));
+		journal.close();
+
+		try {
+			new SyncJournal(file, "other", true);
+			fail("a journal of another synchronization must be refused");
+		}
+		catch (IllegalArgumentException e) {}
+	}
+
+	public void testResumeCutRecord() throws Exception {
+		SyncJournal journal = new SyncJournal(file, "key", false);
+		journal.begin(".", true);
+		journal.begin("abc", false);
+		journal.begin("abd", false);
+		journal.end(".");
+		journal.end("abc");
+		journal.close();
+
+		// simulate a crash in the middle of a file record
+		FileWriter writer = new FileWriter(file, true);
+		writer.write("F\tab");
+		writer.close();
+
+		journal = new SyncJournal(file, "key", true);
+		assertTrue(journal.isDone("abc"));
+		assertFalse(journal.isDone("ab"));
+		journal.begin(".", true);
+		journal.begin("abd", false);
+		journal.end(".");
+		journal.end("abd");
+		journal.close();
+
+		journal = new SyncJournal(file, "key", true);
+		assertTrue(journal.isDone("abc"));
+		assertTrue(journal.isDone("abd"));
+		assertTrue(journal.isDone("."));
+		assertFalse(journal.isDone("ab"));
+		assertFalse(journal.isDone("ababd"));
+		journal.close();
+	}
+}
@@ -0,0 +1,40 @@
+package org.vfsutils.digest;
+
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+public class AttributeChecksumResolverTest extends TestCase {
+
+	private static final String MD5_EMPTY = "d41d8cd98f00b204e9800998ecf8427e";
+
+	public void testResolve() throws Exception {
+		AttributeChecksumResolver resolver = new AttributeChecksumResolver();
+		Map attributes = new TreeMap();
+		assertNull(resolver.resolve(attributes, DigestEngine.MD5));
+
+		attributes.put("Content-MD5", MD5_EMPTY.toUpperCase());
+		assertEquals(new BigInteger(MD5_EMPTY, 16), resolver.resolve(attributes, DigestEngine.MD5));
+		// another algorithm needs the content
+		assertNull(resolver.resolve(attributes, DigestEngine.SHA256));
+
+		attributes.put("checksum.crc32", "crc32:cbf43926");
+		assertEquals(new BigInteger("cbf43926", 16), resolver.resolve(attributes, DigestEngine.CRC32));
+	}
+
+	public void testETag() throws Exception {
+		AttributeChecksumResolver resolver = new AttributeChecksumResolver();
+		Map attributes = new TreeMap();
+		attributes.put("ETag", "\"" + MD5_EMPTY + "\"");
+		assertNull(resolver.resolve(attributes, DigestEngine.MD5));
+
+		resolver.addAttribute("md5", "etag");
+		assertEquals(new BigInteger(MD5_EMPTY, 16), resolver.resolve(attributes, DigestEngine.MD5));
+
+		// the ETag of a multipart upload is not a digest of the content
+		attributes.put("ETag", "\"" + MD5_EMPTY + "-3\"");
+		assertNull(resolver.resolve(attributes, DigestEngine.MD5));
+	}
+}
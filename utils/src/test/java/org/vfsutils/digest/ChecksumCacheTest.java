@@ -0,0 +1,87 @@
+package org.vfsutils.digest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.VFS;
+
+public class ChecksumCacheTest extends TestCase {
+	
+	private File cacheFile;
+	private File dataFile;
+	
+	protected void setUp() throws Exception {
+		cacheFile = File.createTempFile("checksums", ".cache");
+		cacheFile.delete();
+		dataFile = File.createTempFile("checksums", ".txt");
+		FileOutputStream out = new FileOutputStream(dataFile);
+		out.write("hello world".getBytes("US-ASCII"));
+		out.close();
+	}
+	
+	protected void tearDown() throws Exception {
+		cacheFile.delete();
+		dataFile.delete();
+	}
+	
+	public void testPersistence() throws Exception {
+		FileObject file = VFS.getManager().toFileObject(dataFile);
+		DigestEngine engine = new DigestEngine();
+		
+		ChecksumCache cache = new ChecksumCache(cacheFile);
+		engine.setChecksumCache(cache);
+		BigInteger first = engine.calculate(file, "md5");
+		assertEquals("5eb63bbbe01eeed093cb22bb8f5acdc3", engine.toString(first, "md5"));
+		assertEquals(0, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		cache.close();
+		
+		cache = new ChecksumCache(cacheFile);
+		engine.setChecksumCache(cache);
+		assertEquals(1, cache.size());
+		assertEquals(first, engine.calculate(file, "md5"));
+		assertEquals(1, cache.getHits());
+		assertEquals(0, cache.getMisses());
+		cache.close();
+	}
+	
+	public void testChangedFile() throws Exception {
+		FileObject file = VFS.getManager().toFileObject(dataFile);
+		ChecksumCache cache = new ChecksumCache(cacheFile);
+		cache.put(file, "MD5", BigInteger.ONE);
+		
+		dataFile.setLastModified(dataFile.lastModified() - 10000);
+		file.refresh();
+		assertNull(cache.get(file, "MD5"));
+		cache.close();
+	}
+	
+	public void testEviction() throws Exception {
+		FileObject file = VFS.getManager().toFileObject(dataFile);
+		ChecksumCache cache = new ChecksumCache(cacheFile, 1);
+		cache.put(file, "MD5", BigInteger.ONE);
+		cache.put(file, "SHA-1", BigInteger.TEN);
+		assertEquals(1, cache.size());
+		assertEquals(1, cache.getEvictions());
+		assertNull(cache.get(file, "MD5"));
+		assertEquals(BigInteger.TEN, cache.get(file, "SHA-1"));
+		cache.close();
+	}
+	
+	public void testNotACache() throws Exception {
+		try {
+			new ChecksumCache(dataFile);
+			fail("a file that is not a cache is opened");
+		}
+		catch (IOException e) {
+			//expected
+		}
+		assertEquals(11, dataFile.length());
+	}
+
+}
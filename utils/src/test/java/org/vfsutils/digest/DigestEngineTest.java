@@ -0,0 +1,90 @@
+package org.vfsutils.digest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.VFS;
+
+public class DigestEngineTest extends TestCase {
+	
+	private String digest(String algorithm, String input) throws Exception {
+		DigestEngine engine = new DigestEngine();
+		MessageDigest digest = engine.createDigest(algorithm);
+		digest.update(input.getBytes("US-ASCII"));
+		return engine.toString(new BigInteger(1, digest.digest()), algorithm);
+	}
+	
+	public void testXxHash64() throws Exception {
+		assertEquals("ef46db3751d8e999", digest("xxhash64", ""));
+		assertEquals("44bc2cf5ad770999", digest("xxhash64", "abc"));
+		assertEquals("fbcea83c8a378bf1", digest("xxhash64", "Nobody inspects the spammish repetition"));
+	}
+	
+	public void testXxHash64Chunked() throws Exception {
+		String input = "Nobody inspects the spammish repetition";
+		MessageDigest digest = new XxHash64();
+		byte[] bytes = input.getBytes("US-ASCII");
+		digest.update(bytes, 0, 5);
+		digest.update(bytes, 5, 30);
+		digest.update(bytes, 35, bytes.length - 35);
+		assertEquals("fbcea83c8a378bf1", new DigestEngine().toString(new BigInteger(1, digest.digest()), "xxhash64"));
+	}
+	
+	public void testChecksums() throws Exception {
+		assertEquals("e3069283", digest("crc32c", "123456789"));
+		assertEquals("cbf43926", digest("crc32", "123456789"));
+	}
+	
+	public void testNormalize() throws Exception {
+		DigestEngine engine = new DigestEngine();
+		assertEquals("SHA-256", engine.normalize("sha256"));
+		assertEquals("SHA-1", engine.normalize("SHA-1"));
+		assertEquals("d41d8cd98f00b204e9800998ecf8427e", digest("md5", ""));
+	}
+	
+	public void testLocalFile() throws Exception {
+		// larger than the default map threshold of 8MB
+		File tmp = File.createTempFile("digest", ".bin");
+		try {
+			FileOutputStream out = new FileOutputStream(tmp);
+			byte[] block = new byte[100000];
+			for (int i=0; i<85; i++) {
+				for (int j=0; j<block.length; j++) {
+					block[j] = (byte) (i * 7 + j * 13 + j / 11);
+				}
+				out.write(block);
+			}
+			out.write(block, 0, 12345);
+			out.close();
+			FileObject file = VFS.getManager().toFileObject(tmp);
+			String[] algorithms = new String[] {"MD5", "CRC32C", "XXHASH64"};
+			
+			DigestEngine stream = new DigestEngine();
+			stream.setUseFileChannel(false);
+			BigInteger[] expected = stream.calculate(file, algorithms);
+			
+			// mapped with the default window
+			assertTrue(Arrays.equals(expected, new DigestEngine().calculate(file, algorithms)));
+			
+			// mapped in several windows, the last one partial
+			DigestEngine windows = new DigestEngine();
+			windows.setMapWindowSize(1024 * 1024);
+			assertTrue(Arrays.equals(expected, windows.calculate(file, algorithms)));
+			
+			// read from the channel in chunks
+			DigestEngine chunks = new DigestEngine();
+			chunks.setMapThreshold(Long.MAX_VALUE);
+			assertTrue(Arrays.equals(expected, chunks.calculate(file, algorithms)));
+		}
+		finally {
+			tmp.delete();
+		}
+	}
+
+}
@@ -0,0 +1,58 @@
+package org.vfsutils.digest;
+
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+public class ManifestReaderTest extends TestCase {
+	
+	public void testFormats() throws Exception {
+		String manifest = "# release manifest\n"
+			+ "d41d8cd98f00b204e9800998ecf8427e  empty file.txt\n"
+			+ "\n"
+			+ "5eb63bbbe01eeed093cb22bb8f5acdc3 *bin/hello.bin\r\n"
+			+ "SHA256 (docs/readme.txt) = e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855\n"
+			+ "\\d41d8cd98f00b204e9800998ecf8427e  back\\\\slash\n"
+			+ "not a checksum line\n";
+		ManifestReader reader = new ManifestReader(new StringReader(manifest));
+		
+		ManifestEntry entry = reader.next();
+		assertEquals("d41d8cd98f00b204e9800998ecf8427e", entry.checksum);
+		assertEquals("empty file.txt", entry.fileName);
+		assertNull(entry.algorithm);
+		assertEquals(2, entry.lineNumber);
+		
+		entry = reader.next();
+		assertEquals("bin/hello.bin", entry.fileName);
+		
+		entry = reader.next();
+		assertEquals("SHA256", entry.algorithm);
+		assertEquals("docs/readme.txt", entry.fileName);
+		assertEquals(64, entry.checksum.length());
+		
+		entry = reader.next();
+		assertEquals("back\\slash", entry.fileName);
+		
+		entry = reader.next();
+		assertFalse(entry.isValid());
+		
+		assertNull(reader.next());
+	}
+	
+	public void testSingleChecksum() throws Exception {
+		ManifestReader reader = new ManifestReader(new StringReader("d41d8cd98f00b204e9800998ecf8427e\n"));
+		ManifestEntry entry = reader.next();
+		assertEquals("d41d8cd98f00b204e9800998ecf8427e", entry.checksum);
+		assertNull(entry.fileName);
+		
+		reader = new ManifestReader(new StringReader("d41d8cd98f00b204e9800998ecf8427e empty.txt"));
+		entry = reader.next();
+		assertEquals("empty.txt", entry.fileName);
+	}
+	
+	public void testAlgorithm() {
+		assertEquals("SHA-256", ManifestReader.algorithmFromExtension("SHA256"));
+		assertEquals("SHA-1", ManifestReader.algorithmFromLength("da39a3ee5e6b4b0d3255bfef95601890afd80709"));
+	}
+
+}
@@ -0,0 +1,43 @@
+package org.vfsutils.selector;
+
+import junit.framework.TestCase;
+
+public class PathFilterTest extends TestCase {
+
+	public void testExclude() {
+		PathFilter filter = new PathFilter();
+		filter.addExcludes(".git, *.class, /build, target/");
+
+		assertFalse(filter.traverse(".git"));
+		assertFalse(filter.traverse("a/b/.git"));
+		assertFalse(filter.accept("a/B.class", false));
+		assertTrue(filter.accept("a/B.java", false));
+		assertFalse(filter.traverse("build"));
+		assertTrue(filter.traverse("a/build"));
+		assertFalse(filter.traverse("a/target"));
+		// only folders match a pattern that ends with a separator
+		assertTrue(filter.accept("a/target", false));
+	}
+
+	public void testInclude() {
+		PathFilter filter = new PathFilter();
+		filter.addIncludes("src/main/**/*.java, /docs");
+		filter.addExcludes("**/internal/**");
+
+		assertTrue(filter.traverse("src"));
+		assertTrue(filter.traverse("src/main/org"));
+		assertFalse(filter.traverse("lib"));
+		assertTrue(filter.accept("src/main/org/A.java", false));
+		assertFalse(filter.accept("src/main/org/a.txt", false));
+		assertFalse(filter.accept("src/main/internal/A.java", false));
+		// everything in an included folder
+		assertTrue(filter.traverse("docs/guide"));
+		assertTrue(filter.accept("docs/guide/index.html", false));
+
+		// a name without separator can be anywhere, so every folder is listed
+		filter = new PathFilter();
+		filter.addIncludes("*.txt");
+		assertTrue(filter.traverse("lib"));
+		assertTrue(filter.accept("lib/a.txt", false));
+	}
+}